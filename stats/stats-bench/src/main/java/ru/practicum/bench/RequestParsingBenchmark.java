@@ -0,0 +1,121 @@
+package ru.practicum.bench;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.datatype.jsr310.deser.LocalDateTimeDeserializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.DateConstants;
+import ru.practicum.dto.EndpointHit;
+import ru.practicum.validation.IpAddress;
+import ru.practicum.validation.Timestamps;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+//Разбор полей запроса: время start/end и тела /hit, IP просмотра. Прежний путь (регулярное выражение и новый
+//DateTimeFormatter на каждый вызов, @JsonFormat с JavaTimeModule) против Timestamps, TimestampDeserializer
+//и IpAddress. Это только разбор: в /hit целиком он теряется на фоне записи в хранилище
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+    private static final String TIMESTAMP = "2025-03-14 15:09:26";
+
+    private static final String IPV4 = "192.168.100.254";
+
+    private static final String IPV6 = "2001:db8:85a3::8a2e:370:7334";
+
+    //Проверка даты из StatisticValidation до Timestamps
+    private static final Pattern DATE_PATTERN = Pattern.compile("^(20[23][0-9])-([0][1-9]|[1][012])-"
+            + "([12][0-9]|[3][01]|[0][1-9]) ([0][1-9]|[1][0-9]|[2][0-3]|[0][0])[:]([0-5][0-9])[:]([0-5][0-9])$");
+
+    private static final Pattern IPV4_PATTERN = Pattern.compile(
+            "^((25[0-5]|2[0-4][0-9]|1[0-9][0-9]|[1-9]?[0-9])\\.){3}(25[0-5]|2[0-4][0-9]|1[0-9][0-9]|[1-9]?[0-9])$");
+
+    private static final byte[] HIT_BODY = ("{\"hitId\":\"0b7e5c1e-6f1a-4a52-9d3e-2f8c1a7b9e01\","
+            + "\"app\":\"ewm-main-service\",\"uri\":\"/events/12345\",\"ip\":\"192.168.100.254\","
+            + "\"timestamp\":\"2025-03-14 15:09:26\"}").getBytes(StandardCharsets.UTF_8);
+
+    //Как у Spring Boot до TimestampDeserializer: JavaTimeModule и формат из @JsonFormat
+    private final ObjectMapper formatterMapper = new ObjectMapper().registerModule(new JavaTimeModule())
+            .addMixIn(EndpointHit.class, FormatterTimestamp.class);
+
+    private final ObjectMapper handRolledMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+
+    @Benchmark
+    public LocalDateTime timestampRegexAndFormatter() {
+        if (!DATE_PATTERN.matcher(TIMESTAMP).matches()) {
+            return null;
+        }
+        return LocalDateTime.parse(TIMESTAMP, DateTimeFormatter.ofPattern(DateConstants.DATE_PATTERN));
+    }
+
+    @Benchmark
+    public LocalDateTime timestampSharedFormatter() {
+        return LocalDateTime.parse(TIMESTAMP, DateConstants.DTF);
+    }
+
+    @Benchmark
+    public LocalDateTime timestampHandRolled() {
+        return Timestamps.parse(TIMESTAMP);
+    }
+
+    @Benchmark
+    public boolean ipv4Regex() {
+        return IPV4_PATTERN.matcher(IPV4).matches();
+    }
+
+    @Benchmark
+    public byte[] ipv4HandRolled() {
+        return IpAddress.parse(IPV4);
+    }
+
+    @Benchmark
+    public byte[] ipv6InetAddress() throws UnknownHostException {
+        return InetAddress.getByName(IPV6).getAddress();
+    }
+
+    @Benchmark
+    public byte[] ipv6HandRolled() {
+        return IpAddress.parse(IPV6);
+    }
+
+    @Benchmark
+    public EndpointHit hitBodyFormatter() throws IOException {
+        return formatterMapper.readValue(HIT_BODY, EndpointHit.class);
+    }
+
+    @Benchmark
+    public EndpointHit hitBodyHandRolled() throws IOException {
+        return handRolledMapper.readValue(HIT_BODY, EndpointHit.class);
+    }
+
+    //Подменяет TimestampDeserializer прежним разбором JavaTimeModule по шаблону из @JsonFormat.
+    //Аннотация на сеттере: аннотация поля из примеси не перекрывает аннотацию поля EndpointHit
+    private abstract static class FormatterTimestamp {
+
+        @JsonDeserialize(using = LocalDateTimeDeserializer.class)
+        abstract void setTimestamp(LocalDateTime timestamp);
+
+    }
+
+}
@@ -0,0 +1,134 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+//Запрос /stats по сырым просмотрам на H2: прежняя группировка по (app, uri, ip) против группировки по (app, uri),
+//с прежним индексом (uri_id, view_date) и с покрывающим (uri_id, view_date, ip).
+//200 тыс. просмотров по 100 uri за год, uris=0 - все uri, uris=3 - фильтр по трём
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StatsAggregationBenchmark {
+
+    private static final int HITS = 200_000;
+
+    private static final int URIS = 100;
+
+    private static final int IPS = 5_000;
+
+    private static final LocalDateTime START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    @Param({"app_id, uri_id, ip", "app_id, uri_id"})
+    private String groupBy;
+
+    @Param({"false", "true"})
+    private boolean unique;
+
+    @Param({"0", "3"})
+    private int uris;
+
+    @Param({"uri_id, view_date", "uri_id, view_date, ip"})
+    private String index;
+
+    private Connection connection;
+
+    private PreparedStatement query;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:bench;OPTIMIZE_REUSE_RESULTS=FALSE");
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE apps (id INT PRIMARY KEY, name VARCHAR(255) NOT NULL)");
+            statement.execute("CREATE TABLE uris (id INT PRIMARY KEY, name VARCHAR(512) NOT NULL)");
+            statement.execute("CREATE TABLE statistic (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, " +
+                    "app_id INT NOT NULL, uri_id INT NOT NULL, ip BINARY VARYING(16) NOT NULL, " +
+                    "view_date TIMESTAMP NOT NULL)");
+            statement.execute("CREATE INDEX idx_statistic_view_date ON statistic (view_date)");
+            statement.execute("CREATE INDEX idx_statistic_uri ON statistic (" + index + ")");
+            statement.execute("INSERT INTO apps VALUES (1, 'ewm-main')");
+        }
+        try (PreparedStatement insert = connection.prepareStatement("INSERT INTO uris VALUES (?, ?)")) {
+            for (int uri = 1; uri <= URIS; uri++) {
+                insert.setInt(1, uri);
+                insert.setString(2, "/events/" + uri);
+                insert.addBatch();
+            }
+            insert.executeBatch();
+        }
+        Random random = new Random(42);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO statistic (app_id, uri_id, ip, view_date) VALUES (1, ?, ?, ?)")) {
+            for (int i = 0; i < HITS; i++) {
+                int ip = random.nextInt(IPS);
+                insert.setInt(1, 1 + random.nextInt(URIS));
+                insert.setBytes(2, new byte[]{10, 0, (byte) (ip >> 8), (byte) ip});
+                insert.setTimestamp(3, Timestamp.valueOf(START.plusMinutes(random.nextInt(365 * 24 * 60))));
+                insert.addBatch();
+                if (i % 10_000 == 9_999) {
+                    insert.executeBatch();
+                }
+            }
+        }
+        String count = unique ? "COUNT(DISTINCT s.ip)" : "COUNT(s.ip)";
+        query = connection.prepareStatement("SELECT a.name, u.name, " + count + " AS hits " +
+                "FROM statistic s JOIN apps a ON a.id = s.app_id JOIN uris u ON u.id = s.uri_id " +
+                "WHERE s.view_date >= ? AND s.view_date < ? " +
+                (uris > 0 ? "AND s.uri_id IN (1, 2, 3) " : "") +
+                "GROUP BY " + prefixed(groupBy) + ", a.name, u.name ORDER BY hits DESC");
+        query.setTimestamp(1, Timestamp.valueOf(START));
+        query.setTimestamp(2, Timestamp.valueOf(START.plusYears(1)));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP ALL OBJECTS");
+        }
+        connection.close();
+    }
+
+    @Benchmark
+    public int stats(Blackhole blackhole) throws SQLException {
+        int rows = 0;
+        try (ResultSet rs = query.executeQuery()) {
+            while (rs.next()) {
+                blackhole.consume(rs.getString(2));
+                blackhole.consume(rs.getLong(3));
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+    private static String prefixed(String columns) {
+        return "s." + columns.replace(", ", ", s.");
+    }
+
+}
@@ -0,0 +1,94 @@
+package ru.practicum.bench;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import com.fasterxml.jackson.dataformat.smile.databind.SmileMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.practicum.dto.ViewStats;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+//Ответ /stats из 1000 строк в JSON, CBOR и Smile: запись и разбор тем же Jackson, что у сервера и клиента.
+//Размер тела и его gzip печатаются один раз при подготовке
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WireFormatBenchmark {
+
+    private static final int ROWS = 1000;
+
+    private static final TypeReference<List<ViewStats>> VIEW_STATS = new TypeReference<>() {
+    };
+
+    @Param({"json", "cbor", "smile"})
+    private String format;
+
+    private ObjectMapper mapper;
+
+    private List<ViewStats> views;
+
+    private byte[] body;
+
+    @Setup
+    public void setUp() throws IOException {
+        switch (format) {
+            case "json":
+                mapper = new ObjectMapper();
+                break;
+            case "cbor":
+                mapper = new CBORMapper();
+                break;
+            case "smile":
+                mapper = new SmileMapper();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown format: " + format);
+        }
+        Random random = new Random(1);
+        views = new ArrayList<>(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            views.add(new ViewStats("ewm-main-service", "/events/" + (i + 1), (long) random.nextInt(100_000)));
+        }
+        body = mapper.writeValueAsBytes(views);
+        System.out.printf("%n%s: %d bytes, %d bytes gzip%n", format, body.length, gzipSize(body));
+    }
+
+    @Benchmark
+    public byte[] write() throws IOException {
+        return mapper.writeValueAsBytes(views);
+    }
+
+    @Benchmark
+    public List<ViewStats> parse() throws IOException {
+        return mapper.readValue(body, VIEW_STATS);
+    }
+
+    private static int gzipSize(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(bytes);
+        }
+        return out.size();
+    }
+
+}
@@ -3,6 +3,7 @@ package ru.practicum;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import org.apache.http.client.utils.URIBuilder;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
@@ -11,13 +12,23 @@ import org.springframework.http.HttpMethod;
 import org.springframework.http.MediaType;
 import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.DefaultUriBuilderFactory;
 import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitDatagram;
 import ru.practicum.dto.ViewStats;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
 import java.net.URI;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.*;
@@ -34,6 +45,24 @@ public class StatsClient {
 
     private final String viewsFromThisDate = "2000-01-01 00:00:00";
 
+    private final int maxHitAttempts = 3;
+
+    private final long retryDelayMillis = 200;
+
+    //Сколько всего createHit может ждать между попытками, включая Retry-After сервера
+    private final long maxRetryDelayMillis = 2000;
+
+    private final int udpPort = 9091;
+
+    //Формат тела запросов и ответов: application/json, application/cbor или application/x-jackson-smile.
+    //Двоичные форматы короче и быстрее разбираются на больших ответах /stats
+    @Value("${stats.client.media-type:application/json}")
+    private MediaType mediaType = MediaType.APPLICATION_JSON;
+
+    private volatile DatagramChannel udpChannel;
+
+    private volatile InetSocketAddress udpAddress;
+
     private final RestTemplate restTemplate = new RestTemplateBuilder()
             .uriTemplateHandler(new DefaultUriBuilderFactory(String.valueOf(serverUrl)))
             .requestFactory(HttpComponentsClientHttpRequestFactory::new)
@@ -42,16 +71,112 @@ public class StatsClient {
     public void createHit(String uri, String ip) {
         String path = "/hit";
         EndpointHit hitDto = new EndpointHit();
+        //Один id на все попытки: сервер засчитает просмотр один раз, даже если ответ на первую потерялся
+        hitDto.setHitId(UUID.randomUUID().toString());
         hitDto.setApp(appName);
         hitDto.setUri(uri);
         hitDto.setIp(ip);
         hitDto.setTimestamp(LocalDateTime.now());
         HttpEntity<Object> requestEntity = new HttpEntity<>(hitDto, defaultHeaders());
-        restTemplate.exchange(path, HttpMethod.POST, requestEntity, Object.class);
+        long waited = 0;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                restTemplate.exchange(path, HttpMethod.POST, requestEntity, Object.class);
+                return;
+            } catch (ResourceAccessException | HttpServerErrorException | HttpClientErrorException.TooManyRequests e) {
+                long delay = retryDelay(e, attempt);
+                if (attempt == maxHitAttempts || waited + delay > maxRetryDelayMillis) {
+                    throw e;
+                }
+                sleepBeforeRetry(delay, e);
+                waited += delay;
+            }
+        }
+    }
+
+    //Перегруженный сервер (429, 503) сам говорит, когда повторить. Иначе пауза растёт с каждой попыткой
+    private long retryDelay(RuntimeException e, int attempt) {
+        if (e instanceof HttpStatusCodeException) {
+            HttpHeaders headers = ((HttpStatusCodeException) e).getResponseHeaders();
+            String retryAfter = headers == null ? null : headers.getFirst(HttpHeaders.RETRY_AFTER);
+            if (retryAfter != null && retryAfter.matches("\\d{1,9}")) {
+                return Long.parseLong(retryAfter) * 1000;
+            }
+        }
+        return retryDelayMillis * attempt;
+    }
+
+    //UDP без ответа: отправка не ждёт сервер, но просмотр может потеряться. Нужен stats.ingest.udp.enabled
+    public void sendHit(String uri, String ip) {
+        EndpointHit hitDto = new EndpointHit();
+        hitDto.setApp(appName);
+        hitDto.setUri(uri);
+        hitDto.setIp(ip);
+        hitDto.setTimestamp(LocalDateTime.now());
+        sendHits(List.of(hitDto));
+    }
+
+    //Строки пакуются в датаграммы до HitDatagram.MAX_BYTES
+    public void sendHits(List<EndpointHit> hits) {
+        ByteBuffer datagram = ByteBuffer.allocate(HitDatagram.MAX_BYTES);
+        for (EndpointHit hit : hits) {
+            byte[] line = HitDatagram.encode(hit);
+            if (line.length > datagram.capacity()) {
+                throw new IllegalArgumentException("Hit does not fit into a datagram: " + hit.getUri());
+            }
+            if (line.length > datagram.remaining()) {
+                sendDatagram(datagram);
+            }
+            datagram.put(line);
+        }
+        if (datagram.position() > 0) {
+            sendDatagram(datagram);
+        }
+    }
+
+    private void sendDatagram(ByteBuffer datagram) {
+        datagram.flip();
+        try {
+            udpChannel().send(datagram, udpAddress);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            datagram.clear();
+        }
+    }
+
+    //Канал открывается при первой отправке: адрес сервера может ещё не резолвиться при старте.
+    //Канал не соединён, поэтому ICMP "порт недоступен" не превращается в исключения у вызывающего
+    private DatagramChannel udpChannel() throws IOException {
+        DatagramChannel channel = udpChannel;
+        if (channel == null) {
+            synchronized (this) {
+                channel = udpChannel;
+                if (channel == null) {
+                    udpAddress = new InetSocketAddress(serverUrl.getHost(), udpPort);
+                    channel = DatagramChannel.open();
+                    udpChannel = channel;
+                }
+            }
+        }
+        return channel;
+    }
+
+    //Прерванный поток не ждёт следующей попытки: флаг прерывания остаётся, наружу уходит исходная ошибка
+    private void sleepBeforeRetry(long delay, RuntimeException failure) {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure.addSuppressed(e);
+            throw failure;
+        }
     }
 
     private List<ViewStats> sendStatsRequest(String path) {
-        return restTemplate.exchange(path, HttpMethod.GET, null,
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(mediaType));
+        return restTemplate.exchange(path, HttpMethod.GET, new HttpEntity<>(headers),
                 new ParameterizedTypeReference<List<ViewStats>>() {
                 }).getBody();
     }
@@ -69,10 +194,15 @@ public class StatsClient {
         return sendStatsRequest(URLDecoder.decode(path.toString(), StandardCharsets.UTF_8));
     }
 
+    //Все uri с префиксом одним запросом, без списка uri в адресе: getViewsByUriPrefix("/events/")
+    public List<ViewStats> getViewsByUriPrefix(String prefix) {
+        return getViewsByUris(Set.of(prefix + "*"));
+    }
+
     private HttpHeaders defaultHeaders() {
         HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setAccept(List.of(MediaType.APPLICATION_JSON));
+        headers.setContentType(mediaType);
+        headers.setAccept(List.of(mediaType));
         return headers;
     }
 
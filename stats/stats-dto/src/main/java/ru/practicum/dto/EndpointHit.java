@@ -1,6 +1,7 @@
 package ru.practicum.dto;
 
 import com.fasterxml.jackson.annotation.JsonFormat;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
@@ -16,6 +17,9 @@ public class EndpointHit {
 
     private Long id;
 
+    //Необязательный id от клиента (UUID, ULID): повтор с тем же id в пределах окна не засчитывается
+    private String hitId;
+
     @NotBlank
     private String app;
 
@@ -27,6 +31,7 @@ public class EndpointHit {
 
     @NotBlank
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = DateConstants.DATE_PATTERN)
+    @JsonDeserialize(using = TimestampDeserializer.class)
     private LocalDateTime timestamp;
 
 }
\ No newline at end of file
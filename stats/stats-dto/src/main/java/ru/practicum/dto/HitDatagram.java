@@ -0,0 +1,77 @@
+package ru.practicum.dto;
+
+import ru.practicum.DateConstants;
+import ru.practicum.validation.Timestamps;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+/*
+ * Строковый формат просмотров для UDP, по строке на просмотр: app|uri|ip|timestamp|hitId.
+ * timestamp и hitId можно опустить или оставить пустыми: тогда время - момент приёма сервером.
+ * В одной датаграмме сколько угодно строк, лишь бы она не превышала MAX_BYTES.
+ */
+public final class HitDatagram {
+
+    //Без фрагментации IP в типичной сети
+    public static final int MAX_BYTES = 1400;
+
+    private static final char SEPARATOR = '|';
+
+    private HitDatagram() {
+    }
+
+    public static byte[] encode(EndpointHit hit) {
+        StringBuilder line = new StringBuilder(64)
+                .append(hit.getApp()).append(SEPARATOR)
+                .append(hit.getUri()).append(SEPARATOR)
+                .append(hit.getIp()).append(SEPARATOR);
+        if (hit.getTimestamp() != null) {
+            line.append(hit.getTimestamp().format(DateConstants.DTF));
+        }
+        if (hit.getHitId() != null) {
+            line.append(SEPARATOR).append(hit.getHitId());
+        }
+        return line.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    //Возвращает число строк, которые не удалось разобрать
+    public static int decode(String payload, LocalDateTime receivedAt, List<EndpointHit> into) {
+        int malformed = 0;
+        int from = 0;
+        while (from < payload.length()) {
+            int to = payload.indexOf('\n', from);
+            if (to < 0) {
+                to = payload.length();
+            }
+            if (to > from) {
+                EndpointHit hit = decodeLine(payload.substring(from, to), receivedAt);
+                if (hit == null) {
+                    malformed++;
+                } else {
+                    into.add(hit);
+                }
+            }
+            from = to + 1;
+        }
+        return malformed;
+    }
+
+    private static EndpointHit decodeLine(String line, LocalDateTime receivedAt) {
+        String[] fields = line.split("\\|", -1);
+        if (fields.length < 3 || fields.length > 5) {
+            return null;
+        }
+        LocalDateTime timestamp = receivedAt;
+        if (fields.length > 3 && !fields[3].isEmpty()) {
+            timestamp = Timestamps.parse(fields[3]);
+            if (timestamp == null) {
+                return null;
+            }
+        }
+        String hitId = fields.length > 4 && !fields[4].isEmpty() ? fields[4] : null;
+        return new EndpointHit(null, hitId, fields[0], fields[1], fields[2], timestamp);
+    }
+
+}
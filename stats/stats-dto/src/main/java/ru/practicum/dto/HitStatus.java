@@ -0,0 +1,29 @@
+package ru.practicum.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class HitStatus {
+
+    public static final String CREATED = "CREATED";
+
+    public static final String REJECTED = "REJECTED";
+
+    public static final String DUPLICATE = "DUPLICATE";
+
+    //Шард с этим просмотром недоступен (координатор): просмотр не сохранён, его можно отправить снова
+    public static final String UNAVAILABLE = "UNAVAILABLE";
+
+    private Integer index;
+
+    private String status;
+
+    private String message;
+
+}
@@ -0,0 +1,36 @@
+package ru.practicum.dto;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import ru.practicum.DateConstants;
+import ru.practicum.validation.Timestamps;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.time.LocalDateTime;
+
+//Время просмотра читается прямо из буфера парсера, без промежуточной строки и DateTimeFormatter.
+//Формат тот же, что в @JsonFormat: записью по-прежнему занимается он
+public class TimestampDeserializer extends StdScalarDeserializer<LocalDateTime> {
+
+    public TimestampDeserializer() {
+        super(LocalDateTime.class);
+    }
+
+    @Override
+    public LocalDateTime deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+        if (!p.hasToken(JsonToken.VALUE_STRING)) {
+            return (LocalDateTime) ctxt.handleUnexpectedToken(LocalDateTime.class, p);
+        }
+        LocalDateTime timestamp = Timestamps.parse(
+                CharBuffer.wrap(p.getTextCharacters(), p.getTextOffset(), p.getTextLength()));
+        if (timestamp == null) {
+            return (LocalDateTime) ctxt.handleWeirdStringValue(LocalDateTime.class, p.getText(),
+                    "expected format %s", DateConstants.DATE_PATTERN);
+        }
+        return timestamp;
+    }
+
+}
@@ -0,0 +1,22 @@
+package ru.practicum.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ViewDelta {
+
+    //Передаётся в следующий запрос как since
+    private Long watermark;
+
+    //Новые итоговые значения uri, изменившихся после since
+    private List<ViewStats> changes;
+
+}
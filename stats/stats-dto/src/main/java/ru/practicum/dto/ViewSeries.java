@@ -0,0 +1,21 @@
+package ru.practicum.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ViewSeries {
+
+    private String app;
+
+    private String uri;
+
+    //hits[i] - просмотры в корзине ViewTimeseries.buckets[i]
+    private long[] hits;
+
+}
@@ -0,0 +1,23 @@
+package ru.practicum.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ViewTimeseries {
+
+    private String resolution;
+
+    //Начала корзин, общие для всех рядов
+    private List<String> buckets;
+
+    private List<ViewSeries> series;
+
+}
@@ -0,0 +1,134 @@
+package ru.practicum.validation;
+
+import java.util.Arrays;
+
+//Разбор IP из текста без DNS: IPv4 - 4 байта, IPv6 - 16. Адрес вида ::ffff:a.b.c.d сводится к IPv4,
+//чтобы клиент за двойным стеком не считался двумя посетителями. Зоны (%eth0) не принимаются
+public final class IpAddress {
+
+    private static final int IPV6_GROUPS = 8;
+
+    private IpAddress() {
+    }
+
+    //null - не адрес
+    public static byte[] parse(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return null;
+        }
+        return ip.indexOf(':') < 0 ? parseIpv4(ip, 0) : parseIpv6(ip);
+    }
+
+    private static byte[] parseIpv4(String ip, int from) {
+        byte[] address = new byte[4];
+        int octet = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i = from; i <= ip.length(); i++) {
+            char c = i == ip.length() ? '.' : ip.charAt(i);
+            if (c == '.') {
+                if (digits == 0 || octet == 4) {
+                    return null;
+                }
+                address[octet++] = (byte) value;
+                value = 0;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 3) {
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    return null;
+                }
+            } else {
+                return null;
+            }
+        }
+        return octet == 4 ? address : null;
+    }
+
+    private static byte[] parseIpv6(String ip) {
+        byte[] address = new byte[16];
+        int groups = 0;
+        //Номер группы, на месте которой стоит ::, или -1
+        int gap = -1;
+        int i = 0;
+        int length = ip.length();
+        if (ip.startsWith("::")) {
+            gap = 0;
+            i = 2;
+        } else if (ip.charAt(0) == ':') {
+            return null;
+        }
+        while (i < length) {
+            if (groups == IPV6_GROUPS) {
+                return null;
+            }
+            int start = i;
+            int value = 0;
+            while (i < length && hexDigit(ip.charAt(i)) >= 0) {
+                value = (value << 4) | hexDigit(ip.charAt(i));
+                i++;
+                if (i - start > 4) {
+                    return null;
+                }
+            }
+            //Последние 32 бита могут быть записаны как IPv4
+            if (i < length && ip.charAt(i) == '.') {
+                byte[] ipv4 = groups <= IPV6_GROUPS - 2 ? parseIpv4(ip, start) : null;
+                if (ipv4 == null) {
+                    return null;
+                }
+                System.arraycopy(ipv4, 0, address, groups * 2, 4);
+                groups += 2;
+                break;
+            }
+            if (i == start) {
+                return null;
+            }
+            address[groups * 2] = (byte) (value >>> 8);
+            address[groups * 2 + 1] = (byte) value;
+            groups++;
+            if (i == length) {
+                break;
+            }
+            if (ip.charAt(i++) != ':' || i == length) {
+                return null;
+            }
+            if (ip.charAt(i) == ':') {
+                if (gap >= 0) {
+                    return null;
+                }
+                gap = groups;
+                i++;
+            }
+        }
+        if (gap < 0 ? groups != IPV6_GROUPS : groups == IPV6_GROUPS) {
+            return null;
+        }
+        if (gap >= 0) {
+            int tail = (groups - gap) * 2;
+            System.arraycopy(address, gap * 2, address, 16 - tail, tail);
+            Arrays.fill(address, gap * 2, 16 - tail, (byte) 0);
+        }
+        return isIpv4Mapped(address) ? Arrays.copyOfRange(address, 12, 16) : address;
+    }
+
+    //Только ASCII: Character.digit принял бы и цифры других алфавитов
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        }
+        char lower = (char) (c | 0x20);
+        return lower >= 'a' && lower <= 'f' ? lower - 'a' + 10 : -1;
+    }
+
+    private static boolean isIpv4Mapped(byte[] address) {
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                return false;
+            }
+        }
+        return address[10] == (byte) 0xFF && address[11] == (byte) 0xFF;
+    }
+
+}
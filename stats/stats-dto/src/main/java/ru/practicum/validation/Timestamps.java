@@ -0,0 +1,48 @@
+package ru.practicum.validation;
+
+import java.time.LocalDateTime;
+import java.time.Month;
+import java.time.Year;
+
+//Разбор времени в формате DateConstants.DATE_PATTERN (yyyy-MM-dd HH:mm:ss) без DateTimeFormatter и исключений.
+//Несуществующая дата (2023-02-30) не подправляется до ближайшей, а отвергается
+public final class Timestamps {
+
+    private static final int LENGTH = 19;
+
+    private Timestamps() {
+    }
+
+    //null - не время в этом формате
+    public static LocalDateTime parse(CharSequence text) {
+        if (text == null || text.length() != LENGTH || text.charAt(4) != '-' || text.charAt(7) != '-'
+                || text.charAt(10) != ' ' || text.charAt(13) != ':' || text.charAt(16) != ':') {
+            return null;
+        }
+        int year = number(text, 0, 4);
+        int month = number(text, 5, 7);
+        int day = number(text, 8, 10);
+        int hour = number(text, 11, 13);
+        int minute = number(text, 14, 16);
+        int second = number(text, 17, 19);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 59 || day > Month.of(month).length(Year.isLeap(year))) {
+            return null;
+        }
+        return LocalDateTime.of(year, month, day, hour, minute, second);
+    }
+
+    //-1, если среди символов есть не цифра
+    private static int number(CharSequence text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+}
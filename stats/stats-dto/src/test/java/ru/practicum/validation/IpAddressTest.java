@@ -0,0 +1,89 @@
+package ru.practicum.validation;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IpAddressTest {
+
+    @Test
+    void parsesIpv4() {
+        assertThat(IpAddress.parse("10.0.0.1")).containsExactly(10, 0, 0, 1);
+        assertThat(IpAddress.parse("0.0.0.0")).containsExactly(0, 0, 0, 0);
+        assertThat(IpAddress.parse("255.255.255.255")).containsExactly(-1, -1, -1, -1);
+    }
+
+    @Test
+    void rejectsInvalidIpv4Octets() {
+        assertThat(IpAddress.parse("256.0.0.1")).isNull();
+        assertThat(IpAddress.parse("1.2.3.999")).isNull();
+        assertThat(IpAddress.parse("1000.1.1.1")).isNull();
+        assertThat(IpAddress.parse("1.2.3")).isNull();
+        assertThat(IpAddress.parse("1.2.3.4.5")).isNull();
+        assertThat(IpAddress.parse("1..3.4")).isNull();
+        assertThat(IpAddress.parse(".1.2.3")).isNull();
+        assertThat(IpAddress.parse("1.2.3.")).isNull();
+        assertThat(IpAddress.parse("1.2.3.-4")).isNull();
+        assertThat(IpAddress.parse(" 1.2.3.4")).isNull();
+        assertThat(IpAddress.parse("a.b.c.d")).isNull();
+        assertThat(IpAddress.parse("")).isNull();
+        assertThat(IpAddress.parse(null)).isNull();
+    }
+
+    @Test
+    void foldsIpv4MappedIpv6ToIpv4() {
+        assertThat(IpAddress.parse("::ffff:10.0.0.1")).containsExactly(10, 0, 0, 1);
+        assertThat(IpAddress.parse("::FFFF:10.0.0.1")).containsExactly(10, 0, 0, 1);
+        assertThat(IpAddress.parse("::ffff:0a00:0001")).containsExactly(10, 0, 0, 1);
+        assertThat(IpAddress.parse("0:0:0:0:0:ffff:10.0.0.1")).containsExactly(10, 0, 0, 1);
+        assertThat(IpAddress.parse("::ffff:256.0.0.1")).isNull();
+    }
+
+    @Test
+    void keepsOtherEmbeddedIpv4AsIpv6() {
+        //Устаревшая IPv4-совместимая форма и NAT64 - это другие адреса, в IPv4 не сводятся
+        assertThat(IpAddress.parse("::10.0.0.1")).hasSize(16);
+        assertThat(IpAddress.parse("64:ff9b::10.0.0.1")).hasSize(16);
+        assertThat(IpAddress.parse("::fffe:10.0.0.1")).hasSize(16);
+    }
+
+    @Test
+    void rejectsZoneIndices() {
+        assertThat(IpAddress.parse("fe80::1%eth0")).isNull();
+        assertThat(IpAddress.parse("fe80::1%1")).isNull();
+        assertThat(IpAddress.parse("fe80::1%")).isNull();
+    }
+
+    @Test
+    void rejectsMalformedIpv6() {
+        assertThat(IpAddress.parse(":")).isNull();
+        assertThat(IpAddress.parse(":::")).isNull();
+        assertThat(IpAddress.parse("1:::2")).isNull();
+        assertThat(IpAddress.parse("1::2::3")).isNull();
+        assertThat(IpAddress.parse(":1::2")).isNull();
+        assertThat(IpAddress.parse("1::2:")).isNull();
+        assertThat(IpAddress.parse("12345::1")).isNull();
+        assertThat(IpAddress.parse("g::1")).isNull();
+        assertThat(IpAddress.parse("1:2:3:4:5:6:7")).isNull();
+        assertThat(IpAddress.parse("1:2:3:4:5:6:7:8:9")).isNull();
+        assertThat(IpAddress.parse("1:2:3:4:5:6:7:8::")).isNull();
+        assertThat(IpAddress.parse("1:2:3:4:5:6:7:1.2.3.4")).isNull();
+        assertThat(IpAddress.parse("1.2.3.4::1")).isNull();
+        assertThat(IpAddress.parse("[::1]")).isNull();
+    }
+
+    @Test
+    void agreesWithInetAddressOnLiterals() throws UnknownHostException {
+        String[] literals = {"::", "::1", "1::", "2001:db8::1", "2001:DB8:0:0:8:800:200C:417A",
+            "fe80::1:2:3:4:5:6", "1:2:3:4:5:6:7:8", "1:2:3:4:5:6::", "::2:3:4:5:6:7:8", "1:2:3:4:5:6:1.2.3.4",
+            "::ffff:192.168.1.1", "::ffff:c0a8:101", "127.0.0.1", "8.8.4.4"};
+        for (String literal : literals) {
+            //Для литерала адреса InetAddress не ходит в DNS и так же сводит ::ffff:a.b.c.d к IPv4
+            assertThat(IpAddress.parse(literal)).as(literal).isEqualTo(InetAddress.getByName(literal).getAddress());
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package ru.practicum.validation;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.ResolverStyle;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimestampsTest {
+
+    //Строгий разбор: 2023-02-30 отвергается, а не сдвигается на 28-е
+    private static final DateTimeFormatter STRICT = DateTimeFormatter.ofPattern("uuuu-MM-dd HH:mm:ss")
+            .withResolverStyle(ResolverStyle.STRICT);
+
+    @Test
+    void parsesValidTimestamp() {
+        assertThat(Timestamps.parse("2025-03-14 15:09:26")).isEqualTo(LocalDateTime.of(2025, 3, 14, 15, 9, 26));
+        assertThat(Timestamps.parse("0000-01-01 00:00:00")).isEqualTo(LocalDateTime.of(0, 1, 1, 0, 0, 0));
+        assertThat(Timestamps.parse("9999-12-31 23:59:59")).isEqualTo(LocalDateTime.of(9999, 12, 31, 23, 59, 59));
+    }
+
+    @Test
+    void acceptsLeapDayOnlyInLeapYears() {
+        assertThat(Timestamps.parse("2024-02-29 12:00:00")).isEqualTo(LocalDateTime.of(2024, 2, 29, 12, 0));
+        assertThat(Timestamps.parse("2000-02-29 12:00:00")).isNotNull();
+        assertThat(Timestamps.parse("2023-02-29 12:00:00")).isNull();
+        assertThat(Timestamps.parse("1900-02-29 12:00:00")).isNull();
+        assertThat(Timestamps.parse("2100-02-29 12:00:00")).isNull();
+    }
+
+    @Test
+    void rejectsDaysPastMonthEnd() {
+        assertThat(Timestamps.parse("2025-02-30 00:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-04-31 00:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-12-32 00:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-01-00 00:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-00-10 00:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-13-10 00:00:00")).isNull();
+    }
+
+    @Test
+    void rejectsOutOfRangeTime() {
+        assertThat(Timestamps.parse("2025-01-01 24:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-01-01 23:60:00")).isNull();
+        assertThat(Timestamps.parse("2025-01-01 23:59:60")).isNull();
+    }
+
+    @Test
+    void rejectsOtherLayouts() {
+        assertThat(Timestamps.parse(null)).isNull();
+        assertThat(Timestamps.parse("")).isNull();
+        assertThat(Timestamps.parse("2025-01-01T10:00:00")).isNull();
+        assertThat(Timestamps.parse("2025/01/01 10:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-01-01 10:00")).isNull();
+        assertThat(Timestamps.parse("2025-01-01 10:00:00.000")).isNull();
+        assertThat(Timestamps.parse("2025-1-01 10:00:000")).isNull();
+        assertThat(Timestamps.parse("-025-01-01 10:00:00")).isNull();
+        assertThat(Timestamps.parse("2025-01-01 +1:00:00")).isNull();
+        //Цифры других алфавитов: Character.isDigit их бы пропустил
+        assertThat(Timestamps.parse("2025-01-01 1٠:00:00")).isNull();
+    }
+
+    @Test
+    void agreesWithStrictFormatterForEveryDayOfFourYears() {
+        for (LocalDate day = LocalDate.of(1999, 1, 1); day.getYear() < 2003; day = day.plusDays(1)) {
+            String text = day.atTime(13, 45, 7).format(STRICT);
+            assertThat(Timestamps.parse(text)).isEqualTo(LocalDateTime.parse(text, STRICT));
+        }
+        for (int day = 29; day <= 31; day++) {
+            String text = String.format("2001-02-%02d 00:00:00", day);
+            assertThat(Timestamps.parse(text)).isNull();
+        }
+    }
+
+}
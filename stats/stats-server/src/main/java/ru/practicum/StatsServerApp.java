@@ -2,8 +2,12 @@ package ru.practicum;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationAutoConfiguration;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@SpringBootApplication
+//Схему создаёт SchemaInitConfig, только в режиме standalone
+@SpringBootApplication(exclude = SqlInitializationAutoConfiguration.class)
+@EnableScheduling
 public class StatsServerApp {
 
     public static void main(String[] args) {
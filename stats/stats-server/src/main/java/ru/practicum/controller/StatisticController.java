@@ -1,20 +1,32 @@
 package ru.practicum.controller;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitStatus;
+import ru.practicum.dto.ViewDelta;
 import ru.practicum.dto.ViewStats;
+import ru.practicum.dto.ViewTimeseries;
+import ru.practicum.model.StatisticQuery;
 import ru.practicum.service.StatisticService;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 
 @RestController
@@ -22,8 +34,19 @@ import java.util.Set;
 @Slf4j
 public class StatisticController {
 
+    private static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
+    private static final List<MediaType> STREAM_MEDIA_TYPES = List.of(MediaType.APPLICATION_JSON,
+            MediaType.APPLICATION_NDJSON, MediaType.APPLICATION_CBOR, APPLICATION_SMILE);
+
+    private static final JsonFactory CBOR_FACTORY = new CBORFactory();
+
+    private static final JsonFactory SMILE_FACTORY = new SmileFactory();
+
     private final StatisticService statisticService;
 
+    private final ObjectMapper objectMapper;
+
     @PostMapping("/hit")
     @ResponseStatus(HttpStatus.CREATED)
     public EndpointHit addHit(
@@ -32,21 +55,108 @@ public class StatisticController {
         return statisticService.save(endpointHit);
     }
 
+    @PostMapping("/hits")
+    @ResponseStatus(HttpStatus.CREATED)
+    public List<HitStatus> addHits(
+            @RequestBody List<EndpointHit> endpointHits) {
+        log.info("Added batch of {} views to statistics", endpointHits.size());
+        return statisticService.saveAll(endpointHits);
+    }
+
     @GetMapping("/stats")
     @ResponseStatus(HttpStatus.OK)
     public List<ViewStats> getStatistic(
             @RequestParam(value = "start") String start,
             @RequestParam(value = "end") String end,
             @RequestParam(value = "unique", defaultValue = "false") String unique,
+            @RequestParam(value = "approx", defaultValue = "false") String approx,
             @RequestParam(value = "uris", required = false) Set<String> uris) {
 
-        log.info("Request statistics with parameters: \n start={} \n end={} \n isUnique={} \n uris={}",
-                start, end, unique, uris);
-        Map<String, String> params = Map.of(
-                "start", start,
-                "end", end,
-                "unique", unique);
-        return statisticService.getStatistic(params, uris);
+        log.info("Request statistics with parameters: \n start={} \n end={} \n isUnique={} \n isApprox={} \n uris={}",
+                start, end, unique, approx, uris);
+        return statisticService.getStatistic(StatisticQuery.views(start, end, unique, approx), uris);
+    }
+
+    @GetMapping("/stats/top")
+    @ResponseStatus(HttpStatus.OK)
+    public List<ViewStats> getTopStatistic(
+            @RequestParam(value = "n", defaultValue = "10") int n,
+            @RequestParam(value = "start") String start,
+            @RequestParam(value = "end") String end,
+            @RequestParam(value = "unique", defaultValue = "false") String unique,
+            @RequestParam(value = "exact", defaultValue = "false") String exact,
+            @RequestParam(value = "prefix", required = false) String prefix) {
+
+        log.info("Request top {} uris with parameters: \n start={} \n end={} \n isUnique={} \n isExact={} \n prefix={}",
+                n, start, end, unique, exact, prefix);
+        return statisticService.getTopStatistic(StatisticQuery.top(start, end, unique, exact), prefix, n);
+    }
+
+    @GetMapping("/stats/timeseries")
+    @ResponseStatus(HttpStatus.OK)
+    public ViewTimeseries getTimeseries(
+            @RequestParam(value = "start") String start,
+            @RequestParam(value = "end") String end,
+            @RequestParam(value = "resolution", defaultValue = "HOUR") String resolution,
+            @RequestParam(value = "unique", defaultValue = "false") String unique,
+            @RequestParam(value = "uris", required = false) Set<String> uris) {
+
+        log.info("Request time series with parameters: \n start={} \n end={} \n resolution={} \n isUnique={} \n uris={}",
+                start, end, resolution, unique, uris);
+        return statisticService.getTimeseries(StatisticQuery.timeseries(start, end, resolution, unique), uris);
+    }
+
+    @GetMapping("/stats/delta")
+    @ResponseStatus(HttpStatus.OK)
+    public ViewDelta getDelta(
+            @RequestParam(value = "since", defaultValue = "0") long since,
+            @RequestParam(value = "limit", defaultValue = "10000") int limit,
+            @RequestParam(value = "unique", defaultValue = "false") boolean unique) {
+
+        log.info("Request changes since watermark {} (limit={}, isUnique={})", since, limit, unique);
+        return statisticService.getDelta(since, limit, unique);
+    }
+
+    @GetMapping(value = "/stats", params = "stream=true")
+    public ResponseEntity<StreamingResponseBody> streamStatistic(
+            @RequestParam(value = "start") String start,
+            @RequestParam(value = "end") String end,
+            @RequestParam(value = "unique", defaultValue = "false") String unique,
+            @RequestParam(value = "approx", defaultValue = "false") String approx,
+            @RequestParam(value = "uris", required = false) Set<String> uris,
+            @RequestHeader(value = HttpHeaders.ACCEPT, defaultValue = MediaType.APPLICATION_JSON_VALUE) String accept) {
+
+        log.info("Stream statistics with parameters: \n start={} \n end={} \n isUnique={} \n isApprox={} \n uris={}",
+                start, end, unique, approx, uris);
+        //Ошибки параметров должны вернуться как 400 до того, как ответ начнёт отправляться
+        StatisticQuery query = StatisticQuery.views(start, end, unique, approx);
+        MediaType mediaType = streamMediaType(accept);
+        boolean ndjson = MediaType.APPLICATION_NDJSON.equalsTypeAndSubtype(mediaType);
+        JsonFactory format = MediaType.APPLICATION_CBOR.equalsTypeAndSubtype(mediaType) ? CBOR_FACTORY
+                : APPLICATION_SMILE.equalsTypeAndSubtype(mediaType) ? SMILE_FACTORY
+                : objectMapper.getFactory();
+        StreamingResponseBody body = out -> {
+            ViewStatsWriter writer = new ViewStatsWriter(objectMapper, format, out, ndjson);
+            statisticService.streamStatistic(query, uris, writer);
+            writer.finish();
+        };
+        return ResponseEntity.ok()
+                .contentType(mediaType)
+                .body(body);
+    }
+
+    //Первый по q из поддерживаемых форматов потока; без подходящего - JSON, как и раньше
+    private static MediaType streamMediaType(String accept) {
+        List<MediaType> accepted = MediaType.parseMediaTypes(accept);
+        MediaType.sortByQualityValue(accepted);
+        for (MediaType candidate : accepted) {
+            for (MediaType supported : STREAM_MEDIA_TYPES) {
+                if (supported.equalsTypeAndSubtype(candidate)) {
+                    return supported;
+                }
+            }
+        }
+        return MediaType.APPLICATION_JSON;
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,54 @@
+package ru.practicum.controller;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ru.practicum.dto.ViewStats;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.function.Consumer;
+
+//Пишет строки статистики в поток по одной: элементами массива (JSON, CBOR, Smile) или NDJSON (объект на строку).
+//Формат задаёт фабрика, настройки сериализации берутся из общего ObjectMapper
+class ViewStatsWriter implements Consumer<ViewStats> {
+
+    private final JsonGenerator generator;
+
+    private final boolean ndjson;
+
+    ViewStatsWriter(ObjectMapper objectMapper, JsonFactory format, OutputStream out, boolean ndjson)
+            throws IOException {
+        this.generator = format.createGenerator(out);
+        this.generator.setCodec(objectMapper);
+        this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        this.ndjson = ndjson;
+        if (ndjson) {
+            generator.setRootValueSeparator(null);
+        } else {
+            generator.writeStartArray();
+        }
+    }
+
+    @Override
+    public void accept(ViewStats viewStats) {
+        try {
+            generator.writeObject(viewStats);
+            if (ndjson) {
+                generator.writeRaw('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //Вызывается только после успешного чтения: оборванный ответ не должен выглядеть как полный массив
+    void finish() throws IOException {
+        if (!ndjson) {
+            generator.writeEndArray();
+        }
+        generator.close();
+    }
+
+}
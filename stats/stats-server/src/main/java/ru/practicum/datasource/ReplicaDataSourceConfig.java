@@ -0,0 +1,61 @@
+package ru.practicum.datasource;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+
+//С stats.replicas.enabled=true источник данных из spring.datasource становится основной базой, а чтение
+//в транзакциях readOnly уходит на реплики stats.replicas.urls. Пулы реплик настроены как основной,
+//кроме адреса и таймаута соединения
+@Configuration
+@ConditionalOnProperty(name = "stats.replicas.enabled", havingValue = "true")
+public class ReplicaDataSourceConfig {
+
+    @Bean
+    @ConfigurationProperties("spring.datasource.hikari")
+    public HikariDataSource primaryDataSource(DataSourceProperties properties) {
+        return properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+    }
+
+    @Bean
+    public ReplicaRoutingDataSource replicaRoutingDataSource(
+            HikariDataSource primaryDataSource,
+            @Value("${stats.replicas.urls:}") List<String> urls,
+            @Value("${stats.replicas.max-lag-ms:5000}") long maxLagMillis,
+            @Value("${stats.replicas.connect-timeout-ms:1000}") long connectTimeoutMillis) {
+        if (urls.isEmpty()) {
+            throw new IllegalStateException("Replica routing requires stats.replicas.urls");
+        }
+        List<HikariDataSource> replicas = new ArrayList<>(urls.size());
+        for (int i = 0; i < urls.size(); i++) {
+            HikariConfig config = new HikariConfig();
+            primaryDataSource.copyStateTo(config);
+            config.setJdbcUrl(urls.get(i).trim());
+            config.setPoolName("replica-" + i);
+            config.setReadOnly(true);
+            //Недоступная реплика не должна задерживать запрос дольше таймаута и не мешает старту
+            config.setConnectionTimeout(connectTimeoutMillis);
+            config.setInitializationFailTimeout(-1);
+            replicas.add(new HikariDataSource(config));
+        }
+        return new ReplicaRoutingDataSource(primaryDataSource, replicas, maxLagMillis);
+    }
+
+    @Bean
+    @Primary
+    public DataSource dataSource(ReplicaRoutingDataSource replicaRoutingDataSource) {
+        return new LazyConnectionDataSourceProxy(replicaRoutingDataSource);
+    }
+
+}
@@ -0,0 +1,198 @@
+package ru.practicum.datasource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/*
+ * Транзакции только для чтения получают соединение реплики (по кругу), всё остальное - основной базы.
+ * Реплика выводится из круга, если не отвечает или отстаёт больше чем на maxLagMillis, и возвращается
+ * после следующей удачной проверки. Без живых реплик чтение идёт в основную базу. Признак readOnly
+ * появляется только после начала транзакции, поэтому источник стоит за LazyConnectionDataSourceProxy.
+ *
+ * Отставание PostgreSQL считается по позициям WAL: при каждой проверке запоминается позиция основной базы,
+ * и реплика отстаёт на время с последней запомненной позиции, которую она уже проиграла. Время последней
+ * проигранной транзакции не годится: после затишья первая же запись выглядит многосекундным отставанием,
+ * а реплика, потерявшая связь с основной базой, - догнавшей её.
+ */
+@Slf4j
+public class ReplicaRoutingDataSource extends AbstractDataSource {
+
+    private static final String PRIMARY_LSN_SQL = "SELECT pg_current_wal_lsn()::text";
+
+    //null - база не в режиме восстановления, то есть не реплика
+    private static final String REPLAY_LSN_SQL = "SELECT pg_last_wal_replay_lsn()::text";
+
+    private final DataSource primary;
+
+    private final List<Replica> replicas;
+
+    private final long maxLagMillis;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    //Пары {время, позиция WAL основной базы} за последние maxLagMillis и одна до них, от старых к новым
+    private final Deque<long[]> primaryPositions = new ArrayDeque<>();
+
+    public ReplicaRoutingDataSource(DataSource primary, List<HikariDataSource> replicas, long maxLagMillis) {
+        this.primary = primary;
+        this.replicas = replicas.stream().map(Replica::new).collect(Collectors.toList());
+        this.maxLagMillis = maxLagMillis;
+        checkReplicas();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+            int start = Math.floorMod(next.getAndIncrement(), replicas.size());
+            for (int i = 0; i < replicas.size(); i++) {
+                Replica replica = replicas.get((start + i) % replicas.size());
+                if (replica.available) {
+                    try {
+                        return replica.dataSource.getConnection();
+                    } catch (SQLException e) {
+                        unavailable(replica, e.getMessage());
+                    }
+                }
+            }
+        }
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Connections use the credentials of spring.datasource");
+    }
+
+    @Scheduled(fixedDelayString = "${stats.replicas.check-interval-ms:1000}")
+    public synchronized void checkReplicas() {
+        long now = System.currentTimeMillis();
+        samplePrimary(now);
+        for (Replica replica : replicas) {
+            long lag;
+            try (Connection connection = replica.dataSource.getConnection()) {
+                lag = lagMillis(connection, now);
+            } catch (SQLException e) {
+                unavailable(replica, e.getMessage());
+                continue;
+            }
+            if (lag > maxLagMillis) {
+                unavailable(replica, lag == Long.MAX_VALUE
+                        ? "lag is over " + maxLagMillis + " ms" : "lag is " + lag + " ms");
+            } else if (!replica.available) {
+                replica.available = true;
+                log.info("Replica {} is back in rotation, lag is {} ms", replica, lag);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        replicas.forEach(replica -> replica.dataSource.close());
+    }
+
+    //Без позиции основной базы (она не PostgreSQL или не ответила) оценки прошлой проверки остаются в силе
+    private void samplePrimary(long now) {
+        try (Connection connection = primary.getConnection()) {
+            if (!isPostgres(connection)) {
+                return;
+            }
+            primaryPositions.addLast(new long[]{now, parseLsn(queryLsn(connection, PRIMARY_LSN_SQL))});
+        } catch (SQLException e) {
+            log.warn("Could not read the WAL position of the primary: {}", e.getMessage());
+            return;
+        }
+        //Самой старой остаётся последняя пара не моложе maxLagMillis
+        while (primaryPositions.size() > 1 && secondOldest()[0] <= now - maxLagMillis) {
+            primaryPositions.removeFirst();
+        }
+    }
+
+    //Отставание измеряется только у PostgreSQL, остальные базы проверяются на доступность.
+    //Реплика, не проигравшая даже самую старую позицию, отстаёт больше чем на maxLagMillis.
+    //Сразу после старта истории ещё нет, и такая реплика ждёт следующей проверки
+    private long lagMillis(Connection connection, long now) throws SQLException {
+        if (!isPostgres(connection) || primaryPositions.isEmpty()) {
+            return 0;
+        }
+        String replayed = queryLsn(connection, REPLAY_LSN_SQL);
+        if (replayed == null) {
+            return 0;
+        }
+        long position = parseLsn(replayed);
+        Iterator<long[]> newestFirst = primaryPositions.descendingIterator();
+        while (newestFirst.hasNext()) {
+            long[] sample = newestFirst.next();
+            if (sample[1] <= position) {
+                return sample == primaryPositions.peekLast() ? 0 : now - sample[0];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private long[] secondOldest() {
+        Iterator<long[]> oldestFirst = primaryPositions.iterator();
+        oldestFirst.next();
+        return oldestFirst.next();
+    }
+
+    private static boolean isPostgres(Connection connection) throws SQLException {
+        return connection.getMetaData().getDatabaseProductName().toLowerCase().contains("postgres");
+    }
+
+    private static String queryLsn(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement();
+             ResultSet rs = statement.executeQuery(sql)) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+
+    //Позиция WAL пишется как две шестнадцатеричные половины 64-битного числа: 1/93000138
+    private static long parseLsn(String lsn) {
+        int slash = lsn.indexOf('/');
+        return Long.parseLong(lsn.substring(0, slash), 16) << 32 | Long.parseLong(lsn.substring(slash + 1), 16);
+    }
+
+    private static void unavailable(Replica replica, String reason) {
+        if (replica.available) {
+            replica.available = false;
+            log.warn("Replica {} is out of rotation: {}", replica, reason);
+        }
+    }
+
+    private static final class Replica {
+
+        private final HikariDataSource dataSource;
+
+        //До первой проверки реплика считается доступной: проверка идёт прямо в конструкторе
+        private volatile boolean available = true;
+
+        private Replica(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        @Override
+        public String toString() {
+            return dataSource.getJdbcUrl();
+        }
+
+    }
+
+}
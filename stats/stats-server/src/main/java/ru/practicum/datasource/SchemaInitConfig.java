@@ -0,0 +1,28 @@
+package ru.practicum.datasource;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.sql.init.SqlDataSourceScriptDatabaseInitializer;
+import org.springframework.boot.autoconfigure.sql.init.SqlInitializationProperties;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.sql.init.dependency.DatabaseInitializationDependencyConfigurer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+
+import javax.sql.DataSource;
+
+//Схема из schema*.sql (spring.sql.init.*) создаётся только у сервера с данными. Координатор шардов своих таблиц
+//не ведёт, поэтому автонастройка Spring Boot отключена в StatsServerApp, а инициализатор объявлен здесь
+@Configuration
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+@EnableConfigurationProperties(SqlInitializationProperties.class)
+@Import(DatabaseInitializationDependencyConfigurer.class)
+public class SchemaInitConfig {
+
+    @Bean
+    public SqlDataSourceScriptDatabaseInitializer schemaInitializer(DataSource dataSource,
+                                                                    SqlInitializationProperties properties) {
+        return new SqlDataSourceScriptDatabaseInitializer(dataSource, properties);
+    }
+
+}
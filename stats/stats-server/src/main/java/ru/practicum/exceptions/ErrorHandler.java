@@ -1,9 +1,10 @@
 package ru.practicum.exceptions;
 
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
-import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
 import ru.practicum.exception.BadRequest;
 
@@ -14,14 +15,36 @@ import java.time.LocalDateTime;
 @RestControllerAdvice
 public class ErrorHandler {
 
+    //Тип ответа задан явно: клиент потокового /stats может принимать только application/x-ndjson
     @ExceptionHandler(BadRequest.class)
-    @ResponseStatus(HttpStatus.BAD_REQUEST)
-    @ResponseBody
-    public ErrorResponse onConstraintViolationException(BadRequest e) {
-        return new ErrorResponse(HttpStatus.BAD_REQUEST,
-                "Invalid request.",
-                e.getMessage(),
-                LocalDateTime.now());
+    public ResponseEntity<ErrorResponse> onConstraintViolationException(BadRequest e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ErrorResponse(HttpStatus.BAD_REQUEST,
+                        "Invalid request.",
+                        e.getMessage(),
+                        LocalDateTime.now()));
+    }
+
+    @ExceptionHandler(PayloadTooLarge.class)
+    public ResponseEntity<ErrorResponse> onPayloadTooLarge(PayloadTooLarge e) {
+        return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ErrorResponse(HttpStatus.PAYLOAD_TOO_LARGE,
+                        "Request body is too large.",
+                        e.getMessage(),
+                        LocalDateTime.now()));
+    }
+
+    @ExceptionHandler(Overloaded.class)
+    public ResponseEntity<ErrorResponse> onOverloaded(Overloaded e) {
+        return ResponseEntity.status(e.getStatus())
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(new ErrorResponse(e.getStatus(),
+                        "Server is overloaded.",
+                        e.getMessage(),
+                        LocalDateTime.now()));
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package ru.practicum.exceptions;
+
+import lombok.Getter;
+import org.springframework.http.HttpStatus;
+
+//Запрос сброшен контролем допуска: 429 - переполнена очередь приёма, 503 - исчерпан бюджет потоков или соединений
+@Getter
+public class Overloaded extends RuntimeException {
+
+    private final HttpStatus status;
+
+    private final long retryAfterSeconds;
+
+    public Overloaded(HttpStatus status, long retryAfterSeconds, String message) {
+        super(message);
+        this.status = status;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+}
@@ -0,0 +1,10 @@
+package ru.practicum.exceptions;
+
+//Тело запроса больше допустимого, в том числе после распаковки gzip
+public class PayloadTooLarge extends RuntimeException {
+
+    public PayloadTooLarge(String message) {
+        super(message);
+    }
+
+}
@@ -0,0 +1,77 @@
+package ru.practicum.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.practicum.exceptions.ErrorResponse;
+import ru.practicum.model.Workload;
+import ru.practicum.service.AdmissionService;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+//Бюджет потоков: запрос сверх лимита своего вида отклоняется до чтения тела. Потоковый /stats отпускает
+//место, когда поток Tomcat вернулся из диспетчеризации: дальше строки пишет поток асинхронной обработки
+@Component
+@Order(AdmissionFilter.ORDER)
+@RequiredArgsConstructor
+public class AdmissionFilter extends OncePerRequestFilter {
+
+    //Раньше всех фильтров, читающих тело: отклонённый запрос не должен ни распаковываться, ни разбираться
+    public static final int ORDER = Ordered.LOWEST_PRECEDENCE - 1;
+
+    private final AdmissionService admissionService;
+
+    private final ObjectMapper objectMapper;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        return workloadOf(request) == null;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        Workload workload = workloadOf(request);
+        if (!admissionService.tryEnter(workload)) {
+            reject(response, workload);
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            admissionService.leave(workload);
+        }
+    }
+
+    private void reject(HttpServletResponse response, Workload workload) throws IOException {
+        HttpStatus status = HttpStatus.SERVICE_UNAVAILABLE;
+        response.setStatus(status.value());
+        response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(admissionService.getRetryAfterSeconds()));
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new ErrorResponse(status, "Server is overloaded.",
+                "Too many concurrent " + workload.name().toLowerCase() + " requests.", LocalDateTime.now()));
+    }
+
+    private static Workload workloadOf(HttpServletRequest request) {
+        String path = request.getRequestURI();
+        if ("POST".equals(request.getMethod()) && ("/hit".equals(path) || "/hits".equals(path))) {
+            return Workload.INGEST;
+        }
+        if ("GET".equals(request.getMethod()) && path.startsWith("/stats")) {
+            return Workload.QUERY;
+        }
+        return null;
+    }
+
+}
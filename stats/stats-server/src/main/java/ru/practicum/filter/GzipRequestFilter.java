@@ -0,0 +1,138 @@
+package ru.practicum.filter;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import ru.practicum.exceptions.PayloadTooLarge;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletException;
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+//Распаковка тела запроса, присланного с Content-Encoding: gzip (пакетная отправка просмотров).
+//Несколько килобайт gzip разворачиваются в гигабайты, поэтому распакованное тело ограничено maxBytes:
+//сверх него чтение обрывается ответом 413 ещё до того, как Jackson соберёт список
+@Component
+@Order(AdmissionFilter.ORDER + 1)
+public class GzipRequestFilter extends OncePerRequestFilter {
+
+    private static final String GZIP = "gzip";
+
+    private final long maxBytes;
+
+    public GzipRequestFilter(@Value("${stats.hits.max-decompressed-bytes:16777216}") long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String encoding = request.getHeader(HttpHeaders.CONTENT_ENCODING);
+        return encoding == null || !encoding.toLowerCase().contains(GZIP);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        filterChain.doFilter(new GzipRequestWrapper(request, maxBytes), response);
+    }
+
+    private static class GzipRequestWrapper extends HttpServletRequestWrapper {
+
+        private final GZIPInputStream gzipStream;
+
+        private final long maxBytes;
+
+        private long readBytes;
+
+        GzipRequestWrapper(HttpServletRequest request, long maxBytes) throws IOException {
+            super(request);
+            this.gzipStream = new GZIPInputStream(request.getInputStream());
+            this.maxBytes = maxBytes;
+        }
+
+        private void count(int bytes) {
+            readBytes += bytes;
+            if (readBytes > maxBytes) {
+                throw new PayloadTooLarge("Decompressed request body exceeds " + maxBytes + " bytes.");
+            }
+        }
+
+        @Override
+        public ServletInputStream getInputStream() {
+            return new ServletInputStream() {
+                private boolean finished;
+
+                @Override
+                public int read() throws IOException {
+                    int b = gzipStream.read();
+                    finished = b == -1;
+                    if (!finished) {
+                        count(1);
+                    }
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] buffer, int off, int len) throws IOException {
+                    int read = gzipStream.read(buffer, off, len);
+                    finished = read == -1;
+                    if (!finished) {
+                        count(read);
+                    }
+                    return read;
+                }
+
+                @Override
+                public boolean isFinished() {
+                    return finished;
+                }
+
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void setReadListener(ReadListener readListener) {
+                    throw new IllegalStateException("Asynchronous reading of gzip request bodies is not supported");
+                }
+            };
+        }
+
+        @Override
+        public BufferedReader getReader() {
+            return new BufferedReader(new InputStreamReader(getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(name)) {
+                return null;
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public int getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public long getContentLengthLong() {
+            return -1L;
+        }
+
+    }
+
+}
@@ -0,0 +1,17 @@
+package ru.practicum.model;
+
+public enum DictionaryType {
+    APP("apps"),
+    URI("uris");
+
+    private final String table;
+
+    DictionaryType(String table) {
+        this.table = table;
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+}
@@ -10,6 +10,7 @@ import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Table;
+import javax.persistence.Transient;
 import java.time.LocalDateTime;
 
 @Entity
@@ -23,16 +24,30 @@ public class Hit {
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(nullable = false)
+    @Transient
     private String app;
 
-    @Column(nullable = false)
+    @Transient
     private String uri;
 
-    @Column(nullable = false)
+    @Transient
+    private String hitId;
+
+    @Transient
     private String ip;
 
+    //IPv4 - 4 байта, IPv6 - 16, см. IpAddress
+    @Column(name = "ip", nullable = false)
+    private byte[] address;
+
     @Column(name = "view_date", nullable = false)
     private LocalDateTime timestamp;
 
-}
\ No newline at end of file
+    //Ссылки на словари apps и uris, заполняются перед записью
+    @Column(name = "app_id", nullable = false)
+    private Integer appId;
+
+    @Column(name = "uri_id", nullable = false)
+    private Integer uriId;
+
+}
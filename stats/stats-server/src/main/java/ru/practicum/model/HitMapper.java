@@ -1,6 +1,7 @@
 package ru.practicum.model;
 
 import ru.practicum.dto.EndpointHit;
+import ru.practicum.validation.IpAddress;
 
 public enum HitMapper {
     INSTANT;
@@ -8,6 +9,7 @@ public enum HitMapper {
     public EndpointHit toEndpointHit(Hit hit) {
         return new EndpointHit(
                 hit.getId(),
+                hit.getHitId(),
                 hit.getApp(),
                 hit.getUri(),
                 hit.getIp(),
@@ -20,8 +22,12 @@ public enum HitMapper {
                 endpointHit.getId(),
                 endpointHit.getApp(),
                 endpointHit.getUri(),
+                endpointHit.getHitId(),
                 endpointHit.getIp(),
-                endpointHit.getTimestamp()
+                IpAddress.parse(endpointHit.getIp()),
+                endpointHit.getTimestamp(),
+                null,
+                null
         );
     }
 
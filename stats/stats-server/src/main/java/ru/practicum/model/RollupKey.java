@@ -0,0 +1,32 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+
+@Data
+@AllArgsConstructor
+public class RollupKey implements Comparable<RollupKey> {
+
+    private static final Comparator<RollupKey> ORDER = Comparator
+            .comparing(RollupKey::getResolution)
+            .thenComparing(RollupKey::getBucketStart)
+            .thenComparingInt(RollupKey::getAppId)
+            .thenComparingInt(RollupKey::getUriId);
+
+    private RollupResolution resolution;
+
+    private LocalDateTime bucketStart;
+
+    private int appId;
+
+    private int uriId;
+
+    @Override
+    public int compareTo(RollupKey other) {
+        return ORDER.compare(this, other);
+    }
+
+}
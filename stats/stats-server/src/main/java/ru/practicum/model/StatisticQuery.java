@@ -0,0 +1,78 @@
+package ru.practicum.model;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import ru.practicum.DateConstants;
+import ru.practicum.exception.BadRequest;
+import ru.practicum.validation.Timestamps;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+//Параметры запроса статистики, разобранные и проверенные один раз в контроллере. Конец, как и в запросе, включается
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class StatisticQuery {
+
+    private final LocalDateTime start;
+
+    private final LocalDateTime end;
+
+    private final boolean unique;
+
+    private final boolean approx;
+
+    private final boolean exact;
+
+    //Только у временных рядов
+    private final RollupResolution resolution;
+
+    public static StatisticQuery views(String start, String end, String unique, String approx) {
+        return parse(start, end, unique, approx, null, null);
+    }
+
+    public static StatisticQuery top(String start, String end, String unique, String exact) {
+        return parse(start, end, unique, null, exact, null);
+    }
+
+    public static StatisticQuery timeseries(String start, String end, String resolution, String unique) {
+        RollupResolution parsed;
+        try {
+            parsed = RollupResolution.valueOf(resolution.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new BadRequest("Unknown resolution. Allowed: MINUTE, HOUR, DAY");
+        }
+        return parse(start, end, unique, null, null, parsed);
+    }
+
+    //Параметры для шарда в том же виде, в каком их принимает контроллер
+    public Map<String, String> toParams() {
+        Map<String, String> params = new HashMap<>();
+        params.put("start", start.format(DateConstants.DTF));
+        params.put("end", end.format(DateConstants.DTF));
+        params.put("unique", String.valueOf(unique));
+        params.put("approx", String.valueOf(approx));
+        params.put("exact", String.valueOf(exact));
+        if (resolution != null) {
+            params.put("resolution", resolution.name());
+        }
+        return params;
+    }
+
+    private static StatisticQuery parse(String start, String end, String unique, String approx, String exact,
+                                        RollupResolution resolution) {
+        LocalDateTime from = Timestamps.parse(start);
+        LocalDateTime to = Timestamps.parse(end);
+        if (from == null || to == null) {
+            throw new BadRequest("Invalid date. Format: " + DateConstants.DATE_PATTERN);
+        }
+        if (from.isAfter(to)) {
+            throw new BadRequest("The start and end dates are set incorrectly. Start cannot be after end.");
+        }
+        return new StatisticQuery(from, to, Boolean.parseBoolean(unique), Boolean.parseBoolean(approx),
+                Boolean.parseBoolean(exact), resolution);
+    }
+
+}
@@ -0,0 +1,17 @@
+package ru.practicum.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+//Полуинтервал [from, to)
+@Data
+@AllArgsConstructor
+public class TimeRange {
+
+    private LocalDateTime from;
+
+    private LocalDateTime to;
+
+}
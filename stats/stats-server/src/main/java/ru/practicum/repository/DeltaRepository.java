@@ -0,0 +1,111 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+import java.util.Map;
+
+@Repository
+@RequiredArgsConstructor
+public class DeltaRepository {
+
+    private static final String INCREMENT_POSTGRES =
+            "INSERT INTO uri_total (app_id, uri_id, hits, version) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (app_id, uri_id) " +
+                    "DO UPDATE SET hits = uri_total.hits + EXCLUDED.hits, version = EXCLUDED.version";
+
+    private static final String INCREMENT_STANDARD =
+            "MERGE INTO uri_total AS t " +
+                    "USING (VALUES (CAST(? AS INT), CAST(? AS INT), CAST(? AS BIGINT), CAST(? AS BIGINT))) " +
+                    "AS n (app_id, uri_id, hits, version) " +
+                    "ON t.app_id = n.app_id AND t.uri_id = n.uri_id " +
+                    "WHEN MATCHED THEN UPDATE SET hits = t.hits + n.hits, version = n.version " +
+                    "WHEN NOT MATCHED THEN INSERT (app_id, uri_id, hits, version) " +
+                    "VALUES (n.app_id, n.uri_id, n.hits, n.version)";
+
+    private static final String BACKFILL =
+            "INSERT INTO uri_total (app_id, uri_id, hits, version) " +
+                    "SELECT app_id, uri_id, COUNT(*), ? FROM statistic GROUP BY app_id, uri_id";
+
+    private static final String CHANGES =
+            "SELECT x.version, a.name AS app, u.name AS uri, %s AS hits " +
+                    "FROM (SELECT app_id, uri_id, hits, version FROM uri_total " +
+                    "WHERE version > :since AND version <= :until " +
+                    "ORDER BY version LIMIT :limit) AS x " +
+                    "JOIN apps AS a ON a.id = x.app_id " +
+                    "JOIN uris AS u ON u.id = x.uri_id " +
+                    "%s" +
+                    "ORDER BY x.version";
+
+    private static final String UNIQUE_JOIN =
+            "LEFT JOIN uri_unique_count AS c ON c.app_id = x.app_id AND c.uri_id = x.uri_id ";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final DatabasePlatform databasePlatform;
+
+    //Последовательность ничего не блокирует: версии выдаются по возрастанию, но фиксируются в любом порядке
+    public long nextVersion() {
+        String sql = databasePlatform.isPostgres()
+                ? "SELECT nextval('ingest_version')"
+                : "SELECT NEXT VALUE FOR ingest_version";
+        return jdbcTemplate.queryForObject(sql, Long.class);
+    }
+
+    public long findMaxVersion() {
+        return jdbcTemplate.queryForObject("SELECT COALESCE(MAX(version), 0) FROM uri_total", Long.class);
+    }
+
+    //Следующая выданная версия будет больше version
+    public void restartVersionsAfter(long version) {
+        if (databasePlatform.isPostgres()) {
+            jdbcTemplate.queryForObject("SELECT setval('ingest_version', ?)", Long.class, version);
+        } else {
+            jdbcTemplate.execute("ALTER SEQUENCE ingest_version RESTART WITH " + (version + 1));
+        }
+    }
+
+    //Ключи должны быть отсортированы, чтобы параллельные транзакции блокировали строки в одном порядке
+    public void increment(List<Map.Entry<List<Integer>, Long>> increments, long version) {
+        String sql = databasePlatform.isPostgres() ? INCREMENT_POSTGRES : INCREMENT_STANDARD;
+        jdbcTemplate.batchUpdate(sql, increments, increments.size(), (ps, increment) -> {
+            ps.setInt(1, increment.getKey().get(0));
+            ps.setInt(2, increment.getKey().get(1));
+            ps.setLong(3, increment.getValue());
+            ps.setLong(4, version);
+        });
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM uri_total LIMIT 1").isEmpty();
+    }
+
+    //Пересобранные итоги получают новую версию, чтобы клиент со старой отметкой увидел их все
+    public void backfill() {
+        jdbcTemplate.update(BACKFILL, nextVersion());
+    }
+
+    public void deleteAll() {
+        jdbcTemplate.update("DELETE FROM uri_total");
+    }
+
+    //Строки: version, app, uri, hits - по возрастанию version
+    public void forEachChange(long since, long until, int limit, boolean unique, RowCallbackHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource()
+                .addValue("since", since)
+                .addValue("until", until)
+                .addValue("limit", limit);
+        String sql = unique
+                ? String.format(CHANGES, "COALESCE(c.visitors, 0)", UNIQUE_JOIN)
+                : String.format(CHANGES, "x.hits", "");
+        namedJdbcTemplate.query(sql, params, handler);
+    }
+
+}
@@ -0,0 +1,103 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.DictionaryType;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+@Repository
+@RequiredArgsConstructor
+public class DictionaryRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final DatabasePlatform databasePlatform;
+
+    public void insertIfAbsent(DictionaryType type, String name) {
+        if (databasePlatform.isPostgres()) {
+            jdbcTemplate.update("INSERT INTO " + type.getTable() + " (name) VALUES (?) " +
+                    "ON CONFLICT (name) DO NOTHING", name);
+        } else {
+            jdbcTemplate.update("MERGE INTO " + type.getTable() + " AS d " +
+                    "USING (VALUES (CAST(? AS VARCHAR(255)))) AS v (name) ON d.name = v.name " +
+                    "WHEN NOT MATCHED THEN INSERT (name) VALUES (v.name)", name);
+        }
+    }
+
+    public List<Integer> findId(DictionaryType type, String name) {
+        return jdbcTemplate.queryForList("SELECT id FROM " + type.getTable() + " WHERE name = ?",
+                Integer.class, name);
+    }
+
+    public List<String> findName(DictionaryType type, int id) {
+        return jdbcTemplate.queryForList("SELECT name FROM " + type.getTable() + " WHERE id = ?",
+                String.class, id);
+    }
+
+    public void findIds(DictionaryType type, Collection<String> names, BiConsumer<String, Integer> consumer) {
+        namedJdbcTemplate.query("SELECT id, name FROM " + type.getTable() + " WHERE name IN (:names)",
+                new MapSqlParameterSource("names", names),
+                rs -> {
+                    consumer.accept(rs.getString("name"), rs.getInt("id"));
+                });
+    }
+
+    //Индекс для findIdsByPrefix. Создаётся при старте: schema-postgresql.sql выполняется раньше schema.sql,
+    //где объявлены словари
+    public void createPrefixIndex(DictionaryType type) {
+        if (databasePlatform.isPostgres()) {
+            jdbcTemplate.execute("CREATE INDEX IF NOT EXISTS idx_" + type.getTable() + "_name_c ON "
+                    + type.getTable() + " (name COLLATE \"C\")");
+        }
+    }
+
+    //Диапазон по имени вместо LIKE, чтобы читался индекс. В PostgreSQL сравнение идёт в collation "C"
+    //(побайтово, как у индекса из createPrefixIndex): в других collation диапазон не совпадает с префиксом
+    public void findIdsByPrefix(DictionaryType type, String prefix, BiConsumer<String, Integer> consumer) {
+        String name = databasePlatform.isPostgres() ? "name COLLATE \"C\"" : "name";
+        String end = prefixEnd(prefix);
+        MapSqlParameterSource params = new MapSqlParameterSource("from", prefix);
+        StringBuilder sql = new StringBuilder("SELECT id, name FROM ").append(type.getTable())
+                .append(" WHERE ").append(name).append(" >= :from");
+        if (end != null) {
+            sql.append(" AND ").append(name).append(" < :to");
+            params.addValue("to", end);
+        }
+        namedJdbcTemplate.query(sql.toString(), params,
+                rs -> {
+                    String found = rs.getString("name");
+                    if (found.startsWith(prefix)) {
+                        consumer.accept(found, rs.getInt("id"));
+                    }
+                });
+    }
+
+    //Наименьшая строка после всех строк с префиксом. Суррогаты пропускаются: граница выходит шире,
+    //лишнее отсекает проверка startsWith. null - верхней границы нет
+    private static String prefixEnd(String prefix) {
+        for (int i = prefix.length() - 1; i >= 0; i--) {
+            char c = prefix.charAt(i);
+            if (c != Character.MAX_VALUE && !Character.isSurrogate(c)) {
+                return prefix.substring(0, i) + (char) (c + 1);
+            }
+        }
+        return null;
+    }
+
+    public void findAll(DictionaryType type, Map<String, Integer> target) {
+        jdbcTemplate.query("SELECT id, name FROM " + type.getTable(),
+                rs -> {
+                    target.put(rs.getString("name"), rs.getInt("id"));
+                });
+    }
+
+}
@@ -0,0 +1,192 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.DateConstants;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.Hit;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class HitJdbcRepository {
+
+    private static final String INSERT_HIT =
+            "INSERT INTO statistic (app_id, uri_id, ip, view_date) VALUES (?, ?, ?, ?)";
+
+    private static final String COPY_HITS =
+            "COPY statistic (app_id, uri_id, ip, view_date) FROM STDIN WITH (FORMAT csv)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final DatabasePlatform databasePlatform;
+
+    @Value("${stats.jdbc.batch-size:500}")
+    private int batchSize;
+
+    public void saveAll(List<Hit> hits) {
+        jdbcTemplate.batchUpdate(INSERT_HIT, hits, batchSize, (ps, hit) -> {
+            ps.setInt(1, hit.getAppId());
+            ps.setInt(2, hit.getUriId());
+            ps.setBytes(3, hit.getAddress());
+            ps.setTimestamp(4, Timestamp.valueOf(hit.getTimestamp()));
+        });
+    }
+
+    public List<ViewStats> countViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = viewsAggregate(ranges, uriIds, unique, params);
+        return namedJdbcTemplate.query(StatisticSql.withNames(sql) + " ORDER BY x.hits DESC", params,
+                StatisticSql.VIEW_STATS);
+    }
+
+    public void streamViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique,
+                            Consumer<ViewStats> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = viewsAggregate(ranges, uriIds, unique, params);
+        namedJdbcTemplate.query(StatisticSql.withNames(sql) + " ORDER BY x.hits DESC", params,
+                StatisticSql.streaming(consumer));
+    }
+
+    public List<ViewStats> findTopViews(List<TimeRange> ranges, boolean unique, String prefix, int n) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = viewsAggregate(ranges, Set.of(), unique, params);
+        return namedJdbcTemplate.query(StatisticSql.top(sql, params, prefix, n), params, StatisticSql.VIEW_STATS);
+    }
+
+    private StringBuilder viewsAggregate(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique,
+                                         MapSqlParameterSource params) {
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, ")
+                .append(unique ? "COUNT(DISTINCT ip)" : "COUNT(*)")
+                .append(" AS hits FROM statistic WHERE ");
+        StatisticSql.appendRanges(sql, params, "view_date", ranges);
+        if (!uriIds.isEmpty()) {
+            sql.append(" AND ").append(StatisticSql.uriFilter(params, uriIds, databasePlatform.isPostgres()));
+        }
+        return sql.append(" GROUP BY app_id, uri_id");
+    }
+
+    //Строки: bucket_start, app_id, uri_id, hits. unique - уникальные IP внутри каждой корзины
+    public void forEachBucketedView(RollupResolution bucket, List<TimeRange> ranges, Set<Integer> uriIds,
+                                    boolean unique, RowCallbackHandler handler) {
+        String bucketStart = "DATE_TRUNC('" + bucket.name().toLowerCase() + "', view_date)";
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder("SELECT ").append(bucketStart)
+                .append(" AS bucket_start, app_id, uri_id, ")
+                .append(unique ? "COUNT(DISTINCT ip)" : "COUNT(*)")
+                .append(" AS hits FROM statistic WHERE ");
+        StatisticSql.appendRanges(sql, params, "view_date", ranges);
+        if (!uriIds.isEmpty()) {
+            sql.append(" AND ").append(StatisticSql.uriFilter(params, uriIds, databasePlatform.isPostgres()));
+        }
+        sql.append(" GROUP BY ").append(bucketStart).append(", app_id, uri_id");
+        namedJdbcTemplate.query(sql.toString(), params, handler);
+    }
+
+    //Строки: app_id, uri_id, ip
+    public void forEachDistinctIp(List<TimeRange> ranges, Set<Integer> uriIds, RowCallbackHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder("SELECT DISTINCT app_id, uri_id, ip " +
+                "FROM statistic " +
+                "WHERE ");
+        StatisticSql.appendRanges(sql, params, "view_date", ranges);
+        if (!uriIds.isEmpty()) {
+            sql.append(" AND ").append(StatisticSql.uriFilter(params, uriIds, databasePlatform.isPostgres()));
+        }
+        namedJdbcTemplate.query(sql.toString(), params, handler);
+    }
+
+    //Строки: view_date, app_id, uri_id, ip - сами просмотры без группировки
+    public void forEachHit(List<TimeRange> ranges, RowCallbackHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder("SELECT view_date, app_id, uri_id, ip " +
+                "FROM statistic " +
+                "WHERE ");
+        StatisticSql.appendRanges(sql, params, "view_date", ranges);
+        namedJdbcTemplate.query(sql.toString(), params, handler);
+    }
+
+    public long findMaxId() {
+        Long maxId = jdbcTemplate.queryForObject("SELECT MAX(id) FROM statistic", Long.class);
+        return maxId == null ? 0 : maxId;
+    }
+
+    //Строки: view_date, app_id, uri_id, ip с id больше заданного
+    public void forEachHitAfter(long id, RowCallbackHandler handler) {
+        jdbcTemplate.query("SELECT view_date, app_id, uri_id, ip FROM statistic WHERE id > ?", handler, id);
+    }
+
+    //Строки: bucket_start, app_id, uri_id, ip - по возрастанию bucket_start
+    public void forEachDistinctIpByBucket(RollupResolution resolution, RowCallbackHandler handler) {
+        String unit = resolution.name().toLowerCase();
+        jdbcTemplate.query("SELECT DISTINCT DATE_TRUNC('" + unit + "', view_date) AS bucket_start, " +
+                "app_id, uri_id, ip " +
+                "FROM statistic " +
+                "ORDER BY bucket_start", handler);
+    }
+
+    public LocalDateTime findLatestView() {
+        Timestamp latest = jdbcTemplate.queryForObject("SELECT MAX(view_date) FROM statistic", Timestamp.class);
+        return latest == null ? null : latest.toLocalDateTime();
+    }
+
+    //COPY на Postgres, пакетная вставка на остальных БД
+    public void bulkSave(List<Hit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        if (databasePlatform.isPostgres()) {
+            copyAll(hits);
+        } else {
+            saveAll(hits);
+        }
+    }
+
+    private void copyAll(List<Hit> hits) {
+        StringBuilder csv = new StringBuilder(hits.size() * 64);
+        for (Hit hit : hits) {
+            csv.append(hit.getAppId()).append(',');
+            csv.append(hit.getUriId()).append(',');
+            appendBytea(csv, hit.getAddress()).append(',');
+            csv.append(hit.getTimestamp().format(DateConstants.DTF)).append('\n');
+        }
+        jdbcTemplate.execute((ConnectionCallback<Long>) connection -> {
+            try {
+                return new CopyManager(connection.unwrap(BaseConnection.class))
+                        .copyIn(COPY_HITS, new StringReader(csv.toString()));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    //bytea в текстовом виде: \x и шестнадцатеричные цифры, кавычки в CSV не нужны
+    private StringBuilder appendBytea(StringBuilder csv, byte[] value) {
+        csv.append("\\x");
+        for (byte b : value) {
+            csv.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return csv;
+    }
+
+}
@@ -0,0 +1,69 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class HitKeyRepository {
+
+    private static final int INSERT_CHUNK_SIZE = 1000;
+
+    private static final String INSERT_KEY_STANDARD =
+            "MERGE INTO hit_key AS k " +
+                    "USING (VALUES (CAST(? AS VARCHAR(64)), CAST(? AS TIMESTAMP))) AS n (hit_id, received_at) " +
+                    "ON k.hit_id = n.hit_id " +
+                    "WHEN NOT MATCHED THEN INSERT (hit_id, received_at) VALUES (n.hit_id, n.received_at)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final DatabasePlatform databasePlatform;
+
+    //Возвращает только впервые записанные id. Ключи должны быть отсортированы: параллельная транзакция
+    //с тем же id ждёт первую, и одинаковый порядок исключает взаимную блокировку
+    public List<String> insertNewKeys(List<String> hitIds, LocalDateTime receivedAt) {
+        List<String> inserted = new ArrayList<>();
+        if (databasePlatform.isPostgres()) {
+            for (int from = 0; from < hitIds.size(); from += INSERT_CHUNK_SIZE) {
+                inserted.addAll(insertChunkReturning(hitIds.subList(from,
+                        Math.min(from + INSERT_CHUNK_SIZE, hitIds.size())), receivedAt));
+            }
+            return inserted;
+        }
+        for (String hitId : hitIds) {
+            try {
+                if (jdbcTemplate.update(INSERT_KEY_STANDARD, hitId, Timestamp.valueOf(receivedAt)) > 0) {
+                    inserted.add(hitId);
+                }
+            } catch (DuplicateKeyException e) {
+                //MERGE в H2 не атомарен: тот же id только что записала параллельная транзакция
+            }
+        }
+        return inserted;
+    }
+
+    private List<String> insertChunkReturning(List<String> chunk, LocalDateTime receivedAt) {
+        StringBuilder sql = new StringBuilder("INSERT INTO hit_key (hit_id, received_at) VALUES ");
+        List<Object> args = new ArrayList<>(chunk.size() * 2);
+        Timestamp received = Timestamp.valueOf(receivedAt);
+        for (int i = 0; i < chunk.size(); i++) {
+            sql.append(i == 0 ? "(?, ?)" : ", (?, ?)");
+            args.add(chunk.get(i));
+            args.add(received);
+        }
+        sql.append(" ON CONFLICT (hit_id) DO NOTHING RETURNING hit_id");
+        return jdbcTemplate.queryForList(sql.toString(), String.class, args.toArray());
+    }
+
+    public int deleteReceivedBefore(LocalDateTime cutoff) {
+        return jdbcTemplate.update("DELETE FROM hit_key WHERE received_at < ?", Timestamp.valueOf(cutoff));
+    }
+
+}
@@ -0,0 +1,94 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.List;
+
+@Repository
+@RequiredArgsConstructor
+public class PartitionRepository {
+
+    private static final String IS_PARTITIONED =
+            "SELECT COUNT(*) FROM pg_partitioned_table pt " +
+                    "JOIN pg_class c ON c.oid = pt.partrelid " +
+                    "WHERE c.relname = 'statistic'";
+
+    private static final String LIST_PARTITIONS =
+            "SELECT c.relname FROM pg_inherits i " +
+                    "JOIN pg_class c ON c.oid = i.inhrelid " +
+                    "JOIN pg_class p ON p.oid = i.inhparent " +
+                    "WHERE p.relname = 'statistic'";
+
+    private static final String DELETE_CHUNK =
+            "DELETE FROM statistic WHERE id IN (" +
+                    "SELECT id FROM statistic WHERE view_date < ? LIMIT ?)";
+
+    private static final String DEFAULT_HAS_ROWS =
+            "SELECT EXISTS (SELECT 1 FROM statistic_default WHERE view_date >= ? AND view_date < ?)";
+
+    private static final String MOVE_FROM_DEFAULT =
+            "WITH moved AS (DELETE FROM statistic_default WHERE view_date >= ? AND view_date < ? " +
+                    "RETURNING id, app_id, uri_id, ip, view_date) " +
+                    "INSERT INTO %s (id, app_id, uri_id, ip, view_date) SELECT * FROM moved";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public boolean isPartitioned() {
+        Integer count = jdbcTemplate.queryForObject(IS_PARTITIONED, Integer.class);
+        return count != null && count > 0;
+    }
+
+    public List<String> findPartitions() {
+        return jdbcTemplate.queryForList(LIST_PARTITIONS, String.class);
+    }
+
+    public boolean exists(String name) {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class, name);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    public boolean hasDefaultRows(YearMonth month) {
+        Boolean exists = jdbcTemplate.queryForObject(DEFAULT_HAS_ROWS, Boolean.class,
+                Timestamp.valueOf(month.atDay(1).atStartOfDay()),
+                Timestamp.valueOf(month.plusMonths(1).atDay(1).atStartOfDay()));
+        return Boolean.TRUE.equals(exists);
+    }
+
+    public void createMonthPartition(String name, YearMonth month) {
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS " + name + " PARTITION OF statistic " +
+                "FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+    }
+
+    //Секция за месяц, просмотры которого уже лежат в секции по умолчанию: Postgres не даст создать её поверх них.
+    //Таблица создаётся отдельно, строки переносятся в неё, и только потом она подключается. Вызывать в транзакции
+    public void createMonthPartitionFromDefault(String name, YearMonth month) {
+        LocalDate from = month.atDay(1);
+        LocalDate to = month.plusMonths(1).atDay(1);
+        jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE statistic INCLUDING DEFAULTS)");
+        jdbcTemplate.update(String.format(MOVE_FROM_DEFAULT, name),
+                Timestamp.valueOf(from.atStartOfDay()), Timestamp.valueOf(to.atStartOfDay()));
+        jdbcTemplate.execute("ALTER TABLE statistic ATTACH PARTITION " + name + " " +
+                "FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+    }
+
+    public void detachPartition(String name) {
+        jdbcTemplate.execute("ALTER TABLE statistic DETACH PARTITION " + name);
+    }
+
+    public void dropTable(String name) {
+        jdbcTemplate.execute("DROP TABLE IF EXISTS " + name);
+    }
+
+    public int deleteOlderThan(LocalDateTime cutoff, int chunkSize) {
+        return jdbcTemplate.update(DELETE_CHUNK, Timestamp.valueOf(cutoff), chunkSize);
+    }
+
+}
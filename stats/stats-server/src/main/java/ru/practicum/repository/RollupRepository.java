@@ -0,0 +1,183 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class RollupRepository {
+
+    private static final String UPSERT_POSTGRES =
+            "INSERT INTO statistic_rollup (resolution, bucket_start, app_id, uri_id, hits) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (resolution, bucket_start, app_id, uri_id) " +
+                    "DO UPDATE SET hits = statistic_rollup.hits + EXCLUDED.hits";
+
+    private static final String UPSERT_STANDARD =
+            "MERGE INTO statistic_rollup AS r " +
+                    "USING (VALUES (CAST(? AS VARCHAR(6)), CAST(? AS TIMESTAMP), CAST(? AS INT), " +
+                    "CAST(? AS INT), CAST(? AS BIGINT))) AS v (resolution, bucket_start, app_id, uri_id, hits) " +
+                    "ON r.resolution = v.resolution AND r.bucket_start = v.bucket_start " +
+                    "AND r.app_id = v.app_id AND r.uri_id = v.uri_id " +
+                    "WHEN MATCHED THEN UPDATE SET hits = r.hits + v.hits " +
+                    "WHEN NOT MATCHED THEN INSERT (resolution, bucket_start, app_id, uri_id, hits) " +
+                    "VALUES (v.resolution, v.bucket_start, v.app_id, v.uri_id, v.hits)";
+
+    private static final String DELETE_CHUNK =
+            "DELETE FROM statistic_rollup WHERE (resolution, bucket_start, app_id, uri_id) IN (" +
+                    "SELECT resolution, bucket_start, app_id, uri_id FROM statistic_rollup " +
+                    "WHERE resolution = ? AND bucket_start < ? LIMIT ?)";
+
+    private static final String BACKFILL =
+            "INSERT INTO statistic_rollup (resolution, bucket_start, app_id, uri_id, hits) " +
+                    "SELECT ?, DATE_TRUNC('%1$s', view_date), app_id, uri_id, COUNT(*) " +
+                    "FROM statistic " +
+                    "GROUP BY DATE_TRUNC('%1$s', view_date), app_id, uri_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final DatabasePlatform databasePlatform;
+
+    //Ключи должны быть отсортированы, чтобы параллельные транзакции блокировали строки в одном порядке
+    public void increment(List<Map.Entry<RollupKey, Long>> increments) {
+        String sql = databasePlatform.isPostgres() ? UPSERT_POSTGRES : UPSERT_STANDARD;
+        jdbcTemplate.batchUpdate(sql, increments, increments.size(), (ps, increment) -> {
+            RollupKey key = increment.getKey();
+            ps.setString(1, key.getResolution().name());
+            ps.setTimestamp(2, Timestamp.valueOf(key.getBucketStart()));
+            ps.setInt(3, key.getAppId());
+            ps.setInt(4, key.getUriId());
+            ps.setLong(5, increment.getValue());
+        });
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM statistic_rollup LIMIT 1").isEmpty();
+    }
+
+    public void backfill() {
+        for (RollupResolution resolution : RollupResolution.values()) {
+            jdbcTemplate.update(String.format(BACKFILL, resolution.name().toLowerCase()), resolution.name());
+        }
+    }
+
+    //Корзины не шире суток, а отсечка по сроку хранения - начало месяца: корзина до неё целиком устарела
+    public int deleteOlderThan(RollupResolution resolution, LocalDateTime cutoff, int chunkSize) {
+        return jdbcTemplate.update(DELETE_CHUNK, resolution.name(), Timestamp.valueOf(cutoff), chunkSize);
+    }
+
+    public List<ViewStats> sumHits(RollupResolution resolution, List<TimeRange> ranges, Set<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource("resolution", resolution.name());
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, SUM(hits) AS hits " +
+                "FROM statistic_rollup " +
+                "WHERE resolution = :resolution AND ");
+        StatisticSql.appendRanges(sql, params, "bucket_start", ranges);
+        if (!uriIds.isEmpty()) {
+            sql.append(" AND ").append(StatisticSql.uriFilter(params, uriIds, databasePlatform.isPostgres()));
+        }
+        sql.append(" GROUP BY app_id, uri_id");
+        return namedJdbcTemplate.query(StatisticSql.withNames(sql), params, StatisticSql.VIEW_STATS);
+    }
+
+    //Агрегаты и сырые края складываются в одном запросе, чтобы результат можно было читать курсором
+    public void streamViews(Map<RollupResolution, List<TimeRange>> rollupRanges, List<TimeRange> rawRanges,
+                            Set<Integer> uriIds, Consumer<ViewStats> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = viewsAggregate(rollupRanges, rawRanges, uriIds, params);
+        namedJdbcTemplate.query(StatisticSql.withNames(sql) + " ORDER BY x.hits DESC", params,
+                StatisticSql.streaming(consumer));
+    }
+
+    public List<ViewStats> findTopViews(Map<RollupResolution, List<TimeRange>> rollupRanges,
+                                        List<TimeRange> rawRanges, String prefix, int n) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = viewsAggregate(rollupRanges, rawRanges, Set.of(), params);
+        return namedJdbcTemplate.query(StatisticSql.top(sql, params, prefix, n), params, StatisticSql.VIEW_STATS);
+    }
+
+    //Строки: bucket_start, app_id, uri_id, hits
+    public void forEachBucket(RollupResolution resolution, RowCallbackHandler handler) {
+        jdbcTemplate.query("SELECT bucket_start, app_id, uri_id, hits FROM statistic_rollup WHERE resolution = ?",
+                handler, resolution.name());
+    }
+
+    //Строки: bucket_start (начало корзины заданного разрешения), app_id, uri_id, hits
+    public void forEachBucketedView(RollupResolution bucket, Map<RollupResolution, List<TimeRange>> rollupRanges,
+                                    List<TimeRange> rawRanges, Set<Integer> uriIds, RowCallbackHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        namedJdbcTemplate.query(viewsAggregate(rollupRanges, rawRanges, uriIds, params, bucket).toString(),
+                params, handler);
+    }
+
+    private StringBuilder viewsAggregate(Map<RollupResolution, List<TimeRange>> rollupRanges,
+                                         List<TimeRange> rawRanges, Set<Integer> uriIds,
+                                         MapSqlParameterSource params) {
+        return viewsAggregate(rollupRanges, rawRanges, uriIds, params, null);
+    }
+
+    //bucket задан - суммы дополнительно разбиваются по корзинам этого разрешения
+    private StringBuilder viewsAggregate(Map<RollupResolution, List<TimeRange>> rollupRanges,
+                                         List<TimeRange> rawRanges, Set<Integer> uriIds,
+                                         MapSqlParameterSource params, RollupResolution bucket) {
+        String uriFilter = "";
+        if (!uriIds.isEmpty()) {
+            uriFilter = " AND " + StatisticSql.uriFilter(params, uriIds, databasePlatform.isPostgres());
+        }
+        String keys = bucket == null ? "app_id, uri_id" : "bucket_start, app_id, uri_id";
+        StringBuilder sql = new StringBuilder("SELECT ").append(keys).append(", SUM(hits) AS hits FROM (");
+        boolean first = true;
+        for (Map.Entry<RollupResolution, List<TimeRange>> entry : rollupRanges.entrySet()) {
+            String prefix = entry.getKey().name().toLowerCase();
+            if (!first) {
+                sql.append(" UNION ALL ");
+            }
+            first = false;
+            sql.append("SELECT ").append(bucketColumn(bucket, "bucket_start"))
+                    .append("app_id, uri_id, SUM(hits) AS hits FROM statistic_rollup " +
+                            "WHERE resolution = :").append(prefix).append(" AND ");
+            params.addValue(prefix, entry.getKey().name());
+            StatisticSql.appendRanges(sql, params, "bucket_start", entry.getValue(), prefix);
+            sql.append(uriFilter).append(" GROUP BY ").append(groupColumns(bucket, "bucket_start"));
+        }
+        if (!rawRanges.isEmpty()) {
+            if (!first) {
+                sql.append(" UNION ALL ");
+            }
+            sql.append("SELECT ").append(bucketColumn(bucket, "view_date"))
+                    .append("app_id, uri_id, COUNT(*) AS hits FROM statistic WHERE ");
+            StatisticSql.appendRanges(sql, params, "view_date", rawRanges, "raw");
+            sql.append(uriFilter).append(" GROUP BY ").append(groupColumns(bucket, "view_date"));
+        }
+        return sql.append(") AS p GROUP BY ").append(keys);
+    }
+
+    private String bucketColumn(RollupResolution bucket, String column) {
+        return bucket == null ? "" : dateTrunc(bucket, column) + " AS bucket_start, ";
+    }
+
+    private String groupColumns(RollupResolution bucket, String column) {
+        return bucket == null ? "app_id, uri_id" : dateTrunc(bucket, column) + ", app_id, uri_id";
+    }
+
+    //Единица подставляется литералом: H2 не принимает её параметром
+    private String dateTrunc(RollupResolution bucket, String column) {
+        return "DATE_TRUNC('" + bucket.name().toLowerCase() + "', " + column + ")";
+    }
+
+}
@@ -0,0 +1,33 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.HashSet;
+import java.util.Set;
+
+//Номера сегментов, записанных транзакцией БД, но ещё не внесённых в MANIFEST
+@Repository
+@RequiredArgsConstructor
+public class SegmentCommitRepository {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public void insert(long seq) {
+        jdbcTemplate.update("INSERT INTO segment_commit (seq) VALUES (?)", seq);
+    }
+
+    public Set<Long> findAll() {
+        return new HashSet<>(jdbcTemplate.queryForList("SELECT seq FROM segment_commit", Long.class));
+    }
+
+    public void delete(long seq) {
+        jdbcTemplate.update("DELETE FROM segment_commit WHERE seq = ?", seq);
+    }
+
+    public void deleteAll() {
+        jdbcTemplate.update("DELETE FROM segment_commit");
+    }
+
+}
@@ -0,0 +1,119 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@Repository
+@RequiredArgsConstructor
+public class SketchRepository {
+
+    private static final String INSERT_IF_ABSENT_POSTGRES =
+            "INSERT INTO statistic_hll (resolution, bucket_start, app_id, uri_id, sketch) VALUES (?, ?, ?, ?, ?) " +
+                    "ON CONFLICT (resolution, bucket_start, app_id, uri_id) DO NOTHING";
+
+    private static final String INSERT_IF_ABSENT_STANDARD =
+            "MERGE INTO statistic_hll AS h " +
+                    "USING (VALUES (CAST(? AS VARCHAR(6)), CAST(? AS TIMESTAMP), CAST(? AS INT), " +
+                    "CAST(? AS INT), CAST(? AS VARBINARY))) AS v (resolution, bucket_start, app_id, uri_id, sketch) " +
+                    "ON h.resolution = v.resolution AND h.bucket_start = v.bucket_start " +
+                    "AND h.app_id = v.app_id AND h.uri_id = v.uri_id " +
+                    "WHEN NOT MATCHED THEN INSERT (resolution, bucket_start, app_id, uri_id, sketch) " +
+                    "VALUES (v.resolution, v.bucket_start, v.app_id, v.uri_id, v.sketch)";
+
+    private static final String SELECT_FOR_UPDATE =
+            "SELECT sketch FROM statistic_hll " +
+                    "WHERE resolution = ? AND bucket_start = ? AND app_id = ? AND uri_id = ? FOR UPDATE";
+
+    private static final String UPDATE =
+            "UPDATE statistic_hll SET sketch = ? " +
+                    "WHERE resolution = ? AND bucket_start = ? AND app_id = ? AND uri_id = ?";
+
+    private static final String DELETE_CHUNK =
+            "DELETE FROM statistic_hll WHERE (resolution, bucket_start, app_id, uri_id) IN (" +
+                    "SELECT resolution, bucket_start, app_id, uri_id FROM statistic_hll " +
+                    "WHERE resolution = ? AND bucket_start < ? LIMIT ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final DatabasePlatform databasePlatform;
+
+    public void insertIfAbsent(List<Map.Entry<RollupKey, byte[]>> sketches) {
+        String sql = databasePlatform.isPostgres() ? INSERT_IF_ABSENT_POSTGRES : INSERT_IF_ABSENT_STANDARD;
+        try {
+            jdbcTemplate.batchUpdate(sql, sketches, sketches.size(), (ps, sketch) -> {
+                RollupKey key = sketch.getKey();
+                ps.setString(1, key.getResolution().name());
+                ps.setTimestamp(2, Timestamp.valueOf(key.getBucketStart()));
+                ps.setInt(3, key.getAppId());
+                ps.setInt(4, key.getUriId());
+                ps.setBytes(5, sketch.getValue());
+            });
+        } catch (DuplicateKeyException e) {
+            //MERGE в H2 не атомарен: строку только что вставила параллельная транзакция. Остальные строки
+            //пакета H2 всё равно выполняет, так что нужный результат - строка есть - достигнут
+        }
+    }
+
+    public byte[] findForUpdate(RollupKey key) {
+        return jdbcTemplate.queryForObject(SELECT_FOR_UPDATE, (rs, rowNum) -> rs.getBytes("sketch"),
+                key.getResolution().name(), Timestamp.valueOf(key.getBucketStart()), key.getAppId(), key.getUriId());
+    }
+
+    public void updateAll(List<Map.Entry<RollupKey, byte[]>> sketches) {
+        jdbcTemplate.batchUpdate(UPDATE, sketches, sketches.size(), (ps, sketch) -> {
+            RollupKey key = sketch.getKey();
+            ps.setBytes(1, sketch.getValue());
+            ps.setString(2, key.getResolution().name());
+            ps.setTimestamp(3, Timestamp.valueOf(key.getBucketStart()));
+            ps.setInt(4, key.getAppId());
+            ps.setInt(5, key.getUriId());
+        });
+    }
+
+    //Пары {интервал, длина скетча}: точность записана в самом скетче, и от неё зависит длина
+    public List<Map.Entry<RollupResolution, Integer>> findLayouts() {
+        return jdbcTemplate.query("SELECT DISTINCT resolution, OCTET_LENGTH(sketch) AS length FROM statistic_hll",
+                (rs, rowNum) -> new AbstractMap.SimpleEntry<>(RollupResolution.valueOf(rs.getString("resolution")),
+                        rs.getInt("length")));
+    }
+
+    public void deleteAll() {
+        jdbcTemplate.update("DELETE FROM statistic_hll");
+    }
+
+    public int deleteOlderThan(RollupResolution resolution, LocalDateTime cutoff, int chunkSize) {
+        return jdbcTemplate.update(DELETE_CHUNK, resolution.name(), Timestamp.valueOf(cutoff), chunkSize);
+    }
+
+    //Строки: app_id, uri_id, sketch
+    public void forEachSketch(RollupResolution resolution, TimeRange range, Set<Integer> uriIds,
+                              RowCallbackHandler handler) {
+        MapSqlParameterSource params = new MapSqlParameterSource("resolution", resolution.name());
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, sketch " +
+                "FROM statistic_hll " +
+                "WHERE resolution = :resolution AND ");
+        StatisticSql.appendRanges(sql, params, "bucket_start", List.of(range));
+        if (!uriIds.isEmpty()) {
+            sql.append(" AND ").append(StatisticSql.uriFilter(params, uriIds, databasePlatform.isPostgres()));
+        }
+        namedJdbcTemplate.query(sql.toString(), params, handler);
+    }
+
+}
@@ -14,38 +14,46 @@ import java.util.Set;
 public interface StatisticRepository extends JpaRepository<Hit, Long> {
 
     //Просмотры всех uri (не уникальные)
-    @Query("SELECT NEW ru.practicum.dto.ViewStats(s.app, s.uri, COUNT(s.ip)) " +
+    @Query("SELECT NEW ru.practicum.dto.ViewStats(a.name, u.name, COUNT(s.address)) " +
             "FROM Hit AS s " +
-            "WHERE s.timestamp BETWEEN :start AND :end " +
-            "GROUP BY s.ip, s.app, s.uri " +
-            "ORDER BY COUNT(s.ip) DESC")
+            "JOIN App AS a ON a.id = s.appId " +
+            "JOIN Uri AS u ON u.id = s.uriId " +
+            "WHERE s.timestamp >= :start AND s.timestamp < :end " +
+            "GROUP BY s.appId, s.uriId, a.name, u.name " +
+            "ORDER BY COUNT(s.address) DESC")
     List<ViewStats> getUrisViews(LocalDateTime start, LocalDateTime end);
 
 
     //Просмотры конкретных uri (не уникальные)
-    @Query("SELECT NEW ru.practicum.dto.ViewStats(s.app, s.uri, COUNT(s.ip)) " +
+    @Query("SELECT NEW ru.practicum.dto.ViewStats(a.name, u.name, COUNT(s.address)) " +
             "FROM Hit AS s " +
-            "WHERE s.timestamp BETWEEN :start AND :end " +
-            "AND s.uri IN (:uris) " +
-            "GROUP BY s.uri, s.ip, s.app " +
-            "ORDER BY COUNT(s.ip) DESC")
-    List<ViewStats> getUrisViewsFromSet(Set<String> uris, LocalDateTime start, LocalDateTime end);
+            "JOIN App AS a ON a.id = s.appId " +
+            "JOIN Uri AS u ON u.id = s.uriId " +
+            "WHERE s.timestamp >= :start AND s.timestamp < :end " +
+            "AND s.uriId IN (:uriIds) " +
+            "GROUP BY s.appId, s.uriId, a.name, u.name " +
+            "ORDER BY COUNT(s.address) DESC")
+    List<ViewStats> getUrisViewsFromSet(Set<Integer> uriIds, LocalDateTime start, LocalDateTime end);
 
     //Просмотры всех uri (уникальные)
-    @Query("SELECT NEW ru.practicum.dto.ViewStats(s.app, s.uri, COUNT(DISTINCT s.ip)) " +
+    @Query("SELECT NEW ru.practicum.dto.ViewStats(a.name, u.name, COUNT(DISTINCT s.address)) " +
             "FROM Hit s " +
-            "WHERE s.timestamp BETWEEN :start AND :end " +
-            "GROUP BY s.uri, s.ip, s.app " +
-            "ORDER BY COUNT(DISTINCT s.ip) DESC")
+            "JOIN App AS a ON a.id = s.appId " +
+            "JOIN Uri AS u ON u.id = s.uriId " +
+            "WHERE s.timestamp >= :start AND s.timestamp < :end " +
+            "GROUP BY s.appId, s.uriId, a.name, u.name " +
+            "ORDER BY COUNT(DISTINCT s.address) DESC")
     List<ViewStats> getUrisViewsUnique(LocalDateTime start, LocalDateTime end);
 
     //Просмотры конкретных uri (уникальные)
-    @Query("SELECT NEW ru.practicum.dto.ViewStats(s.app, s.uri, COUNT(DISTINCT s.ip)) " +
+    @Query("SELECT NEW ru.practicum.dto.ViewStats(a.name, u.name, COUNT(DISTINCT s.address)) " +
             "FROM Hit s " +
-            "WHERE s.timestamp BETWEEN :start AND :end " +
-            "AND s.uri IN (:uris) " +
-            "GROUP BY s.uri, s.ip, s.app " +
-            "ORDER BY COUNT(DISTINCT s.ip) DESC")
-    List<ViewStats> getUrisViewsFromSetUnique(Set<String> uris, LocalDateTime start, LocalDateTime end);
+            "JOIN App AS a ON a.id = s.appId " +
+            "JOIN Uri AS u ON u.id = s.uriId " +
+            "WHERE s.timestamp >= :start AND s.timestamp < :end " +
+            "AND s.uriId IN (:uriIds) " +
+            "GROUP BY s.appId, s.uriId, a.name, u.name " +
+            "ORDER BY COUNT(DISTINCT s.address) DESC")
+    List<ViewStats> getUrisViewsFromSetUnique(Set<Integer> uriIds, LocalDateTime start, LocalDateTime end);
 
 }
\ No newline at end of file
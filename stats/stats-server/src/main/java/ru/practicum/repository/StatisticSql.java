@@ -0,0 +1,91 @@
+package ru.practicum.repository;
+
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.TimeRange;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+final class StatisticSql {
+
+    static final RowMapper<ViewStats> VIEW_STATS = (rs, rowNum) ->
+            new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"));
+
+    //Больше стольких id передаются одним параметром-массивом: IN тратит по параметру на id, а драйвер
+    //PostgreSQL принимает не больше 32767. Фильтр по префиксу uri легко раскрывается в сотни тысяч id
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
+    private StatisticSql() {
+    }
+
+    //В PostgreSQL массив вписывается в текст запроса литералом: параметр-массив после нескольких выполнений
+    //попадает в общий план, где длина массива неизвестна, и индекс перебирается по каждому id
+    static String uriFilter(MapSqlParameterSource params, Set<Integer> uriIds, boolean postgres) {
+        if (uriIds.size() <= MAX_IN_LIST_SIZE) {
+            params.addValue("uriIds", uriIds);
+            return "uri_id IN (:uriIds)";
+        }
+        if (postgres) {
+            StringBuilder literal = new StringBuilder("uri_id = ANY('{");
+            uriIds.stream().sorted().forEach(id -> literal.append(id).append(','));
+            literal.setLength(literal.length() - 1);
+            return literal.append("}'::int[])").toString();
+        }
+        params.addValue("uriIds", uriIds.toArray(new Integer[0]));
+        return "uri_id = ANY(:uriIds)";
+    }
+
+    //(column >= :from0 AND column < :to0) OR (column >= :from1 AND column < :to1) ...
+    static StringBuilder appendRanges(StringBuilder sql, MapSqlParameterSource params,
+                                      String column, List<TimeRange> ranges) {
+        return appendRanges(sql, params, column, ranges, "");
+    }
+
+    //Префикс нужен, когда в одном запросе несколько наборов диапазонов
+    static StringBuilder appendRanges(StringBuilder sql, MapSqlParameterSource params,
+                                      String column, List<TimeRange> ranges, String prefix) {
+        sql.append('(');
+        for (int i = 0; i < ranges.size(); i++) {
+            if (i > 0) {
+                sql.append(" OR ");
+            }
+            sql.append('(').append(column).append(" >= :").append(prefix).append("from").append(i)
+                    .append(" AND ").append(column).append(" < :").append(prefix).append("to").append(i).append(')');
+            params.addValue(prefix + "from" + i, Timestamp.valueOf(ranges.get(i).getFrom()));
+            params.addValue(prefix + "to" + i, Timestamp.valueOf(ranges.get(i).getTo()));
+        }
+        return sql.append(')');
+    }
+
+    //Группировка идёт по целочисленным id, имена подставляются уже к агрегированному результату
+    static String withNames(CharSequence aggregate) {
+        return "SELECT a.name AS app, u.name AS uri, x.hits " +
+                "FROM (" + aggregate + ") AS x " +
+                "JOIN apps AS a ON a.id = x.app_id " +
+                "JOIN uris AS u ON u.id = x.uri_id";
+    }
+
+    //Первые n строк агрегата по убыванию просмотров, при необходимости только uri с заданным префиксом
+    static String top(CharSequence aggregate, MapSqlParameterSource params, String prefix, int n) {
+        StringBuilder sql = new StringBuilder(withNames(aggregate));
+        if (prefix != null) {
+            sql.append(" WHERE u.name LIKE :prefix ESCAPE '\\'");
+            params.addValue("prefix", prefix.replace("\\", "\\\\")
+                    .replace("%", "\\%")
+                    .replace("_", "\\_") + "%");
+        }
+        params.addValue("limit", n);
+        return sql.append(" ORDER BY x.hits DESC, u.name LIMIT :limit").toString();
+    }
+
+    //Строки отдаются по мере чтения курсора, без промежуточного списка
+    static RowCallbackHandler streaming(Consumer<ViewStats> consumer) {
+        return rs -> consumer.accept(VIEW_STATS.mapRow(rs, 0));
+    }
+
+}
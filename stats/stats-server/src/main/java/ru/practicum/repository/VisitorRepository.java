@@ -0,0 +1,179 @@
+package ru.practicum.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.stereotype.Repository;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.Hit;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+@Repository
+@RequiredArgsConstructor
+public class VisitorRepository {
+
+    private static final int INSERT_CHUNK_SIZE = 1000;
+
+    private static final String INSERT_VISITOR_STANDARD =
+            "MERGE INTO uri_visitor AS v " +
+                    "USING (VALUES (CAST(? AS INT), CAST(? AS INT), CAST(? AS VARBINARY(16)), CAST(? AS TIMESTAMP))) " +
+                    "AS n (app_id, uri_id, ip, first_seen) " +
+                    "ON v.app_id = n.app_id AND v.uri_id = n.uri_id AND v.ip = n.ip " +
+                    "WHEN NOT MATCHED THEN INSERT (app_id, uri_id, ip, first_seen) " +
+                    "VALUES (n.app_id, n.uri_id, n.ip, n.first_seen)";
+
+    private static final String INCREMENT_POSTGRES =
+            "INSERT INTO uri_unique_count (app_id, uri_id, visitors) VALUES (?, ?, ?) " +
+                    "ON CONFLICT (app_id, uri_id) DO UPDATE SET visitors = uri_unique_count.visitors + EXCLUDED.visitors";
+
+    private static final String INCREMENT_STANDARD =
+            "MERGE INTO uri_unique_count AS c " +
+                    "USING (VALUES (CAST(? AS INT), CAST(? AS INT), CAST(? AS BIGINT))) AS n (app_id, uri_id, visitors) " +
+                    "ON c.app_id = n.app_id AND c.uri_id = n.uri_id " +
+                    "WHEN MATCHED THEN UPDATE SET visitors = c.visitors + n.visitors " +
+                    "WHEN NOT MATCHED THEN INSERT (app_id, uri_id, visitors) VALUES (n.app_id, n.uri_id, n.visitors)";
+
+    private static final String BACKFILL_VISITORS =
+            "INSERT INTO uri_visitor (app_id, uri_id, ip, first_seen) " +
+                    "SELECT app_id, uri_id, ip, MIN(view_date) FROM statistic GROUP BY app_id, uri_id, ip";
+
+    private static final String BACKFILL_COUNTS =
+            "INSERT INTO uri_unique_count (app_id, uri_id, visitors) " +
+                    "SELECT app_id, uri_id, COUNT(*) FROM uri_visitor GROUP BY app_id, uri_id";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    private final NamedParameterJdbcTemplate namedJdbcTemplate;
+
+    private final DatabasePlatform databasePlatform;
+
+    //Возвращает только впервые увиденные пары (uri, ip); повторные посетители отбрасываются
+    public List<Hit> insertNewVisitors(List<Hit> visitors) {
+        List<Hit> inserted = new ArrayList<>();
+        if (databasePlatform.isPostgres()) {
+            for (int from = 0; from < visitors.size(); from += INSERT_CHUNK_SIZE) {
+                inserted.addAll(insertChunkReturning(visitors.subList(from,
+                        Math.min(from + INSERT_CHUNK_SIZE, visitors.size()))));
+            }
+        } else {
+            for (Hit visitor : visitors) {
+                int count = jdbcTemplate.update(INSERT_VISITOR_STANDARD, visitor.getAppId(), visitor.getUriId(),
+                        visitor.getAddress(), Timestamp.valueOf(visitor.getTimestamp()));
+                if (count > 0) {
+                    inserted.add(visitor);
+                }
+            }
+        }
+        return inserted;
+    }
+
+    private List<Hit> insertChunkReturning(List<Hit> chunk) {
+        StringBuilder sql = new StringBuilder("INSERT INTO uri_visitor (app_id, uri_id, ip, first_seen) VALUES ");
+        List<Object> args = new ArrayList<>(chunk.size() * 4);
+        for (int i = 0; i < chunk.size(); i++) {
+            Hit visitor = chunk.get(i);
+            sql.append(i == 0 ? "(?, ?, ?, ?)" : ", (?, ?, ?, ?)");
+            args.add(visitor.getAppId());
+            args.add(visitor.getUriId());
+            args.add(visitor.getAddress());
+            args.add(Timestamp.valueOf(visitor.getTimestamp()));
+        }
+        sql.append(" ON CONFLICT (app_id, uri_id, ip) DO NOTHING RETURNING app_id, uri_id, ip, first_seen");
+        return jdbcTemplate.query(sql.toString(), (rs, rowNum) -> {
+            Hit visitor = new Hit();
+            visitor.setAppId(rs.getInt("app_id"));
+            visitor.setUriId(rs.getInt("uri_id"));
+            visitor.setAddress(rs.getBytes("ip"));
+            visitor.setTimestamp(rs.getTimestamp("first_seen").toLocalDateTime());
+            return visitor;
+        }, args.toArray());
+    }
+
+    //Ключи должны быть отсортированы, чтобы параллельные транзакции блокировали строки в одном порядке
+    public void increment(List<Map.Entry<List<Integer>, Long>> increments) {
+        if (databasePlatform.isPostgres()) {
+            jdbcTemplate.batchUpdate(INCREMENT_POSTGRES, increments, increments.size(), (ps, increment) -> {
+                ps.setInt(1, increment.getKey().get(0));
+                ps.setInt(2, increment.getKey().get(1));
+                ps.setLong(3, increment.getValue());
+            });
+            return;
+        }
+        for (Map.Entry<List<Integer>, Long> increment : increments) {
+            Object[] args = {increment.getKey().get(0), increment.getKey().get(1), increment.getValue()};
+            try {
+                jdbcTemplate.update(INCREMENT_STANDARD, args);
+            } catch (DuplicateKeyException e) {
+                //MERGE в H2 не атомарен: строку uri только что вставила параллельная транзакция
+                jdbcTemplate.update(INCREMENT_STANDARD, args);
+            }
+        }
+    }
+
+    public boolean isEmpty() {
+        return jdbcTemplate.queryForList("SELECT 1 FROM uri_visitor LIMIT 1").isEmpty();
+    }
+
+    //Счётчики могли остаться от хранения посетителей в памяти, поэтому строятся заново
+    public void backfill() {
+        jdbcTemplate.update(BACKFILL_VISITORS);
+        jdbcTemplate.update("DELETE FROM uri_unique_count");
+        jdbcTemplate.update(BACKFILL_COUNTS);
+    }
+
+    public void deleteVisitors() {
+        jdbcTemplate.update("DELETE FROM uri_visitor");
+    }
+
+    //Строки: app_id, uri_id, visitors
+    public void replaceCounts(List<int[]> counts) {
+        jdbcTemplate.update("DELETE FROM uri_unique_count");
+        jdbcTemplate.batchUpdate("INSERT INTO uri_unique_count (app_id, uri_id, visitors) VALUES (?, ?, ?)",
+                counts, INSERT_CHUNK_SIZE, (ps, count) -> {
+                    ps.setInt(1, count[0]);
+                    ps.setInt(2, count[1]);
+                    ps.setLong(3, count[2]);
+                });
+    }
+
+    public LocalDateTime findEarliestFirstSeen() {
+        Timestamp earliest = jdbcTemplate.queryForObject("SELECT MIN(first_seen) FROM uri_visitor", Timestamp.class);
+        return earliest == null ? null : earliest.toLocalDateTime();
+    }
+
+    public List<ViewStats> findUniqueViews(Set<Integer> uriIds) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return namedJdbcTemplate.query(StatisticSql.withNames(uniqueViewsAggregate(uriIds, params)) +
+                " ORDER BY x.hits DESC", params, StatisticSql.VIEW_STATS);
+    }
+
+    public void streamUniqueViews(Set<Integer> uriIds, Consumer<ViewStats> consumer) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        namedJdbcTemplate.query(StatisticSql.withNames(uniqueViewsAggregate(uriIds, params)) +
+                " ORDER BY x.hits DESC", params, StatisticSql.streaming(consumer));
+    }
+
+    public List<ViewStats> findTopUniqueViews(String prefix, int n) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return namedJdbcTemplate.query(StatisticSql.top(uniqueViewsAggregate(Set.of(), params), params, prefix, n),
+                params, StatisticSql.VIEW_STATS);
+    }
+
+    private StringBuilder uniqueViewsAggregate(Set<Integer> uriIds, MapSqlParameterSource params) {
+        StringBuilder sql = new StringBuilder("SELECT app_id, uri_id, visitors AS hits FROM uri_unique_count");
+        if (!uriIds.isEmpty()) {
+            sql.append(" WHERE ").append(StatisticSql.uriFilter(params, uriIds, databasePlatform.isPostgres()));
+        }
+        return sql;
+    }
+
+}
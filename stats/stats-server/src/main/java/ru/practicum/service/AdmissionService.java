@@ -0,0 +1,86 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import ru.practicum.exceptions.Overloaded;
+import ru.practicum.model.Workload;
+
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+//Бюджеты приёма и чтения. Потоки: одновременных запросов каждого вида не больше своего лимита, лишние
+//сразу получают 503, и всплеск /hit не занимает все потоки Tomcat. Соединения: синхронная запись просмотров
+//держит не больше ingest.max-connections соединений пула, остаток пула остаётся чтению и фоновым задачам
+@Service
+public class AdmissionService {
+
+    private final Map<Workload, Semaphore> requests;
+
+    private final Semaphore writes;
+
+    private final long writeWaitMillis;
+
+    @Getter
+    private final long retryAfterSeconds;
+
+    private final MeterRegistry meterRegistry;
+
+    public AdmissionService(MeterRegistry meterRegistry,
+                            @Value("${stats.admission.ingest.max-requests:64}") int maxIngestRequests,
+                            @Value("${stats.admission.query.max-requests:128}") int maxQueryRequests,
+                            @Value("${stats.admission.ingest.max-connections:4}") int maxWriteConnections,
+                            @Value("${stats.admission.ingest.wait-ms:500}") long writeWaitMillis,
+                            @Value("${stats.admission.retry-after-seconds:1}") long retryAfterSeconds) {
+        this.meterRegistry = meterRegistry;
+        this.requests = Map.of(Workload.INGEST, new Semaphore(maxIngestRequests),
+                Workload.QUERY, new Semaphore(maxQueryRequests));
+        this.writes = new Semaphore(maxWriteConnections);
+        this.writeWaitMillis = writeWaitMillis;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public boolean tryEnter(Workload workload) {
+        if (requests.get(workload).tryAcquire()) {
+            return true;
+        }
+        shed(workload.name().toLowerCase() + "_requests", 1);
+        return false;
+    }
+
+    public void leave(Workload workload) {
+        requests.get(workload).release();
+    }
+
+    //Запись ждёт соединения из бюджета приёма не дольше ingest.wait-ms
+    public <T> T write(Supplier<T> writer) {
+        boolean acquired;
+        try {
+            acquired = writes.tryAcquire(writeWaitMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            acquired = false;
+        }
+        if (!acquired) {
+            shed("ingest_connections", 1);
+            throw new Overloaded(HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds,
+                    "No database connections left for ingestion.");
+        }
+        try {
+            return writer.get();
+        } finally {
+            writes.release();
+        }
+    }
+
+    //reason: ingest_requests, query_requests, ingest_connections - в запросах; queue_full, queue_dropped_oldest -
+    //в просмотрах
+    public void shed(String reason, int count) {
+        meterRegistry.counter("stats.admission.shed", "reason", reason).increment(count);
+    }
+
+}
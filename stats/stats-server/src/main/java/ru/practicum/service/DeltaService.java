@@ -0,0 +1,176 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dto.ViewDelta;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.Hit;
+import ru.practicum.repository.DeltaRepository;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/*
+ * Итоги просмотров по uri с версией последнего изменения.
+ * Версия берётся из последовательности ingest_version прямо перед фиксацией транзакции записи. Транзакции
+ * с версиями фиксируются в любом порядке, поэтому читателю отдаются изменения только до горизонта: версии
+ * меньше самой старой ещё не завершённой записи. Незавершённые версии известны только этому процессу,
+ * так что горизонт верен, пока в базу пишет один экземпляр - как и для множеств посетителей в памяти.
+ * Горизонт сдвигается в afterCompletion, после afterCommit остальных слушателей: к этому времени
+ * догнан и счётчик уникальных посетителей.
+ * По умолчанию выключено. При stats.delta.enabled=false итоги очищаются и при следующем включении
+ * пересобираются под новой версией.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class DeltaService implements HitIngestListener {
+
+    private static final Comparator<List<Integer>> KEY_ORDER = Comparator
+            .<List<Integer>>comparingInt(key -> key.get(0))
+            .thenComparingInt(key -> key.get(1));
+
+    private final DeltaRepository deltaRepository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    //Выданные версии ещё не завершённых транзакций
+    private final NavigableSet<Long> inFlight = new TreeSet<>();
+
+    //Под блокировкой this вместе с inFlight
+    private long issued;
+
+    public DeltaService(DeltaRepository deltaRepository,
+                        PlatformTransactionManager transactionManager,
+                        @Value("${stats.delta.enabled:false}") boolean enabled) {
+        this.deltaRepository = deltaRepository;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            //Без ведения итоги устаревают, а по непустой таблице следующий запуск их бы не пересобрал
+            if (!deltaRepository.isEmpty()) {
+                transactionTemplate.executeWithoutResult(status -> deltaRepository.deleteAll());
+            }
+            return;
+        }
+        if (deltaRepository.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> deltaRepository.backfill());
+            log.info("Uri totals were empty and have been rebuilt from raw hits");
+        }
+        //Клиенты прежней версии сервера держат отметки счётчика ingest_watermark, последовательность продолжает их
+        long max = deltaRepository.findMaxVersion();
+        long version = deltaRepository.nextVersion();
+        if (version <= max) {
+            deltaRepository.restartVersionsAfter(max);
+            version = deltaRepository.nextVersion();
+        }
+        //Все версии до выданной сейчас принадлежат прежнему запуску и уже завершены
+        synchronized (this) {
+            issued = version;
+        }
+    }
+
+    @Override
+    public void onHits(List<Hit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<List<Integer>, Long> increments = new TreeMap<>(KEY_ORDER);
+        for (Hit hit : hits) {
+            increments.merge(List.of(hit.getAppId(), hit.getUriId()), 1L, Long::sum);
+        }
+        if (increments.isEmpty()) {
+            return;
+        }
+        //Версия берётся как можно позже, чтобы горизонт отставал от фиксации минимально
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                private Long version;
+
+                @Override
+                public void beforeCommit(boolean readOnly) {
+                    version = begin();
+                    deltaRepository.increment(new ArrayList<>(increments.entrySet()), version);
+                }
+
+                @Override
+                public void afterCompletion(int status) {
+                    if (version != null) {
+                        finish(version);
+                    }
+                }
+            });
+        } else {
+            long version = begin();
+            try {
+                deltaRepository.increment(new ArrayList<>(increments.entrySet()), version);
+            } finally {
+                finish(version);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //Изменения после since по возрастанию версии. Версия не делится между страницами,
+    //поэтому страница может оказаться больше limit, если одна версия затронула больше uri
+    public ViewDelta getDelta(long since, int limit, boolean unique) {
+        long until = horizon();
+        List<ViewStats> changes = new ArrayList<>();
+        List<Long> versions = new ArrayList<>();
+        deltaRepository.forEachChange(since, until, limit + 1, unique, rs -> {
+            versions.add(rs.getLong("version"));
+            changes.add(new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits")));
+        });
+        if (changes.size() <= limit) {
+            return new ViewDelta(Math.max(since, until), changes);
+        }
+        long last = versions.get(limit);
+        int end = versions.indexOf(last);
+        if (end > 0) {
+            return new ViewDelta(last - 1, new ArrayList<>(changes.subList(0, end)));
+        }
+        List<ViewStats> version = new ArrayList<>();
+        deltaRepository.forEachChange(last - 1, last, Integer.MAX_VALUE, unique, rs ->
+                version.add(new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"))));
+        return new ViewDelta(last, version);
+    }
+
+    //Версия попадает в inFlight под той же блокировкой, под которой считается горизонт,
+    //поэтому выданная, но не отмеченная версия не может оказаться ниже горизонта
+    private synchronized long begin() {
+        long version = deltaRepository.nextVersion();
+        inFlight.add(version);
+        issued = Math.max(issued, version);
+        return version;
+    }
+
+    private synchronized void finish(long version) {
+        inFlight.remove(version);
+    }
+
+    private synchronized long horizon() {
+        return inFlight.isEmpty() ? issued : inFlight.first() - 1;
+    }
+
+}
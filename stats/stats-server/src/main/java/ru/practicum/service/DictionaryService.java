@@ -0,0 +1,132 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.repository.DictionaryRepository;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//Словари приложений и uri: в таблице просмотров хранятся только целочисленные id
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class DictionaryService {
+
+    private final DictionaryRepository dictionaryRepository;
+
+    private final TransactionTemplate newTransaction;
+
+    private final Map<DictionaryType, Map<String, Integer>> ids = new EnumMap<>(DictionaryType.class);
+
+    private final Map<DictionaryType, Map<Integer, String>> names = new EnumMap<>(DictionaryType.class);
+
+    public DictionaryService(DictionaryRepository dictionaryRepository,
+                             PlatformTransactionManager transactionManager) {
+        this.dictionaryRepository = dictionaryRepository;
+        this.newTransaction = new TransactionTemplate(transactionManager);
+        this.newTransaction.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        for (DictionaryType type : DictionaryType.values()) {
+            ids.put(type, new ConcurrentHashMap<>());
+            names.put(type, new ConcurrentHashMap<>());
+        }
+    }
+
+    @PostConstruct
+    public void warmUp() {
+        for (DictionaryType type : DictionaryType.values()) {
+            dictionaryRepository.createPrefixIndex(type);
+            Map<String, Integer> loaded = new ConcurrentHashMap<>();
+            dictionaryRepository.findAll(type, loaded);
+            loaded.forEach((name, id) -> cache(type, name, id));
+            log.info("Loaded {} entries of dictionary {}", loaded.size(), type);
+        }
+    }
+
+    //Новое значение фиксируется в отдельной транзакции, чтобы откат записи просмотров не оставил в кэше
+    //id, которого нет в базе
+    public int idOf(DictionaryType type, String name) {
+        Integer id = ids.get(type).get(name);
+        if (id != null) {
+            return id;
+        }
+        try {
+            id = insertIfAbsent(type, name);
+        } catch (DuplicateKeyException e) {
+            //MERGE в H2 не атомарен: то же имя только что вставила параллельная транзакция
+            id = insertIfAbsent(type, name);
+        }
+        cache(type, name, id);
+        return id;
+    }
+
+    private int insertIfAbsent(DictionaryType type, String name) {
+        return newTransaction.execute(status -> {
+            dictionaryRepository.insertIfAbsent(type, name);
+            return dictionaryRepository.findId(type, name).get(0);
+        });
+    }
+
+    //Только поиск: неизвестные значения пропускаются
+    public Set<Integer> findIds(DictionaryType type, Collection<String> values) {
+        Set<Integer> result = new HashSet<>();
+        List<String> missing = new ArrayList<>();
+        for (String value : values) {
+            Integer id = ids.get(type).get(value);
+            if (id != null) {
+                result.add(id);
+            } else {
+                missing.add(value);
+            }
+        }
+        if (!missing.isEmpty()) {
+            dictionaryRepository.findIds(type, missing, (name, id) -> {
+                cache(type, name, id);
+                result.add(id);
+            });
+        }
+        return result;
+    }
+
+    //Все значения, начинающиеся с prefix, в том числе добавленные другими экземплярами сервера
+    public Set<Integer> findIdsByPrefix(DictionaryType type, String prefix) {
+        Set<Integer> result = new HashSet<>();
+        dictionaryRepository.findIdsByPrefix(type, prefix, (name, id) -> {
+            cache(type, name, id);
+            result.add(id);
+        });
+        return result;
+    }
+
+    public String nameOf(DictionaryType type, int id) {
+        String name = names.get(type).get(id);
+        if (name != null) {
+            return name;
+        }
+        List<String> found = dictionaryRepository.findName(type, id);
+        if (found.isEmpty()) {
+            throw new IllegalStateException("Unknown " + type + " id: " + id);
+        }
+        cache(type, found.get(0), id);
+        return found.get(0);
+    }
+
+    private void cache(DictionaryType type, String name, int id) {
+        ids.get(type).put(name, id);
+        names.get(type).put(id, name);
+    }
+
+}
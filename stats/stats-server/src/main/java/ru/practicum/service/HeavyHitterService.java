@@ -0,0 +1,295 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.Hit;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.sketch.SpaceSaving;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/*
+ * Самые просматриваемые uri: суточные и месячные сводки Space-Saving в памяти, при старте восстанавливаются
+ * из суточных агрегатов. Месячная сводка получает те же просмотры, что и суточные, поэтому длинный диапазон
+ * сливается из месяцев, а не из сотен суток. Сводки есть только в окне от начала срока хранения
+ * (или stats.top.days назад) до stats.top.future-days вперёд, остальное досчитывается по агрегатам.
+ * Сутки, просмотры которых приходили раньше, чем они попали в окно, сводкой не покрыты и всегда считаются точно.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class HeavyHitterService implements HitIngestListener {
+
+    private final RollupService rollupService;
+
+    private final RollupRepository rollupRepository;
+
+    private final DictionaryService dictionaryService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    private final int capacity;
+
+    private final int maxDays;
+
+    private final int futureDays;
+
+    private final int retentionMonths;
+
+    private final ConcurrentNavigableMap<LocalDateTime, SpaceSaving> days = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentNavigableMap<LocalDateTime, SpaceSaving> months = new ConcurrentSkipListMap<>();
+
+    private final ConcurrentSkipListSet<LocalDateTime> untracked = new ConcurrentSkipListSet<>();
+
+    public HeavyHitterService(RollupService rollupService,
+                              RollupRepository rollupRepository,
+                              DictionaryService dictionaryService,
+                              PlatformTransactionManager transactionManager,
+                              @Value("${stats.top.enabled:true}") boolean enabled,
+                              @Value("${stats.top.capacity:1000}") int capacity,
+                              @Value("${stats.top.days:400}") int maxDays,
+                              @Value("${stats.top.future-days:1}") int futureDays,
+                              @Value("${stats.retention.months:0}") int retentionMonths) {
+        this.rollupService = rollupService;
+        this.rollupRepository = rollupRepository;
+        this.dictionaryService = dictionaryService;
+        //Без readOnly, чтобы сводки восстанавливались по основной базе: у отстающей реплики нет последних агрегатов
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        //Края диапазона и восстановление после рестарта берутся из агрегатов
+        this.enabled = enabled && rollupService.isEnabled();
+        this.capacity = capacity;
+        this.maxDays = maxDays;
+        this.futureDays = futureDays;
+        this.retentionMonths = retentionMonths;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime windowStart = windowStart();
+        LocalDateTime horizon = horizon();
+        transactionTemplate.executeWithoutResult(status -> rollupRepository.forEachBucket(RollupResolution.DAY, rs -> {
+            LocalDateTime day = rs.getTimestamp("bucket_start").toLocalDateTime();
+            if (day.isBefore(windowStart)) {
+                return;
+            }
+            if (!day.isBefore(horizon)) {
+                untracked.add(day);
+                return;
+            }
+            long key = key(rs.getInt("app_id"), rs.getInt("uri_id"));
+            long hits = rs.getLong("hits");
+            summaryOf(days, day).add(key, hits);
+            if (!monthOf(day).isBefore(windowStart)) {
+                summaryOf(months, monthOf(day)).add(key, hits);
+            }
+        }));
+        log.info("Heavy hitter summaries have been rebuilt for {} days", days.size());
+    }
+
+    //Окно сдвигается: сводки, вышедшие за срок хранения или stats.top.days, освобождаются
+    @Scheduled(fixedDelayString = "${stats.top.prune-interval-ms:3600000}")
+    public void prune() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime windowStart = windowStart();
+        days.headMap(windowStart).clear();
+        months.headMap(windowStart).clear();
+        untracked.headSet(windowStart).clear();
+    }
+
+    @Override
+    public void onHits(List<Hit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<LocalDateTime, Map<Long, Long>> increments = new HashMap<>();
+        for (Hit hit : hits) {
+            increments.computeIfAbsent(RollupResolution.DAY.floor(hit.getTimestamp()), day -> new HashMap<>())
+                    .merge(key(hit.getAppId(), hit.getUriId()), 1L, Long::sum);
+        }
+        //Сводки в памяти не откатываются, поэтому меняются только после фиксации транзакции
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    apply(increments);
+                }
+            });
+        } else {
+            apply(increments);
+        }
+    }
+
+    //Пусто, если по сводкам нельзя гарантировать состав первых n uri - тогда ответ считается в SQL
+    public Optional<List<ViewStats>> findTop(LocalDateTime start, LocalDateTime end, String prefix, int n) {
+        if (!enabled || n > capacity) {
+            return Optional.empty();
+        }
+        //По сводкам считаются только целые сутки внутри окна, края и всё вне окна - точно по агрегатам
+        LocalDateTime from = max(RollupResolution.DAY.ceil(start), windowStart());
+        LocalDateTime to = min(RollupResolution.DAY.floor(end), horizon());
+        //Для каждого ключа: сумма (count - missingBound) по сводкам и нижняя граница частоты
+        Map<Long, long[]> bounds = new HashMap<>();
+        long[] missing = new long[1];
+        if (from.isBefore(to)) {
+            LocalDateTime cursor = from;
+            while (cursor.isBefore(to)) {
+                LocalDateTime next = cursor.plusDays(1);
+                SpaceSaving summary;
+                if (cursor.getDayOfMonth() == 1 && !cursor.plusMonths(1).isAfter(to)
+                        && untracked.subSet(cursor, cursor.plusMonths(1)).isEmpty()) {
+                    next = cursor.plusMonths(1);
+                    summary = months.get(cursor);
+                } else if (untracked.contains(cursor)) {
+                    addExact(bounds, rollupService.getViews(cursor, next, Set.of()));
+                    summary = null;
+                } else {
+                    summary = days.get(cursor);
+                }
+                if (summary != null) {
+                    addSummary(bounds, missing, summary);
+                }
+                cursor = next;
+            }
+            addExact(bounds, rollupService.getViews(start, from, Set.of()));
+            addExact(bounds, rollupService.getViews(to, end, Set.of()));
+        } else {
+            addExact(bounds, rollupService.getViews(start, end, Set.of()));
+        }
+
+        List<long[]> candidates = new ArrayList<>();
+        for (Map.Entry<Long, long[]> entry : bounds.entrySet()) {
+            long key = entry.getKey();
+            if (prefix == null || uriName(key).startsWith(prefix)) {
+                long[] bound = entry.getValue();
+                candidates.add(new long[]{key, missing[0] + bound[0], bound[1]});
+            }
+        }
+        candidates.sort(Comparator.comparingLong((long[] candidate) -> candidate[1]).reversed());
+        if (candidates.size() < n && missing[0] > 0) {
+            return Optional.empty();
+        }
+        //Каждый uri из ответа должен гарантированно быть не реже любого uri за его пределами
+        long outside = candidates.size() > n ? candidates.get(n)[1] : missing[0];
+        List<ViewStats> result = new ArrayList<>(Math.min(n, candidates.size()));
+        for (long[] candidate : candidates.subList(0, Math.min(n, candidates.size()))) {
+            if (candidate[2] < outside) {
+                return Optional.empty();
+            }
+            result.add(new ViewStats(dictionaryService.nameOf(DictionaryType.APP, (int) (candidate[0] >>> 32)),
+                    uriName(candidate[0]), candidate[1]));
+        }
+        result.sort(Comparator.comparingLong(ViewStats::getHits).reversed().thenComparing(ViewStats::getUri));
+        return Optional.of(result);
+    }
+
+    private void addSummary(Map<Long, long[]> bounds, long[] missing, SpaceSaving summary) {
+        long missingBound = summary.missingBound();
+        missing[0] += missingBound;
+        summary.forEach((key, count, error) -> {
+            long[] bound = bounds.computeIfAbsent(key, k -> new long[2]);
+            bound[0] += count - missingBound;
+            bound[1] += count - error;
+        });
+    }
+
+    private void addExact(Map<Long, long[]> bounds, List<ViewStats> views) {
+        for (ViewStats view : views) {
+            long[] bound = bounds.computeIfAbsent(key(dictionaryService.idOf(DictionaryType.APP, view.getApp()),
+                    dictionaryService.idOf(DictionaryType.URI, view.getUri())), k -> new long[2]);
+            bound[0] += view.getHits();
+            bound[1] += view.getHits();
+        }
+    }
+
+    //Просмотры до окна не нужны, а за сутки после горизонта (в том числе с произвольными датами) не заводят
+    //сводку: такие сутки помечаются и дальше считаются только точно, даже когда окно до них дойдёт
+    private void apply(Map<LocalDateTime, Map<Long, Long>> increments) {
+        LocalDateTime windowStart = windowStart();
+        LocalDateTime horizon = horizon();
+        increments.forEach((day, counts) -> {
+            if (day.isBefore(windowStart)) {
+                return;
+            }
+            if (!day.isBefore(horizon) || untracked.contains(day)) {
+                untracked.add(day);
+                days.remove(day);
+                return;
+            }
+            SpaceSaving daySummary = summaryOf(days, day);
+            counts.forEach(daySummary::add);
+            //Месяц, начатый до окна, уже неполон и по сводке не считается
+            if (!monthOf(day).isBefore(windowStart)) {
+                SpaceSaving monthSummary = summaryOf(months, monthOf(day));
+                counts.forEach(monthSummary::add);
+            }
+        });
+    }
+
+    private SpaceSaving summaryOf(Map<LocalDateTime, SpaceSaving> summaries, LocalDateTime start) {
+        return summaries.computeIfAbsent(start, d -> new SpaceSaving(capacity));
+    }
+
+    private LocalDateTime windowStart() {
+        LocalDateTime today = RollupResolution.DAY.floor(LocalDateTime.now());
+        LocalDateTime start = today.minusDays(maxDays);
+        if (retentionMonths > 0) {
+            start = max(start, YearMonth.now().minusMonths(retentionMonths).atDay(1).atStartOfDay());
+        }
+        return start;
+    }
+
+    private LocalDateTime horizon() {
+        return RollupResolution.DAY.floor(LocalDateTime.now()).plusDays(futureDays + 1);
+    }
+
+    private static LocalDateTime monthOf(LocalDateTime day) {
+        return day.withDayOfMonth(1);
+    }
+
+    private static LocalDateTime max(LocalDateTime a, LocalDateTime b) {
+        return a.isAfter(b) ? a : b;
+    }
+
+    private static LocalDateTime min(LocalDateTime a, LocalDateTime b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+    private String uriName(long key) {
+        return dictionaryService.nameOf(DictionaryType.URI, (int) key);
+    }
+
+    private static long key(int appId, int uriId) {
+        return ((long) appId << 32) | (uriId & 0xFFFFFFFFL);
+    }
+
+}
@@ -0,0 +1,148 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.model.Hit;
+import ru.practicum.repository.HitKeyRepository;
+import ru.practicum.sketch.Hashing;
+import ru.practicum.storage.LongHashSet;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+//Отбрасывает повторно присланные просмотры по id клиента в пределах окна. Источник истины - уникальный
+//ключ hit_key: он ловит повторы между параллельными запросами и после перезапуска. В памяти лежат 64-битные
+//хэши id, разложенные по поколениям времени приёма, чтобы типичный повтор отсекался без обращения к БД.
+//Ложное совпадение 64-битных хэшей при миллионах id в окне практически невозможно
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class HitDeduplicationService {
+
+    private static final int GENERATIONS = 10;
+
+    private final HitKeyRepository hitKeyRepository;
+
+    private final boolean enabled;
+
+    private final long windowMinutes;
+
+    private final long generationMinutes;
+
+    //Номер поколения (минута эпохи / generationMinutes) -> хэши id, принятых в нём
+    private final ConcurrentNavigableMap<Long, LongHashSet> generations = new ConcurrentSkipListMap<>();
+
+    public HitDeduplicationService(HitKeyRepository hitKeyRepository,
+                                   @Value("${stats.dedup.enabled:true}") boolean enabled,
+                                   @Value("${stats.dedup.window-minutes:60}") long windowMinutes) {
+        this.hitKeyRepository = hitKeyRepository;
+        this.enabled = enabled && windowMinutes > 0;
+        this.windowMinutes = windowMinutes;
+        this.generationMinutes = Math.max(1, (windowMinutes + GENERATIONS - 1) / GENERATIONS);
+    }
+
+    //Просмотры без id проходят как есть. Вызывается в транзакции записи: при откате id не запоминаются
+    public List<Hit> filterNew(List<Hit> hits) {
+        if (!enabled) {
+            return hits;
+        }
+        Set<String> candidates = new HashSet<>();
+        for (Hit hit : hits) {
+            String hitId = hit.getHitId();
+            if (hitId != null && !isKnown(Hashing.hash64(hitId))) {
+                candidates.add(hitId);
+            }
+        }
+        Set<String> inserted = new HashSet<>();
+        if (!candidates.isEmpty()) {
+            inserted.addAll(hitKeyRepository.insertNewKeys(sorted(candidates), LocalDateTime.now()));
+        }
+        List<Hit> fresh = new ArrayList<>(hits.size());
+        for (Hit hit : hits) {
+            //remove: второй просмотр с тем же id в одном пакете тоже повтор
+            if (hit.getHitId() == null || inserted.remove(hit.getHitId())) {
+                fresh.add(hit);
+            }
+        }
+        if (fresh.size() < hits.size()) {
+            log.debug("Dropped {} duplicate hits", hits.size() - fresh.size());
+        }
+        remember(fresh);
+        return fresh;
+    }
+
+    //Поколения старше окна уходят из памяти, строки hit_key - из базы. Повтор позже окна будет засчитан
+    @Scheduled(fixedDelay = 60000)
+    public void expire() {
+        if (!enabled) {
+            return;
+        }
+        generations.headMap(currentGeneration() - GENERATIONS).clear();
+        int deleted = hitKeyRepository.deleteReceivedBefore(LocalDateTime.now().minusMinutes(windowMinutes));
+        if (deleted > 0) {
+            log.debug("Expired {} hit ids", deleted);
+        }
+    }
+
+    private boolean isKnown(long hash) {
+        for (LongHashSet generation : generations.values()) {
+            synchronized (generation) {
+                if (generation.contains(hash)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void remember(List<Hit> hits) {
+        long[] hashes = hits.stream()
+                .filter(hit -> hit.getHitId() != null)
+                .mapToLong(hit -> Hashing.hash64(hit.getHitId()))
+                .toArray();
+        if (hashes.length == 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addAll(hashes);
+                }
+            });
+        } else {
+            addAll(hashes);
+        }
+    }
+
+    private void addAll(long[] hashes) {
+        LongHashSet generation = generations.computeIfAbsent(currentGeneration(), key -> new LongHashSet());
+        synchronized (generation) {
+            for (long hash : hashes) {
+                generation.add(hash);
+            }
+        }
+    }
+
+    private long currentGeneration() {
+        return LocalDateTime.now().toEpochSecond(ZoneOffset.UTC) / 60 / generationMinutes;
+    }
+
+    private static List<String> sorted(Set<String> values) {
+        List<String> result = new ArrayList<>(values);
+        result.sort(null);
+        return result;
+    }
+
+}
@@ -0,0 +1,12 @@
+package ru.practicum.service;
+
+import ru.practicum.model.Hit;
+
+import java.util.List;
+
+//Вызывается в той же транзакции, что и запись просмотров, для обновления производных структур
+public interface HitIngestListener {
+
+    void onHits(List<Hit> hits);
+
+}
@@ -0,0 +1,64 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.Hit;
+import ru.practicum.storage.HitStorage;
+
+import java.util.List;
+
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class HitWriter {
+
+    private final HitStorage hitStorage;
+
+    private final DictionaryService dictionaryService;
+
+    private final HitDeduplicationService hitDeduplicationService;
+
+    private final List<HitIngestListener> listeners;
+
+    //Повтор по id клиента не записывается, ответ тот же, что и на первый
+    @Transactional
+    public Hit save(Hit hit) {
+        if (hitDeduplicationService.filterNew(List.of(hit)).isEmpty()) {
+            return hit;
+        }
+        resolveIds(hit);
+        hitStorage.save(hit);
+        notifyListeners(List.of(hit));
+        return hit;
+    }
+
+    //Возвращает записанные просмотры, без повторов по id клиента
+    @Transactional
+    public List<Hit> saveAll(List<Hit> hits) {
+        hits = hitDeduplicationService.filterNew(hits);
+        if (hits.isEmpty()) {
+            return hits;
+        }
+        for (Hit hit : hits) {
+            resolveIds(hit);
+        }
+        hitStorage.saveAll(hits);
+        notifyListeners(hits);
+        return hits;
+    }
+
+    private void resolveIds(Hit hit) {
+        hit.setAppId(dictionaryService.idOf(DictionaryType.APP, hit.getApp()));
+        hit.setUriId(dictionaryService.idOf(DictionaryType.URI, hit.getUri()));
+    }
+
+    private void notifyListeners(List<Hit> hits) {
+        for (HitIngestListener listener : listeners) {
+            listener.onHits(hits);
+        }
+    }
+
+}
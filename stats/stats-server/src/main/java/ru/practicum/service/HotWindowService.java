@@ -0,0 +1,226 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.Hit;
+import ru.practicum.model.TimeRange;
+import ru.practicum.storage.HitChunk;
+import ru.practicum.storage.HitStorage;
+import ru.practicum.storage.IpKey;
+import ru.practicum.storage.ViewAggregation;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+//Просмотры за последние часы в памяти, по часовым столбцовым кускам. Запрос внутри окна считается без БД,
+//запрос через границу окна складывает память с агрегатами БД. Уникальные так не складываются: такой запрос
+//целиком считается в хранилище через COUNT(DISTINCT)
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class HotWindowService implements HitIngestListener {
+
+    private static final long SECONDS_PER_HOUR = 3600;
+
+    private final HitStorage hitStorage;
+
+    private final RollupService rollupService;
+
+    private final DictionaryService dictionaryService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    private final int hours;
+
+    private final long maxHits;
+
+    //Начало часа в секундах эпохи -> просмотры этого часа
+    private final ConcurrentNavigableMap<Long, HitChunk> chunks = new ConcurrentSkipListMap<>();
+
+    //Всё, что не раньше windowStart, есть в памяти. Граница только растёт
+    private volatile long windowStart = Long.MAX_VALUE;
+
+    public HotWindowService(HitStorage hitStorage,
+                            RollupService rollupService,
+                            DictionaryService dictionaryService,
+                            PlatformTransactionManager transactionManager,
+                            @Value("${stats.hot-window.enabled:true}") boolean enabled,
+                            @Value("${stats.hot-window.hours:24}") int hours,
+                            @Value("${stats.hot-window.max-hits:5000000}") long maxHits) {
+        this.hitStorage = hitStorage;
+        this.rollupService = rollupService;
+        this.dictionaryService = dictionaryService;
+        //Не readOnly: состояние в памяти дальше пополняется с каждой записью, строить его нужно по основной базе,
+        //а не по реплике, которая может отставать
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled && hours > 0;
+        this.hours = hours;
+        this.maxHits = maxHits;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        long start = hourOf(epochSecond(LocalDateTime.now())) - (hours - 1) * SECONDS_PER_HOUR;
+        windowStart = start;
+        LocalDateTime latest = hitStorage.findLatestView();
+        if (latest != null && epochSecond(latest) >= start) {
+            TimeRange range = new TimeRange(dateTime(start), latest.plusSeconds(1));
+            transactionTemplate.executeWithoutResult(status -> hitStorage.forEachHit(List.of(range),
+                    (timestamp, appId, uriId, ip) -> add(epochSecond(timestamp), appId, uriId, ip)));
+        }
+        rotate();
+        log.info("Hot window has been loaded with {} hits since {}", size(), dateTime(windowStart));
+    }
+
+    @Override
+    public void onHits(List<Hit> hits) {
+        if (!enabled) {
+            return;
+        }
+        long[] timestamps = new long[hits.size()];
+        int[] appIds = new int[hits.size()];
+        int[] uriIds = new int[hits.size()];
+        long[] ips = new long[hits.size()];
+        for (int i = 0; i < hits.size(); i++) {
+            Hit hit = hits.get(i);
+            timestamps[i] = epochSecond(hit.getTimestamp());
+            appIds[i] = hit.getAppId();
+            uriIds[i] = hit.getUriId();
+            ips[i] = IpKey.of(hit.getAddress());
+        }
+        //Окно не откатывается, поэтому пополняется только после фиксации транзакции
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    addAll(timestamps, appIds, uriIds, ips);
+                }
+            });
+        } else {
+            addAll(timestamps, appIds, uriIds, ips);
+        }
+    }
+
+    //Окно сдвигается вслед за часами, а при переполнении отдаёт самые старые часы
+    @Scheduled(fixedDelay = 60000)
+    public void rotate() {
+        if (!enabled) {
+            return;
+        }
+        long start = Math.max(windowStart,
+                hourOf(epochSecond(LocalDateTime.now())) - (hours - 1) * SECONDS_PER_HOUR);
+        long total = 0;
+        for (HitChunk chunk : chunks.tailMap(start).values()) {
+            total += chunk.size();
+        }
+        while (total > maxHits) {
+            Map.Entry<Long, HitChunk> oldest = chunks.ceilingEntry(start);
+            if (oldest == null) {
+                break;
+            }
+            total -= oldest.getValue().size();
+            start = oldest.getKey() + SECONDS_PER_HOUR;
+        }
+        windowStart = start;
+        //Час перед границей ещё может читать запрос, начатый до сдвига
+        chunks.headMap(start - SECONDS_PER_HOUR).clear();
+    }
+
+    //Запросы с концом после начала окна идут сюда: часть внутри окна считается в памяти.
+    //Уникальные - только если целиком в окне
+    public boolean overlaps(LocalDateTime start, LocalDateTime end, boolean unique) {
+        long edge = windowStart;
+        return enabled && epochSecond(end) > edge && (!unique || epochSecond(start) >= edge);
+    }
+
+    public List<ViewStats> getViews(LocalDateTime start, LocalDateTime end, Set<Integer> uriIds, boolean unique) {
+        long edge = windowStart;
+        if (unique && epochSecond(start) < edge) {
+            //Окно успело сдвинуться после overlaps. Иначе пришлось бы выгрузить все IP до границы окна
+            return hitStorage.getViews(List.of(new TimeRange(start, end)), uriIds, true);
+        }
+        long from = Math.max(epochSecond(start), edge);
+        long to = epochSecond(end);
+        int[] uris = uriIds.stream().mapToInt(Integer::intValue).sorted().toArray();
+        ViewAggregation aggregation = new ViewAggregation(unique);
+        if (from < to) {
+            for (HitChunk chunk : chunks.subMap(hourOf(from), to).values()) {
+                chunk.scan(from, to, uris, aggregation);
+            }
+        }
+        List<ViewStats> older = List.of();
+        long split = Math.min(edge, to);
+        if (epochSecond(start) < split) {
+            TimeRange range = new TimeRange(start, dateTime(split));
+            older = rollupService.isEnabled()
+                    ? rollupService.getViews(range.getFrom(), range.getTo(), uriIds)
+                    : hitStorage.getViews(List.of(range), uriIds, false);
+        }
+        Map<List<String>, ViewStats> views = new HashMap<>();
+        aggregation.forEach((bucket, appId, uriId, hits) -> {
+            ViewStats view = new ViewStats(dictionaryService.nameOf(DictionaryType.APP, appId),
+                    dictionaryService.nameOf(DictionaryType.URI, uriId), hits);
+            views.put(List.of(view.getApp(), view.getUri()), view);
+        });
+        for (ViewStats view : older) {
+            views.merge(List.of(view.getApp(), view.getUri()), view, (a, b) ->
+                    new ViewStats(a.getApp(), a.getUri(), a.getHits() + b.getHits()));
+        }
+        List<ViewStats> result = new ArrayList<>(views.values());
+        result.sort((a, b) -> Long.compare(b.getHits(), a.getHits()));
+        return result;
+    }
+
+    private void addAll(long[] timestamps, int[] appIds, int[] uriIds, long[] ips) {
+        for (int i = 0; i < timestamps.length; i++) {
+            add(timestamps[i], appIds[i], uriIds[i], ips[i]);
+        }
+    }
+
+    //Просмотры раньше окна в памяти не нужны: запрос к ним всё равно уходит в БД
+    private void add(long timestamp, int appId, int uriId, long ip) {
+        if (timestamp < windowStart) {
+            return;
+        }
+        chunks.computeIfAbsent(hourOf(timestamp), hour -> new HitChunk()).add(timestamp, appId, uriId, ip);
+    }
+
+    private long size() {
+        return chunks.values().stream().mapToLong(HitChunk::size).sum();
+    }
+
+    private static long hourOf(long epochSecond) {
+        return Math.floorDiv(epochSecond, SECONDS_PER_HOUR) * SECONDS_PER_HOUR;
+    }
+
+    private static long epochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static LocalDateTime dateTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+}
@@ -0,0 +1,160 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.model.RetentionAction;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.repository.DatabasePlatform;
+import ru.practicum.repository.PartitionRepository;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.repository.SketchRepository;
+
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//Помесячные секции statistic на Postgres и удаление старых просмотров, агрегатов и скетчей по сроку хранения.
+//Секцию, которую не удалось создать, не пропускаем молча: иначе её просмотры навсегда остаются в секции
+//по умолчанию, а обслуживание падает каждую ночь
+@Service
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class PartitionMaintenanceService {
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("^statistic_y(\\d{4})m(\\d{2})$");
+
+    private final PartitionRepository partitionRepository;
+
+    private final RollupRepository rollupRepository;
+
+    private final SketchRepository sketchRepository;
+
+    private final DatabasePlatform databasePlatform;
+
+    private final PlatformTransactionManager transactionManager;
+
+    @Value("${stats.partition.months-ahead:3}")
+    private int monthsAhead;
+
+    @Value("${stats.retention.months:0}")
+    private int retentionMonths;
+
+    @Value("${stats.retention.action:DETACH}")
+    private RetentionAction retentionAction;
+
+    @Value("${stats.retention.delete-chunk-size:10000}")
+    private int deleteChunkSize;
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${stats.partition.cron:0 0 3 * * *}")
+    public void maintain() {
+        boolean partitioned = databasePlatform.isPostgres() && partitionRepository.isPartitioned();
+        List<YearMonth> failed = partitioned ? createPartitionsAhead() : List.of();
+        if (retentionMonths > 0) {
+            applyRetention(partitioned);
+        }
+        if (!failed.isEmpty()) {
+            throw new IllegalStateException("Could not create statistic partitions for " + failed);
+        }
+    }
+
+    private List<YearMonth> createPartitionsAhead() {
+        List<YearMonth> failed = new ArrayList<>();
+        YearMonth current = YearMonth.now();
+        for (int i = 0; i <= monthsAhead; i++) {
+            YearMonth month = current.plusMonths(i);
+            try {
+                createPartition(month);
+            } catch (DataAccessException e) {
+                log.error("Could not create partition for {}", month, e);
+                failed.add(month);
+            }
+        }
+        return failed;
+    }
+
+    //Просмотры с будущими датами попадают в секцию по умолчанию; при создании их месяца они переносятся
+    private void createPartition(YearMonth month) {
+        String name = partitionName(month);
+        if (partitionRepository.exists(name)) {
+            return;
+        }
+        if (!partitionRepository.hasDefaultRows(month)) {
+            partitionRepository.createMonthPartition(name, month);
+            return;
+        }
+        new TransactionTemplate(transactionManager).executeWithoutResult(status ->
+                partitionRepository.createMonthPartitionFromDefault(name, month));
+        log.info("Partition {} was created from hits in the default partition", name);
+    }
+
+    //Начало хранимого периода: раньше него просмотров нет. null - срок хранения не задан
+    public LocalDateTime findRetentionStart() {
+        return retentionMonths > 0 ? YearMonth.now().minusMonths(retentionMonths).atDay(1).atStartOfDay() : null;
+    }
+
+    private void applyRetention(boolean partitioned) {
+        YearMonth firstKept = YearMonth.now().minusMonths(retentionMonths);
+        if (partitioned) {
+            for (String name : partitionRepository.findPartitions()) {
+                Matcher matcher = PARTITION_NAME.matcher(name);
+                if (!matcher.matches()) {
+                    continue;
+                }
+                YearMonth month = YearMonth.of(Integer.parseInt(matcher.group(1)), Integer.parseInt(matcher.group(2)));
+                if (month.isBefore(firstKept)) {
+                    partitionRepository.detachPartition(name);
+                    if (retentionAction == RetentionAction.DROP) {
+                        partitionRepository.dropTable(name);
+                    }
+                    log.info("Partition {} is out of retention and was {}", name,
+                            retentionAction == RetentionAction.DROP ? "dropped" : "detached");
+                }
+            }
+        }
+        //Без секций (и для строк в секции по умолчанию) удаляем порциями, чтобы не держать долгие блокировки
+        LocalDateTime cutoff = firstKept.atDay(1).atStartOfDay();
+        long deleted = deleteInChunks(() -> partitionRepository.deleteOlderThan(cutoff, deleteChunkSize));
+        if (deleted > 0) {
+            log.info("Deleted {} hits older than {}", deleted, cutoff);
+        }
+        //Агрегаты и скетчи тех же дат, иначе таймсерии и диапазоны по агрегатам показывали бы удалённые просмотры
+        long buckets = 0;
+        for (RollupResolution resolution : RollupResolution.values()) {
+            buckets += deleteInChunks(() -> rollupRepository.deleteOlderThan(resolution, cutoff, deleteChunkSize));
+            buckets += deleteInChunks(() -> sketchRepository.deleteOlderThan(resolution, cutoff, deleteChunkSize));
+        }
+        if (buckets > 0) {
+            log.info("Deleted {} rollup and sketch buckets older than {}", buckets, cutoff);
+        }
+    }
+
+    private static long deleteInChunks(IntSupplier chunkDelete) {
+        long deleted = 0;
+        int chunk;
+        do {
+            chunk = chunkDelete.getAsInt();
+            deleted += chunk;
+        } while (chunk > 0);
+        return deleted;
+    }
+
+    private String partitionName(YearMonth month) {
+        return String.format("statistic_y%04dm%02d", month.getYear(), month.getMonthValue());
+    }
+
+}
@@ -0,0 +1,142 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.Hit;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.storage.HitStorage;
+import ru.practicum.storage.TopViews;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+//Поминутные, почасовые и посуточные агрегаты просмотров по uri
+@Service
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class RollupService implements HitIngestListener {
+
+    private final RollupRepository rollupRepository;
+
+    private final HitStorage hitStorage;
+
+    @Value("${stats.rollup.enabled:true}")
+    private boolean enabled;
+
+    private final PlatformTransactionManager transactionManager;
+
+    @PostConstruct
+    public void backfillIfEmpty() {
+        if (enabled && rollupRepository.isEmpty()) {
+            new TransactionTemplate(transactionManager).executeWithoutResult(status -> rollupRepository.backfill());
+            log.info("Rollup tables were empty and have been rebuilt from raw hits");
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onHits(List<Hit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<RollupKey, Long> increments = new TreeMap<>();
+        for (Hit hit : hits) {
+            for (RollupResolution resolution : RollupResolution.values()) {
+                RollupKey key = new RollupKey(resolution, resolution.floor(hit.getTimestamp()),
+                        hit.getAppId(), hit.getUriId());
+                increments.merge(key, 1L, Long::sum);
+            }
+        }
+        rollupRepository.increment(new ArrayList<>(increments.entrySet()));
+    }
+
+    //Выровненная часть диапазона берётся из самых крупных агрегатов, неровные края - из сырых просмотров
+    public List<ViewStats> getViews(LocalDateTime start, LocalDateTime end, Set<Integer> uriIds) {
+        Map<RollupResolution, List<TimeRange>> rollupRanges = new EnumMap<>(RollupResolution.class);
+        List<TimeRange> rawRanges = new ArrayList<>();
+        plan(start, end, 0, rollupRanges, rawRanges);
+
+        Map<List<String>, ViewStats> views = new LinkedHashMap<>();
+        rollupRanges.forEach((resolution, ranges) ->
+                merge(views, rollupRepository.sumHits(resolution, ranges, uriIds)));
+        if (!rawRanges.isEmpty()) {
+            merge(views, hitStorage.getViews(rawRanges, uriIds, false));
+        }
+        List<ViewStats> result = new ArrayList<>(views.values());
+        result.sort((a, b) -> Long.compare(b.getHits(), a.getHits()));
+        return result;
+    }
+
+    public void streamViews(LocalDateTime start, LocalDateTime end, Set<Integer> uriIds,
+                            Consumer<ViewStats> consumer) {
+        Map<RollupResolution, List<TimeRange>> rollupRanges = new EnumMap<>(RollupResolution.class);
+        List<TimeRange> rawRanges = new ArrayList<>();
+        plan(start, end, 0, rollupRanges, rawRanges);
+        if (rawRanges.isEmpty() || hitStorage.isStoredInDatabase()) {
+            rollupRepository.streamViews(rollupRanges, rawRanges, uriIds, consumer);
+        } else {
+            //Края лежат вне БД, и складывать их с агрегатами приходится в памяти
+            getViews(start, end, uriIds).forEach(consumer);
+        }
+    }
+
+    public List<ViewStats> getTopViews(LocalDateTime start, LocalDateTime end, String prefix, int n) {
+        Map<RollupResolution, List<TimeRange>> rollupRanges = new EnumMap<>(RollupResolution.class);
+        List<TimeRange> rawRanges = new ArrayList<>();
+        plan(start, end, 0, rollupRanges, rawRanges);
+        if (rawRanges.isEmpty() || hitStorage.isStoredInDatabase()) {
+            return rollupRepository.findTopViews(rollupRanges, rawRanges, prefix, n);
+        }
+        return TopViews.select(getViews(start, end, Set.of()), prefix, n);
+    }
+
+    static void plan(LocalDateTime from, LocalDateTime to, int level,
+                     Map<RollupResolution, List<TimeRange>> rollupRanges, List<TimeRange> rawRanges) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (level == RollupResolution.values().length) {
+            rawRanges.add(new TimeRange(from, to));
+            return;
+        }
+        RollupResolution resolution = RollupResolution.values()[level];
+        LocalDateTime alignedFrom = resolution.ceil(from);
+        LocalDateTime alignedTo = resolution.floor(to);
+        if (alignedFrom.isBefore(alignedTo)) {
+            rollupRanges.computeIfAbsent(resolution, r -> new ArrayList<>()).add(new TimeRange(alignedFrom, alignedTo));
+            plan(from, alignedFrom, level + 1, rollupRanges, rawRanges);
+            plan(alignedTo, to, level + 1, rollupRanges, rawRanges);
+        } else {
+            plan(from, to, level + 1, rollupRanges, rawRanges);
+        }
+    }
+
+    private void merge(Map<List<String>, ViewStats> views, List<ViewStats> part) {
+        for (ViewStats view : part) {
+            views.merge(List.of(view.getApp(), view.getUri()), view, (a, b) ->
+                    new ViewStats(a.getApp(), a.getUri(), a.getHits() + b.getHits()));
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package ru.practicum.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.client.RestTemplate;
+import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitStatus;
+import ru.practicum.dto.ViewDelta;
+import ru.practicum.dto.ViewSeries;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.dto.ViewTimeseries;
+import ru.practicum.exception.BadRequest;
+import ru.practicum.exceptions.Overloaded;
+import ru.practicum.model.StatisticQuery;
+import ru.practicum.sharding.ShardClient;
+import ru.practicum.sharding.ShardRing;
+import ru.practicum.storage.TopViews;
+
+import javax.annotation.PreDestroy;
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+/*
+ * Режим координатора (stats.sharding.mode=coordinator): своих данных нет, просмотры уходят шарду,
+ * которому uri принадлежит по ShardRing, запросы статистики рассылаются шардам параллельно и сливаются.
+ * Все просмотры одного uri лежат на одном шарде, поэтому строки шардов не пересекаются и уникальные
+ * посетители не пересчитываются: слияние - это объединение списков. Шарды - обычные stats-server,
+ * писать в них нужно только через координаторы с тем же списком stats.sharding.shards в том же порядке.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "coordinator")
+public class ShardCoordinatorService implements StatisticService {
+
+    private static final String URI_WILDCARD = "*";
+
+    private final List<ShardClient> shards;
+
+    private final ShardRing ring;
+
+    private final ExecutorService fanOut;
+
+    private final int maxBatchSize;
+
+    private final long retryAfterSeconds;
+
+    public ShardCoordinatorService(ObjectMapper objectMapper,
+                                   AdmissionService admissionService,
+                                   @Value("${stats.sharding.shards:}") List<String> shardUrls,
+                                   @Value("${stats.sharding.connect-timeout-ms:1000}") long connectTimeoutMillis,
+                                   @Value("${stats.sharding.read-timeout-ms:30000}") long readTimeoutMillis,
+                                   @Value("${stats.hits.max-batch-size:1000}") int maxBatchSize) {
+        if (shardUrls.isEmpty()) {
+            throw new IllegalStateException("Coordinator mode requires stats.sharding.shards");
+        }
+        RestTemplate restTemplate = new RestTemplateBuilder()
+                .setConnectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .setReadTimeout(Duration.ofMillis(readTimeoutMillis))
+                .build();
+        this.shards = new ArrayList<>(shardUrls.size());
+        for (int i = 0; i < shardUrls.size(); i++) {
+            shards.add(new ShardClient(i, URI.create(shardUrls.get(i).trim()), restTemplate, objectMapper,
+                    admissionService.getRetryAfterSeconds()));
+        }
+        this.ring = new ShardRing(shards.size());
+        //Потоков хватает, чтобы у каждого шарда было несколько запросов в полёте одновременно
+        this.fanOut = Executors.newFixedThreadPool(shards.size() * 4, runnable -> {
+            Thread thread = new Thread(runnable, "shard-fan-out");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.maxBatchSize = maxBatchSize;
+        this.retryAfterSeconds = admissionService.getRetryAfterSeconds();
+        log.info("Coordinating {} shards: {}", shards.size(), shards);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fanOut.shutdownNow();
+    }
+
+    @Override
+    public EndpointHit save(EndpointHit endpointHit) {
+        if (endpointHit == null || isBlank(endpointHit.getUri())) {
+            throw new BadRequest("Fields app, uri, ip and timestamp are required.");
+        }
+        return shardOf(endpointHit.getUri()).saveHit(endpointHit);
+    }
+
+    //Пакет делится по шардам, части отправляются параллельно. Статусы возвращаются на места исходных индексов.
+    //Если шард недоступен, его просмотры получают UNAVAILABLE, остальные сохраняются: клиент повторит только их
+    @Override
+    public List<HitStatus> saveAll(List<EndpointHit> endpointHits) {
+        if (endpointHits.size() > maxBatchSize) {
+            throw new BadRequest("Too many hits in one request. Maximum: " + maxBatchSize);
+        }
+        HitStatus[] statuses = new HitStatus[endpointHits.size()];
+        Map<ShardClient, List<Integer>> indexes = new LinkedHashMap<>();
+        for (int i = 0; i < endpointHits.size(); i++) {
+            EndpointHit endpointHit = endpointHits.get(i);
+            if (endpointHit == null || isBlank(endpointHit.getUri())) {
+                statuses[i] = new HitStatus(i, HitStatus.REJECTED, "Fields app, uri, ip and timestamp are required.");
+            } else {
+                indexes.computeIfAbsent(shardOf(endpointHit.getUri()), shard -> new ArrayList<>()).add(i);
+            }
+        }
+        Map<ShardClient, CompletableFuture<List<HitStatus>>> results = new LinkedHashMap<>();
+        indexes.forEach((shard, shardIndexes) -> {
+            List<EndpointHit> part = new ArrayList<>(shardIndexes.size());
+            shardIndexes.forEach(i -> part.add(endpointHits.get(i)));
+            results.put(shard, CompletableFuture.supplyAsync(() -> shard.saveHits(part), fanOut));
+        });
+        Overloaded failure = null;
+        int failed = 0;
+        for (Map.Entry<ShardClient, CompletableFuture<List<HitStatus>>> entry : results.entrySet()) {
+            List<Integer> shardIndexes = indexes.get(entry.getKey());
+            try {
+                for (HitStatus status : join(entry.getValue())) {
+                    int i = shardIndexes.get(status.getIndex());
+                    statuses[i] = new HitStatus(i, status.getStatus(), status.getMessage());
+                }
+            } catch (Overloaded e) {
+                log.warn("Could not save {} hits: {}", shardIndexes.size(), e.getMessage());
+                failure = e;
+                failed++;
+                for (int i : shardIndexes) {
+                    statuses[i] = new HitStatus(i, HitStatus.UNAVAILABLE, e.getMessage());
+                }
+            }
+        }
+        //Ни один шард не принял пакет - ответ целиком 429/503, как у одиночного сервера
+        if (failure != null && failed == results.size()) {
+            throw failure;
+        }
+        return Arrays.asList(statuses);
+    }
+
+    //Датаграмма, которую не принял хотя бы один шард, считается потерянной целиком
+    @Override
+    public int saveUnacknowledged(List<EndpointHit> endpointHits) {
+        int rejected = 0;
+        for (HitStatus status : saveAll(endpointHits)) {
+            if (HitStatus.UNAVAILABLE.equals(status.getStatus())) {
+                throw new Overloaded(HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds, status.getMessage());
+            }
+            if (HitStatus.REJECTED.equals(status.getStatus())) {
+                rejected++;
+            }
+        }
+        return rejected;
+    }
+
+    @Override
+    public List<ViewStats> getStatistic(StatisticQuery query, Set<String> uris) {
+        List<ViewStats> views = new ArrayList<>();
+        scatter(uris, (shard, shardUris) -> shard.getStatistic(query, shardUris)).forEach(views::addAll);
+        return TopViews.select(views, null, views.size());
+    }
+
+    @Override
+    public void streamStatistic(StatisticQuery query, Set<String> uris, Consumer<ViewStats> consumer) {
+        getStatistic(query, uris).forEach(consumer);
+    }
+
+    //Каждый шард знает полные счётчики своих uri, поэтому первые n из первых n каждого шарда - точный ответ
+    @Override
+    public List<ViewStats> getTopStatistic(StatisticQuery query, String prefix, int n) {
+        if (n < 1) {
+            throw new BadRequest("Parameter n must be positive.");
+        }
+        List<ViewStats> views = new ArrayList<>();
+        scatter(Set.of(), (shard, shardUris) -> shard.getTopStatistic(query, prefix, n)).forEach(views::addAll);
+        return TopViews.select(views, null, n);
+    }
+
+    @Override
+    public ViewTimeseries getTimeseries(StatisticQuery query, Set<String> uris) {
+        List<ViewTimeseries> parts = scatter(uris, (shard, shardUris) -> shard.getTimeseries(query, shardUris));
+        List<ViewSeries> series = new ArrayList<>();
+        parts.forEach(part -> series.addAll(part.getSeries()));
+        //Корзины зависят только от параметров запроса и одинаковы у всех шардов
+        return new ViewTimeseries(parts.get(0).getResolution(), parts.get(0).getBuckets(), series);
+    }
+
+    //Водяной знак у каждого шарда свой, один общий из них не составить
+    @Override
+    public ViewDelta getDelta(long since, int limit, boolean unique) {
+        throw new BadRequest("Change feed is not available on a shard coordinator, read it from each shard.");
+    }
+
+    //Точные uri спрашиваются только у своих шардов. Без фильтра или с префиксом uri могут быть где угодно
+    private <T> List<T> scatter(Set<String> uris, BiFunction<ShardClient, List<String>, T> query) {
+        Map<ShardClient, List<String>> targets = new LinkedHashMap<>();
+        if (uris == null || uris.isEmpty() || uris.stream().anyMatch(uri -> uri.endsWith(URI_WILDCARD))) {
+            List<String> all = uris == null ? List.of() : List.copyOf(uris);
+            shards.forEach(shard -> targets.put(shard, all));
+        } else {
+            uris.forEach(uri -> targets.computeIfAbsent(shardOf(uri), shard -> new ArrayList<>()).add(uri));
+        }
+        List<CompletableFuture<T>> futures = new ArrayList<>(targets.size());
+        targets.forEach((shard, shardUris) ->
+                futures.add(CompletableFuture.supplyAsync(() -> query.apply(shard, shardUris), fanOut)));
+        List<T> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            results.add(join(future));
+        }
+        return results;
+    }
+
+    private ShardClient shardOf(String uri) {
+        return shards.get(ring.shardOf(uri));
+    }
+
+    //Исключение шарда (BadRequest, Overloaded) пробрасывается как есть
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.isBlank();
+    }
+
+}
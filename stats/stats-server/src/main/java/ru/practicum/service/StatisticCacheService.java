@@ -0,0 +1,219 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.Hit;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+//Кэш ответов /stats. Запись устаревает, когда после начала её подсчёта зафиксированы просмотры одного из её uri
+//(у запроса без uris - любые просмотры), и в любом случае через expire-after-ms: ретенция удаляет просмотры
+//мимо приёма. Одинаковые запросы, пришедшие во время подсчёта, ждут его результат
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class StatisticCacheService implements HitIngestListener {
+
+    //Полосы отметок по uri_id: у uri из одной полосы бывает лишний промах, но не устаревший ответ
+    private static final int STRIPES = 1 << 16;
+
+    private final boolean enabled;
+
+    private final long maxRows;
+
+    private final long endGranularitySeconds;
+
+    private final long expireAfterMillis;
+
+    //Номер последней зафиксированной пачки просмотров
+    private final AtomicLong watermark = new AtomicLong();
+
+    //Полоса uri_id -> номер последней пачки с просмотрами её uri
+    private final AtomicLongArray uriWatermarks = new AtomicLongArray(STRIPES);
+
+    //Порядок доступа: вытесняются давно не читанные записи. Всё под блокировкой самой карты
+    private final LinkedHashMap<List<Object>, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    //Вес записей в карте: строки ответа плюс одна на запись
+    private long rows;
+
+    public StatisticCacheService(@Value("${stats.cache.enabled:true}") boolean enabled,
+                                 @Value("${stats.cache.max-rows:200000}") long maxRows,
+                                 @Value("${stats.cache.end-granularity-seconds:0}") long endGranularitySeconds,
+                                 @Value("${stats.cache.expire-after-ms:600000}") long expireAfterMillis) {
+        this.enabled = enabled && maxRows > 0;
+        this.maxRows = maxRows;
+        this.endGranularitySeconds = endGranularitySeconds;
+        this.expireAfterMillis = expireAfterMillis;
+    }
+
+    //Конец полуинтервала округляется вниз, чтобы запросы с близким концом делили запись.
+    //Ответ тогда не видит последних секунд, поэтому по умолчанию округления нет
+    public LocalDateTime truncateEnd(LocalDateTime start, LocalDateTime end) {
+        if (!enabled || endGranularitySeconds <= 0) {
+            return end;
+        }
+        long seconds = end.toEpochSecond(ZoneOffset.UTC);
+        LocalDateTime truncated = LocalDateTime.ofEpochSecond(seconds - Math.floorMod(seconds, endGranularitySeconds),
+                0, ZoneOffset.UTC);
+        return truncated.isAfter(start) ? truncated : end;
+    }
+
+    public List<ViewStats> get(List<Object> key, Set<Integer> uriIds, Supplier<List<ViewStats>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        Entry cached;
+        Entry entry;
+        synchronized (entries) {
+            cached = entries.get(key);
+            if (cached != null && isFresh(cached)) {
+                entry = null;
+            } else {
+                if (cached != null) {
+                    rows -= cached.weight;
+                }
+                entry = new Entry(stripesOf(uriIds), watermark.get(), System.currentTimeMillis());
+                entries.put(key, entry);
+            }
+        }
+        //Ждём уже вне блокировки: подсчёт может идти долго
+        return entry == null ? join(cached) : load(key, entry, loader);
+    }
+
+    @Override
+    public void onHits(List<Hit> hits) {
+        if (!enabled) {
+            return;
+        }
+        int[] stripes = hits.stream().mapToInt(hit -> stripeOf(hit.getUriId())).distinct().toArray();
+        //afterCompletion идёт после afterCommit окна последних часов и топа. Сдвинь отметку раньше, и запрос
+        //между ними закэшировал бы ответ без этих просмотров как свежий
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        advance(stripes);
+                    }
+                }
+            });
+        } else {
+            advance(stripes);
+        }
+    }
+
+    private List<ViewStats> load(List<Object> key, Entry entry, Supplier<List<ViewStats>> loader) {
+        List<ViewStats> result;
+        try {
+            result = loader.get();
+        } catch (RuntimeException e) {
+            entry.result.completeExceptionally(e);
+            synchronized (entries) {
+                entries.remove(key, entry);
+            }
+            throw e;
+        }
+        entry.result.complete(result);
+        synchronized (entries) {
+            if (entries.get(key) == entry) {
+                if (result.size() >= maxRows) {
+                    entries.remove(key);
+                } else {
+                    entry.weight = result.size() + 1;
+                    rows += entry.weight;
+                    evict();
+                }
+            }
+        }
+        return result;
+    }
+
+    //Только что прочитанная запись стоит последней и вытесняется последней
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (rows > maxRows && iterator.hasNext()) {
+            rows -= iterator.next().weight;
+            iterator.remove();
+        }
+    }
+
+    private boolean isFresh(Entry entry) {
+        if (System.currentTimeMillis() - entry.createdAt > expireAfterMillis) {
+            return false;
+        }
+        if (entry.stripes == null) {
+            return watermark.get() <= entry.watermark;
+        }
+        for (int stripe : entry.stripes) {
+            if (uriWatermarks.get(stripe) > entry.watermark) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //Номер пачки выдаётся раньше полос: запрос, успевший его прочитать, начался после фиксации и видит пачку
+    private void advance(int[] stripes) {
+        long mark = watermark.incrementAndGet();
+        for (int stripe : stripes) {
+            uriWatermarks.accumulateAndGet(stripe, mark, Math::max);
+        }
+    }
+
+    private static List<ViewStats> join(Entry entry) {
+        try {
+            return entry.result.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    //null - запрос по всем uri
+    private static int[] stripesOf(Set<Integer> uriIds) {
+        return uriIds.isEmpty() ? null : uriIds.stream().mapToInt(StatisticCacheService::stripeOf).distinct().toArray();
+    }
+
+    private static int stripeOf(int uriId) {
+        return uriId & (STRIPES - 1);
+    }
+
+    private static final class Entry {
+
+        private final CompletableFuture<List<ViewStats>> result = new CompletableFuture<>();
+
+        private final int[] stripes;
+
+        private final long watermark;
+
+        private final long createdAt;
+
+        private long weight;
+
+        private Entry(int[] stripes, long watermark, long createdAt) {
+            this.stripes = stripes;
+            this.watermark = watermark;
+            this.createdAt = createdAt;
+        }
+
+    }
+
+}
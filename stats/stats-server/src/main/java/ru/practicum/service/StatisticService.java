@@ -1,16 +1,32 @@
 package ru.practicum.service;
 
 import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitStatus;
+import ru.practicum.dto.ViewDelta;
 import ru.practicum.dto.ViewStats;
+import ru.practicum.dto.ViewTimeseries;
+import ru.practicum.model.StatisticQuery;
 
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
+import java.util.function.Consumer;
 
 public interface StatisticService {
 
     EndpointHit save(EndpointHit endpointHit);
 
-    List<ViewStats> getStatistic(Map<String, String> params, Set<String> uris);
+    List<HitStatus> saveAll(List<EndpointHit> endpointHits);
 
-}
\ No newline at end of file
+    int saveUnacknowledged(List<EndpointHit> endpointHits);
+
+    List<ViewStats> getStatistic(StatisticQuery query, Set<String> uris);
+
+    void streamStatistic(StatisticQuery query, Set<String> uris, Consumer<ViewStats> consumer);
+
+    List<ViewStats> getTopStatistic(StatisticQuery query, String prefix, int n);
+
+    ViewTimeseries getTimeseries(StatisticQuery query, Set<String> uris);
+
+    ViewDelta getDelta(long since, int limit, boolean unique);
+
+}
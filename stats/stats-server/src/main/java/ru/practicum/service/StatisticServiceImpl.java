@@ -2,62 +2,331 @@ package ru.practicum.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitStatus;
+import ru.practicum.dto.ViewDelta;
 import ru.practicum.dto.ViewStats;
+import ru.practicum.dto.ViewTimeseries;
 import ru.practicum.exception.BadRequest;
+import ru.practicum.model.DictionaryType;
 import ru.practicum.model.Hit;
 import ru.practicum.model.HitMapper;
-import ru.practicum.repository.StatisticRepository;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.StatisticQuery;
+import ru.practicum.model.TimeRange;
+import ru.practicum.storage.HitStorage;
 
+import javax.annotation.PostConstruct;
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
 @Transactional(readOnly = true)
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
 public class StatisticServiceImpl implements StatisticService {
 
-    private final StatisticRepository statisticRepository;
+    private static final int MAX_HIT_ID_LENGTH = 64;
 
+    private static final String URI_WILDCARD = "*";
+
+    private final HitStorage hitStorage;
+
+    private final HitWriter hitWriter;
+
+    private final RollupService rollupService;
+
+    private final UniqueSketchService uniqueSketchService;
+
+    private final UniqueVisitorService uniqueVisitorService;
+
+    private final DictionaryService dictionaryService;
+
+    private final HeavyHitterService heavyHitterService;
+
+    private final HotWindowService hotWindowService;
+
+    private final TimeseriesService timeseriesService;
+
+    private final DeltaService deltaService;
+
+    private final StatisticCacheService statisticCacheService;
+
+    private final PlatformTransactionManager transactionManager;
+
+    private final WriteBehindHitBuffer writeBehindHitBuffer;
+
+    private final AdmissionService admissionService;
+
+    private final PartitionMaintenanceService partitionMaintenanceService;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @Value("${stats.hits.max-batch-size:1000}")
+    private int maxBatchSize;
+
+    @Value("${stats.delta.max-limit:10000}")
+    private int maxDeltaLimit;
+
+    @PostConstruct
+    public void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
+
+    //Кэш проверяется вне транзакции: попадания и ждущие общий подсчёт не занимают соединение
     @Override
-    public List<ViewStats> getStatistic(Map<String, String> params, Set<String> uris) {
-        boolean isUnique = params.containsKey("unique") ? Boolean.parseBoolean(params.get("unique")) : false;
-        uris = uris == null ? new HashSet<>() : uris;
-        if (stringToLocalDate(params.get("start")).isAfter(stringToLocalDate(params.get("end")))) {
-            throw new BadRequest("The start and end dates are set incorrectly. Start cannot be after end.");
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<ViewStats> getStatistic(StatisticQuery query, Set<String> uris) {
+        boolean isUnique = query.isUnique();
+        boolean isApprox = query.isApprox();
+        uris = uris == null || uris.contains(URI_WILDCARD) ? new HashSet<>() : uris;
+        Set<Integer> uriIds = findUriIds(uris);
+        if (!uris.isEmpty() && uriIds.isEmpty()) {
+            return List.of();
+        }
+        //Конец в запросе включается, хранилище и агрегаты работают с полуинтервалами
+        LocalDateTime start = retainedStart(query.getStart());
+        if (start.isAfter(query.getEnd())) {
+            return List.of();
+        }
+        LocalDateTime end = statisticCacheService.truncateEnd(start, query.getEnd().plusSeconds(1));
+        List<Object> key = List.of(new TreeSet<>(uriIds), start, end, isUnique, isApprox);
+        return statisticCacheService.get(key, uriIds, () -> readOnlyTransaction.execute(status ->
+                computeStatistic(start, end, uriIds, isUnique, isApprox)));
+    }
+
+    private List<ViewStats> computeStatistic(LocalDateTime start, LocalDateTime end, Set<Integer> uriIds,
+                                             boolean isUnique, boolean isApprox) {
+        if (isUnique && uniqueVisitorService.covers(start, end.minusSeconds(1))) {
+            return uniqueVisitorService.getUniqueViews(uriIds);
+        }
+        if (isUnique && isApprox && uniqueSketchService.isEnabled()) {
+            return uniqueSketchService.getUniqueViews(start, end, uriIds);
+        }
+        if (hotWindowService.overlaps(start, end, isUnique)) {
+            return hotWindowService.getViews(start, end, uriIds, isUnique);
         }
-        if (uris.size() > 0 && !isUnique) {
-            return statisticRepository.getUrisViewsFromSet(uris, stringToLocalDate(params.get("start")),
-                    stringToLocalDate(params.get("end")));
-        } else if (uris.size() > 0 && isUnique) {
-            return statisticRepository.getUrisViewsFromSetUnique(uris, stringToLocalDate(params.get("start")),
-                    stringToLocalDate(params.get("end")));
-        } else if (isUnique) {
-            return statisticRepository.getUrisViewsUnique(stringToLocalDate(params.get("start")),
-                    stringToLocalDate(params.get("end")));
+        if (!isUnique && rollupService.isEnabled()) {
+            return rollupService.getViews(start, end, uriIds);
+        }
+        return hitStorage.getViews(List.of(new TimeRange(start, end)), uriIds, isUnique);
+    }
+
+    //Тот же выбор источника, что и в getStatistic, но строки читаются курсором и сразу уходят в consumer
+    @Override
+    public void streamStatistic(StatisticQuery query, Set<String> uris, Consumer<ViewStats> consumer) {
+        boolean isUnique = query.isUnique();
+        boolean isApprox = query.isApprox();
+        uris = uris == null || uris.contains(URI_WILDCARD) ? new HashSet<>() : uris;
+        LocalDateTime start = retainedStart(query.getStart());
+        LocalDateTime end = query.getEnd();
+        Set<Integer> uriIds = findUriIds(uris);
+        if (!uris.isEmpty() && uriIds.isEmpty() || start.isAfter(end)) {
+            return;
+        }
+        if (isUnique && uniqueVisitorService.covers(start, end)) {
+            uniqueVisitorService.streamUniqueViews(uriIds, consumer);
+        } else if (isUnique && isApprox && uniqueSketchService.isEnabled()) {
+            //Скетчи сливаются в памяти, курсор здесь ничего не даёт
+            uniqueSketchService.getUniqueViews(start, end.plusSeconds(1), uriIds).forEach(consumer);
+        } else if (hotWindowService.overlaps(start, end.plusSeconds(1), isUnique)) {
+            hotWindowService.getViews(start, end.plusSeconds(1), uriIds, isUnique).forEach(consumer);
+        } else if (!isUnique && rollupService.isEnabled()) {
+            rollupService.streamViews(start, end.plusSeconds(1), uriIds, consumer);
         } else {
-            return statisticRepository.getUrisViews(stringToLocalDate(params.get("start")),
-                    stringToLocalDate(params.get("end")));
+            hitStorage.streamViews(List.of(new TimeRange(start, end.plusSeconds(1))), uriIds, isUnique, consumer);
         }
     }
 
     @Override
-    @Transactional
+    public List<ViewStats> getTopStatistic(StatisticQuery query, String prefix, int n) {
+        boolean isUnique = query.isUnique();
+        boolean isExact = query.isExact();
+        if (n < 1) {
+            throw new BadRequest("Parameter n must be positive.");
+        }
+        LocalDateTime start = retainedStart(query.getStart());
+        LocalDateTime end = query.getEnd();
+        if (start.isAfter(end)) {
+            return List.of();
+        }
+        if (isUnique) {
+            return uniqueVisitorService.covers(start, end)
+                    ? uniqueVisitorService.getTopUniqueViews(prefix, n)
+                    : hitStorage.findTopViews(List.of(new TimeRange(start, end.plusSeconds(1))), true, prefix, n);
+        }
+        if (!isExact) {
+            Optional<List<ViewStats>> top = heavyHitterService.findTop(start, end.plusSeconds(1), prefix, n);
+            if (top.isPresent()) {
+                return top.get();
+            }
+        }
+        return rollupService.isEnabled()
+                ? rollupService.getTopViews(start, end.plusSeconds(1), prefix, n)
+                : hitStorage.findTopViews(List.of(new TimeRange(start, end.plusSeconds(1))), false, prefix, n);
+    }
+
+    @Override
+    public ViewTimeseries getTimeseries(StatisticQuery query, Set<String> uris) {
+        RollupResolution resolution = query.getResolution();
+        uris = uris == null || uris.contains(URI_WILDCARD) ? new HashSet<>() : uris;
+        Set<Integer> uriIds = findUriIds(uris);
+        if (!uris.isEmpty() && uriIds.isEmpty()) {
+            return new ViewTimeseries(resolution.name(), List.of(), List.of());
+        }
+        return timeseriesService.getTimeseries(query.getStart(), query.getEnd().plusSeconds(1), resolution, uriIds,
+                query.isUnique());
+    }
+
+    @Override
+    public ViewDelta getDelta(long since, int limit, boolean unique) {
+        if (!deltaService.isEnabled()) {
+            throw new BadRequest("Uri totals are not maintained on this server.");
+        }
+        if (since < 0) {
+            throw new BadRequest("Watermark cannot be negative.");
+        }
+        if (limit < 1 || limit > maxDeltaLimit) {
+            throw new BadRequest("Parameter limit must be between 1 and " + maxDeltaLimit);
+        }
+        if (unique && !uniqueVisitorService.isEnabled()) {
+            throw new BadRequest("Unique totals are not maintained on this server.");
+        }
+        return deltaService.getDelta(since, limit, unique);
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public EndpointHit save(EndpointHit endpointHit) {
-        Hit save = HitMapper.INSTANT.toHit(endpointHit);
-        statisticRepository.save(save);
+        Hit save = toValidHit(endpointHit);
+        if (!writeBehindHitBuffer.offer(save)) {
+            admissionService.write(() -> hitWriter.save(save));
+        }
         return HitMapper.INSTANT.toEndpointHit(save);
     }
 
-    private LocalDateTime stringToLocalDate(String date) {
-        return LocalDateTime.parse(date, DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss"));
+    //Просмотры, на которые клиент не ждёт ответа (UDP): тот же путь, что у /hit, но без отчёта по каждому.
+    //Возвращает число отброшенных как невалидные
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public int saveUnacknowledged(List<EndpointHit> endpointHits) {
+        List<Hit> hits = new ArrayList<>(endpointHits.size());
+        int rejected = 0;
+        for (EndpointHit endpointHit : endpointHits) {
+            Hit hit;
+            try {
+                hit = toValidHit(endpointHit);
+            } catch (BadRequest e) {
+                rejected++;
+                continue;
+            }
+            if (!writeBehindHitBuffer.offer(hit)) {
+                hits.add(hit);
+            }
+        }
+        if (!hits.isEmpty()) {
+            admissionService.write(() -> hitWriter.saveAll(hits));
+        }
+        return rejected;
+    }
+
+    @Override
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public List<HitStatus> saveAll(List<EndpointHit> endpointHits) {
+        if (endpointHits.size() > maxBatchSize) {
+            throw new BadRequest("Too many hits in one request. Maximum: " + maxBatchSize);
+        }
+        HitStatus[] statuses = new HitStatus[endpointHits.size()];
+        List<Hit> hits = new ArrayList<>(endpointHits.size());
+        Map<Hit, Integer> indexes = new IdentityHashMap<>();
+        for (int i = 0; i < endpointHits.size(); i++) {
+            EndpointHit endpointHit = endpointHits.get(i);
+            Hit hit;
+            try {
+                hit = toValidHit(endpointHit);
+            } catch (BadRequest e) {
+                statuses[i] = new HitStatus(i, HitStatus.REJECTED, e.getMessage());
+                continue;
+            }
+            hits.add(hit);
+            indexes.put(hit, i);
+            statuses[i] = new HitStatus(i, HitStatus.DUPLICATE, null);
+        }
+        List<Hit> saved = admissionService.write(() -> hitWriter.saveAll(hits));
+        for (Hit hit : saved) {
+            statuses[indexes.get(hit)].setStatus(HitStatus.CREATED);
+        }
+        log.info("Saved {} of {} hits from batch", saved.size(), endpointHits.size());
+        return Arrays.asList(statuses);
+    }
+
+    //Значение с '*' на конце - префикс: /events/* выбирает все uri, начинающиеся с /events/.
+    //Префиксы раскрываются в id по словарю, дальше запрос идёт тем же путём, что и со списком uri
+    //Просмотры до начала срока хранения удалены, а множества посетителей и итоги за всё время их помнят.
+    //Запрос начинается не раньше срока хранения, чтобы ответ не зависел от того, каким путём он посчитан
+    private LocalDateTime retainedStart(LocalDateTime start) {
+        LocalDateTime retentionStart = partitionMaintenanceService.findRetentionStart();
+        return retentionStart != null && start.isBefore(retentionStart) ? retentionStart : start;
+    }
+
+    private Set<Integer> findUriIds(Set<String> uris) {
+        List<String> names = new ArrayList<>(uris.size());
+        Set<Integer> uriIds = new HashSet<>();
+        for (String uri : uris) {
+            if (uri.endsWith(URI_WILDCARD)) {
+                uriIds.addAll(dictionaryService.findIdsByPrefix(DictionaryType.URI,
+                        uri.substring(0, uri.length() - URI_WILDCARD.length())));
+            } else {
+                names.add(uri);
+            }
+        }
+        uriIds.addAll(dictionaryService.findIds(DictionaryType.URI, names));
+        return uriIds;
+    }
+
+    //IP разбирается один раз: проверка и перевод в двоичный вид для хранилища - одно действие
+    private Hit toValidHit(EndpointHit endpointHit) {
+        if (endpointHit == null) {
+            throw new BadRequest("Hit is empty.");
+        }
+        if (isBlank(endpointHit.getApp()) || isBlank(endpointHit.getUri()) || isBlank(endpointHit.getIp())
+                || endpointHit.getTimestamp() == null) {
+            throw new BadRequest("Fields app, uri, ip and timestamp are required.");
+        }
+        hitIdIsValid(endpointHit.getHitId());
+        Hit hit = HitMapper.INSTANT.toHit(endpointHit);
+        if (hit.getAddress() == null) {
+            throw new BadRequest("Invalid IP address.");
+        }
+        return hit;
+    }
+
+    private void hitIdIsValid(String hitId) {
+        if (hitId != null && (isBlank(hitId) || hitId.length() > MAX_HIT_ID_LENGTH)) {
+            throw new BadRequest("Field hitId must be non-blank and at most " + MAX_HIT_ID_LENGTH + " characters.");
+        }
+    }
+
+    private boolean isBlank(String value) {
+        return value == null || value.isBlank();
     }
 
 }
\ No newline at end of file
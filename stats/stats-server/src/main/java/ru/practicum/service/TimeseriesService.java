@@ -0,0 +1,92 @@
+package ru.practicum.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import ru.practicum.DateConstants;
+import ru.practicum.dto.ViewSeries;
+import ru.practicum.dto.ViewTimeseries;
+import ru.practicum.exception.BadRequest;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+import ru.practicum.repository.RollupRepository;
+import ru.practicum.storage.HitStorage;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+//Просмотры по корзинам одним запросом: плотный массив на каждый uri вместо объекта на каждую корзину
+@Service
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class TimeseriesService {
+
+    private final RollupService rollupService;
+
+    private final RollupRepository rollupRepository;
+
+    private final HitStorage hitStorage;
+
+    private final DictionaryService dictionaryService;
+
+    @Value("${stats.timeseries.max-buckets:10000}")
+    private int maxBuckets;
+
+    //Диапазон [start, end). Первая и последняя корзины могут быть покрыты им лишь частично
+    public ViewTimeseries getTimeseries(LocalDateTime start, LocalDateTime end, RollupResolution resolution,
+                                        Set<Integer> uriIds, boolean unique) {
+        LocalDateTime first = resolution.floor(start);
+        long buckets = resolution.between(first, resolution.ceil(end));
+        if (buckets > maxBuckets) {
+            throw new BadRequest("Too many buckets in time series. Maximum: " + maxBuckets);
+        }
+        int size = (int) buckets;
+        Map<Long, long[]> series = new HashMap<>();
+        HitStorage.BucketedViewConsumer consumer = (bucketStart, appId, uriId, hits) -> {
+            int index = (int) resolution.between(first, bucketStart);
+            long key = ((long) appId << 32) | (uriId & 0xFFFFFFFFL);
+            series.computeIfAbsent(key, k -> new long[size])[index] += hits;
+        };
+        if (!unique && rollupService.isEnabled()) {
+            //Агрегаты крупнее корзины не делятся, поэтому план начинается с разрешения самой корзины
+            Map<RollupResolution, List<TimeRange>> rollupRanges = new EnumMap<>(RollupResolution.class);
+            List<TimeRange> rawRanges = new ArrayList<>();
+            RollupService.plan(start, end, resolution.ordinal(), rollupRanges, rawRanges);
+            boolean rawInQuery = hitStorage.isStoredInDatabase();
+            if (!rollupRanges.isEmpty() || rawInQuery) {
+                rollupRepository.forEachBucketedView(resolution, rollupRanges, rawInQuery ? rawRanges : List.of(),
+                        uriIds, rs -> consumer.accept(rs.getTimestamp("bucket_start").toLocalDateTime(),
+                                rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+            }
+            if (!rawInQuery && !rawRanges.isEmpty()) {
+                hitStorage.forEachBucketedView(resolution, rawRanges, uriIds, false, consumer);
+            }
+        } else {
+            hitStorage.forEachBucketedView(resolution, List.of(new TimeRange(start, end)), uriIds, unique,
+                    consumer);
+        }
+
+        List<String> bucketStarts = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            bucketStarts.add(resolution.plus(first, i).format(DateConstants.DTF));
+        }
+        List<ViewSeries> result = new ArrayList<>(series.size());
+        series.forEach((key, hits) -> result.add(new ViewSeries(
+                dictionaryService.nameOf(DictionaryType.APP, (int) (key >>> 32)),
+                dictionaryService.nameOf(DictionaryType.URI, key.intValue()),
+                hits)));
+        result.sort(Comparator.comparingLong((ViewSeries s) -> Arrays.stream(s.getHits()).sum()).reversed()
+                .thenComparing(ViewSeries::getUri));
+        return new ViewTimeseries(resolution.name(), bucketStarts, result);
+    }
+
+}
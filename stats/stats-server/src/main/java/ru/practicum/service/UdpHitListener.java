@@ -0,0 +1,147 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitDatagram;
+import ru.practicum.exceptions.Overloaded;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+//Приём просмотров датаграммами в формате HitDatagram, без ответа клиенту. Дальше тот же путь, что у /hit:
+//буфер отложенной записи или синхронная запись в бюджете соединений. Потерянное при перегрузке не повторяется
+@Component
+@Slf4j
+public class UdpHitListener implements SmartLifecycle {
+
+    //Наибольшая полезная нагрузка UDP
+    private static final int MAX_DATAGRAM_BYTES = 65507;
+
+    private final StatisticService statisticService;
+
+    private final boolean enabled;
+
+    private final int port;
+
+    private final int receiveBufferBytes;
+
+    private final Counter datagrams;
+
+    private final Counter received;
+
+    private final Counter malformed;
+
+    private final Counter dropped;
+
+    private volatile boolean running;
+
+    private DatagramChannel channel;
+
+    private Thread receiver;
+
+    public UdpHitListener(StatisticService statisticService,
+                          MeterRegistry meterRegistry,
+                          @Value("${stats.ingest.udp.enabled:false}") boolean enabled,
+                          @Value("${stats.ingest.udp.port:9091}") int port,
+                          @Value("${stats.ingest.udp.receive-buffer-bytes:4194304}") int receiveBufferBytes) {
+        this.statisticService = statisticService;
+        this.enabled = enabled;
+        this.port = port;
+        this.receiveBufferBytes = receiveBufferBytes;
+        this.datagrams = meterRegistry.counter("stats.ingest.udp.datagrams");
+        this.received = meterRegistry.counter("stats.ingest.udp.hits");
+        this.malformed = meterRegistry.counter("stats.ingest.udp.malformed");
+        this.dropped = meterRegistry.counter("stats.ingest.udp.dropped");
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        try {
+            channel = DatagramChannel.open();
+            channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferBytes);
+            channel.bind(new InetSocketAddress(port));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not bind UDP hit listener to port " + port, e);
+        }
+        running = true;
+        receiver = new Thread(this::receiveLoop, "udp-hit-listener");
+        receiver.start();
+        log.info("UDP hit listener started on port {}", port);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            channel.close();
+            receiver.join();
+        } catch (IOException e) {
+            log.warn("Could not close UDP hit listener", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("UDP hit listener stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    //Останавливаемся раньше буфера отложенной записи, чтобы он дописал всё принятое
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 1024;
+    }
+
+    private void receiveLoop() {
+        ByteBuffer buffer = ByteBuffer.allocate(MAX_DATAGRAM_BYTES);
+        List<EndpointHit> hits = new ArrayList<>();
+        while (running) {
+            buffer.clear();
+            try {
+                channel.receive(buffer);
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                log.warn("Could not receive UDP datagram", e);
+                continue;
+            }
+            buffer.flip();
+            hits.clear();
+            int bad = HitDatagram.decode(StandardCharsets.UTF_8.decode(buffer).toString(), LocalDateTime.now(), hits);
+            datagrams.increment();
+            received.increment(hits.size());
+            try {
+                bad += statisticService.saveUnacknowledged(hits);
+            } catch (Overloaded e) {
+                dropped.increment(hits.size());
+            } catch (RuntimeException e) {
+                dropped.increment(hits.size());
+                log.warn("Could not save {} hits from UDP datagram", hits.size(), e);
+            }
+            malformed.increment(bad);
+        }
+    }
+
+}
@@ -0,0 +1,263 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.Hit;
+import ru.practicum.model.RollupKey;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+import ru.practicum.repository.HitJdbcRepository;
+import ru.practicum.repository.SketchRepository;
+import ru.practicum.sketch.HyperLogLog;
+import ru.practicum.storage.HitStorage;
+import ru.practicum.storage.IpKey;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.LocalDateTime;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+ * Приблизительный подсчёт уникальных IP (approx=true): HyperLogLog на каждый uri в каждом интервале.
+ * Просмотры не переписывают 4-килобайтный скетч в базе каждый раз: после фиксации их вклад копится в памяти
+ * и раз в stats.hll.flush-interval-ms сливается в statistic_hll одной транзакцией. Запросы этого экземпляра
+ * видят и ещё не записанный вклад, другие экземпляры - с задержкой не больше интервала.
+ * Точность записана в первом байте скетча, интервал - в строке. Если они разошлись с настройками,
+ * скетчи при запуске строятся заново: скетчи разной точности не сливаются, а другого интервала - не читаются.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class UniqueSketchService implements HitIngestListener {
+
+    private final SketchRepository sketchRepository;
+
+    private final HitJdbcRepository hitJdbcRepository;
+
+    private final HitStorage hitStorage;
+
+    private final DictionaryService dictionaryService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    private final int precision;
+
+    private final RollupResolution resolution;
+
+    //Вклад зафиксированных просмотров, ещё не записанный в базу. Под блокировкой pending
+    private final Map<RollupKey, HyperLogLog> pending = new HashMap<>();
+
+    //Вклад, который сейчас записывается: до фиксации он должен оставаться виден запросам. Под блокировкой pending
+    private Map<RollupKey, HyperLogLog> flushing = Map.of();
+
+    public UniqueSketchService(SketchRepository sketchRepository,
+                               HitJdbcRepository hitJdbcRepository,
+                               HitStorage hitStorage,
+                               DictionaryService dictionaryService,
+                               PlatformTransactionManager transactionManager,
+                               @Value("${stats.hll.enabled:true}") boolean enabled,
+                               @Value("${stats.hll.precision:12}") int precision,
+                               @Value("${stats.hll.resolution:DAY}") RollupResolution resolution) {
+        this.sketchRepository = sketchRepository;
+        this.hitJdbcRepository = hitJdbcRepository;
+        this.hitStorage = hitStorage;
+        this.dictionaryService = dictionaryService;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.enabled = enabled;
+        this.precision = precision;
+        this.resolution = resolution;
+    }
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) {
+            return;
+        }
+        int sketchLength = new HyperLogLog(precision).toBytes().length;
+        List<Map.Entry<RollupResolution, Integer>> layouts = sketchRepository.findLayouts();
+        if (layouts.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> backfill());
+            log.info("HyperLogLog sketches were empty and have been rebuilt from raw hits");
+        } else if (layouts.size() > 1 || layouts.get(0).getKey() != resolution
+                || layouts.get(0).getValue() != sketchLength) {
+            transactionTemplate.executeWithoutResult(status -> {
+                sketchRepository.deleteAll();
+                backfill();
+            });
+            log.info("HyperLogLog sketches did not match precision={} resolution={} and have been rebuilt",
+                    precision, resolution);
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        flush();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void onHits(List<Hit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<RollupKey, HyperLogLog> deltas = new TreeMap<>();
+        for (Hit hit : hits) {
+            RollupKey key = new RollupKey(resolution, resolution.floor(hit.getTimestamp()),
+                    hit.getAppId(), hit.getUriId());
+            deltas.computeIfAbsent(key, k -> new HyperLogLog(precision)).add(IpKey.hash(IpKey.of(hit.getAddress())));
+        }
+        //Вклад откаченной транзакции не должен попасть в скетч
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    buffer(deltas);
+                }
+            });
+        } else {
+            buffer(deltas);
+        }
+    }
+
+    //Неудачная запись возвращает вклад в буфер: объединение скетчей идемпотентно, повтор ничего не удвоит
+    @Scheduled(fixedDelayString = "${stats.hll.flush-interval-ms:1000}")
+    public void flush() {
+        if (!enabled) {
+            return;
+        }
+        Map<RollupKey, HyperLogLog> batch;
+        synchronized (pending) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = new TreeMap<>(pending);
+            pending.clear();
+            flushing = batch;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status -> store(batch));
+        } catch (RuntimeException e) {
+            log.warn("Could not write {} HyperLogLog sketches, will retry", batch.size(), e);
+            buffer(batch);
+        } finally {
+            synchronized (pending) {
+                flushing = Map.of();
+            }
+        }
+    }
+
+    //Целые интервалы берутся из скетчей, неровные края - точным списком IP из сырых просмотров
+    public List<ViewStats> getUniqueViews(LocalDateTime start, LocalDateTime end, Set<Integer> uriIds) {
+        Map<List<Integer>, HyperLogLog> merged = new HashMap<>();
+        LocalDateTime alignedFrom = resolution.ceil(start);
+        LocalDateTime alignedTo = resolution.floor(end);
+        List<TimeRange> rawRanges = new ArrayList<>(2);
+        if (alignedFrom.isBefore(alignedTo)) {
+            sketchRepository.forEachSketch(resolution, new TimeRange(alignedFrom, alignedTo), uriIds, rs ->
+                    sketchFor(merged, rs.getInt("app_id"), rs.getInt("uri_id"))
+                            .merge(HyperLogLog.fromBytes(rs.getBytes("sketch"))));
+            mergeBuffered(merged, alignedFrom, alignedTo, uriIds);
+            addIfNotEmpty(rawRanges, start, alignedFrom);
+            addIfNotEmpty(rawRanges, alignedTo, end);
+        } else {
+            addIfNotEmpty(rawRanges, start, end);
+        }
+        if (!rawRanges.isEmpty()) {
+            hitStorage.forEachDistinctIp(rawRanges, uriIds, (appId, uriId, ip) ->
+                    sketchFor(merged, appId, uriId).add(IpKey.hash(ip)));
+        }
+        List<ViewStats> result = new ArrayList<>(merged.size());
+        merged.forEach((key, sketch) -> result.add(new ViewStats(dictionaryService.nameOf(DictionaryType.APP, key.get(0)),
+                dictionaryService.nameOf(DictionaryType.URI, key.get(1)), sketch.estimate())));
+        result.sort((a, b) -> Long.compare(b.getHits(), a.getHits()));
+        return result;
+    }
+
+    private void buffer(Map<RollupKey, HyperLogLog> deltas) {
+        synchronized (pending) {
+            deltas.forEach((key, delta) -> pending.merge(key, delta, (a, b) -> {
+                a.merge(b);
+                return a;
+            }));
+        }
+    }
+
+    //Скетчи в буфере меняются на месте, поэтому сливаются в результат под той же блокировкой
+    private void mergeBuffered(Map<List<Integer>, HyperLogLog> merged, LocalDateTime from, LocalDateTime to,
+                               Set<Integer> uriIds) {
+        synchronized (pending) {
+            for (Map<RollupKey, HyperLogLog> deltas : List.of(pending, flushing)) {
+                deltas.forEach((key, delta) -> {
+                    if (!key.getBucketStart().isBefore(from) && key.getBucketStart().isBefore(to)
+                            && (uriIds.isEmpty() || uriIds.contains(key.getUriId()))) {
+                        sketchFor(merged, key.getAppId(), key.getUriId()).merge(delta);
+                    }
+                });
+            }
+        }
+    }
+
+    //Ключи идут по порядку, поэтому экземпляры, сливающие скетчи одновременно, блокируют строки в одном порядке
+    private void store(Map<RollupKey, HyperLogLog> deltas) {
+        List<Map.Entry<RollupKey, byte[]>> empty = new ArrayList<>(deltas.size());
+        byte[] emptySketch = new HyperLogLog(precision).toBytes();
+        for (RollupKey key : deltas.keySet()) {
+            empty.add(new AbstractMap.SimpleEntry<>(key, emptySketch));
+        }
+        sketchRepository.insertIfAbsent(empty);
+        List<Map.Entry<RollupKey, byte[]>> updated = new ArrayList<>(deltas.size());
+        deltas.forEach((key, delta) -> {
+            HyperLogLog sketch = HyperLogLog.fromBytes(sketchRepository.findForUpdate(key));
+            sketch.merge(delta);
+            updated.add(new AbstractMap.SimpleEntry<>(key, sketch.toBytes()));
+        });
+        sketchRepository.updateAll(updated);
+    }
+
+    private void backfill() {
+        Map<RollupKey, HyperLogLog> bucket = new TreeMap<>();
+        hitJdbcRepository.forEachDistinctIpByBucket(resolution, rs -> {
+            LocalDateTime bucketStart = rs.getTimestamp("bucket_start").toLocalDateTime();
+            if (!bucket.isEmpty() && !bucket.keySet().iterator().next().getBucketStart().equals(bucketStart)) {
+                store(bucket);
+                bucket.clear();
+            }
+            RollupKey key = new RollupKey(resolution, bucketStart, rs.getInt("app_id"), rs.getInt("uri_id"));
+            bucket.computeIfAbsent(key, k -> new HyperLogLog(precision)).add(IpKey.hash(IpKey.of(rs.getBytes("ip"))));
+        });
+        if (!bucket.isEmpty()) {
+            store(bucket);
+        }
+    }
+
+    private HyperLogLog sketchFor(Map<List<Integer>, HyperLogLog> merged, int appId, int uriId) {
+        return merged.computeIfAbsent(List.of(appId, uriId), k -> new HyperLogLog(precision));
+    }
+
+    private void addIfNotEmpty(List<TimeRange> ranges, LocalDateTime from, LocalDateTime to) {
+        if (from.isBefore(to)) {
+            ranges.add(new TimeRange(from, to));
+        }
+    }
+
+}
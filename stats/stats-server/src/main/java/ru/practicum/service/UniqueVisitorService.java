@@ -0,0 +1,339 @@
+package ru.practicum.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.Hit;
+import ru.practicum.model.VisitorStore;
+import ru.practicum.repository.VisitorRepository;
+import ru.practicum.storage.HitStorage;
+import ru.practicum.storage.IpKey;
+import ru.practicum.storage.TopViews;
+import ru.practicum.storage.VisitorSets;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/*
+ * Точные уникальные просмотры за всё время: счётчик на каждый uri в uri_unique_count и набор уже виденных
+ * пар (uri, ip). При stats.visitors.store=TABLE набор - таблица uri_visitor, при MEMORY - множества IP
+ * в памяти. Множества периодически сохраняются снимком, а при запуске дочитываются просмотрами после
+ * отметки снимка. В памяти множества меняются только после фиксации: незафиксированный посетитель не виден
+ * запросам, а откат ничего не убирает. Счётчик в базе при MEMORY лишь копия счётчиков в памяти: он догоняет
+ * их отдельной транзакцией сразу после фиксации и переписывается целиком при каждом запуске.
+ * Размеры множеств дублируются счётчиками uri -> app -> число посетителей: запрос читает их без блокировки
+ * записи и только по запрошенным uri.
+ */
+@Service
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class UniqueVisitorService implements HitIngestListener {
+
+    private static final Comparator<List<Integer>> KEY_ORDER = Comparator
+            .<List<Integer>>comparingInt(key -> key.get(0))
+            .thenComparingInt(key -> key.get(1));
+
+    private final VisitorRepository visitorRepository;
+
+    private final HitStorage hitStorage;
+
+    private final DictionaryService dictionaryService;
+
+    private final TransactionTemplate transactionTemplate;
+
+    private final boolean enabled;
+
+    private final VisitorStore store;
+
+    private final Path snapshotPath;
+
+    //Под блокировкой this
+    private VisitorSets visitorSets;
+
+    //Меняются под блокировкой this вместе с множествами, читаются без неё
+    private final Map<Integer, Map<Integer, AtomicInteger>> visitorCounts = new ConcurrentHashMap<>();
+
+    //Отметка хранилища с прошлого снимка. Транзакции, начатые до неё, к следующему снимку уже в памяти,
+    //а свежую отметку брать нельзя: просмотр с меньшим id ещё может фиксироваться
+    private volatile long pendingMark;
+
+    //Границы всех известных просмотров. При откате транзакции они только расширяются, что безопасно:
+    //запрос за меньший диапазон уйдёт в обычный подсчёт
+    private volatile LocalDateTime earliest;
+
+    private volatile LocalDateTime latest;
+
+    public UniqueVisitorService(VisitorRepository visitorRepository,
+                                HitStorage hitStorage,
+                                DictionaryService dictionaryService,
+                                PlatformTransactionManager transactionManager,
+                                @Value("${stats.visitors.enabled:true}") boolean enabled,
+                                @Value("${stats.visitors.store:MEMORY}") VisitorStore store,
+                                @Value("${stats.visitors.snapshot-file:data/visitors.snapshot}") String snapshotFile) {
+        this.visitorRepository = visitorRepository;
+        this.hitStorage = hitStorage;
+        this.dictionaryService = dictionaryService;
+        //Счётчики догоняются из afterCommit, где своя транзакция нужна явно
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.enabled = enabled;
+        this.store = store;
+        this.snapshotPath = Paths.get(snapshotFile);
+    }
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (store == VisitorStore.MEMORY) {
+            loadVisitorSets();
+            latest = hitStorage.findLatestView();
+            return;
+        }
+        if (visitorRepository.isEmpty()) {
+            transactionTemplate.executeWithoutResult(status -> visitorRepository.backfill());
+            log.info("Unique visitor table was empty and has been rebuilt from raw hits");
+        }
+        earliest = visitorRepository.findEarliestFirstSeen();
+        latest = hitStorage.findLatestView();
+    }
+
+    @PreDestroy
+    public void close() {
+        snapshot();
+    }
+
+    @Override
+    public void onHits(List<Hit> hits) {
+        if (!enabled) {
+            return;
+        }
+        if (store == VisitorStore.MEMORY) {
+            addVisitors(hits);
+            return;
+        }
+        Map<List<Object>, Hit> firstVisits = new LinkedHashMap<>();
+        for (Hit hit : hits) {
+            widenBounds(hit.getTimestamp());
+            firstVisits.merge(List.of(hit.getAppId(), hit.getUriId(), IpKey.of(hit.getAddress())), hit,
+                    (a, b) -> a.getTimestamp().isAfter(b.getTimestamp()) ? b : a);
+        }
+        Map<List<Integer>, Long> increments = new TreeMap<>(KEY_ORDER);
+        for (Hit visitor : visitorRepository.insertNewVisitors(new ArrayList<>(firstVisits.values()))) {
+            increments.merge(List.of(visitor.getAppId(), visitor.getUriId()), 1L, Long::sum);
+        }
+        if (!increments.isEmpty()) {
+            visitorRepository.increment(new ArrayList<>(increments.entrySet()));
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //Диапазон покрывает все просмотры, значит уникальные посетители за него - это счётчик за всё время
+    public boolean covers(LocalDateTime start, LocalDateTime end) {
+        LocalDateTime from = earliest;
+        LocalDateTime to = latest;
+        return enabled && (from == null || !start.isAfter(from)) && (to == null || !end.isBefore(to));
+    }
+
+    public List<ViewStats> getUniqueViews(Set<Integer> uriIds) {
+        return store == VisitorStore.MEMORY ? countVisitors(uriIds) : visitorRepository.findUniqueViews(uriIds);
+    }
+
+    public List<ViewStats> getTopUniqueViews(String prefix, int n) {
+        return store == VisitorStore.MEMORY
+                ? TopViews.select(countVisitors(Set.of()), prefix, n)
+                : visitorRepository.findTopUniqueViews(prefix, n);
+    }
+
+    public void streamUniqueViews(Set<Integer> uriIds, Consumer<ViewStats> consumer) {
+        if (store == VisitorStore.MEMORY) {
+            countVisitors(uriIds).forEach(consumer);
+        } else {
+            visitorRepository.streamUniqueViews(uriIds, consumer);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.visitors.snapshot-interval-ms:300000}")
+    public void snapshot() {
+        if (!enabled || store != VisitorStore.MEMORY) {
+            return;
+        }
+        long mark = pendingMark;
+        pendingMark = hitStorage.findIngestMark();
+        writeSnapshot(mark);
+    }
+
+    //Снимок и просмотры после его отметки. Без снимка множества и счётчики строятся по всем просмотрам
+    private void loadVisitorSets() throws IOException {
+        long mark = hitStorage.findIngestMark();
+        long since = 0;
+        boolean restored = false;
+        visitorSets = new VisitorSets();
+        if (Files.exists(snapshotPath)) {
+            try {
+                VisitorSets.Snapshot snapshot = VisitorSets.read(snapshotPath);
+                //Отметка больше текущей или непустой снимок при пустом хранилище - снимок от другой базы
+                if (snapshot.getMark() > mark || mark == 0 && snapshot.getVisitorSets().size() > 0) {
+                    throw new IOException("snapshot mark " + snapshot.getMark() + " does not match storage mark " + mark);
+                }
+                visitorSets = snapshot.getVisitorSets();
+                since = snapshot.getMark();
+                if (snapshot.getEarliest() != Long.MIN_VALUE) {
+                    earliest = LocalDateTime.ofEpochSecond(snapshot.getEarliest(), 0, ZoneOffset.UTC);
+                }
+                restored = true;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not read visitor snapshot {}, rebuilding from raw hits: {}", snapshotPath,
+                        e.getMessage());
+            }
+        }
+        long from = since;
+        transactionTemplate.executeWithoutResult(status -> {
+            hitStorage.forEachHitSince(from, (timestamp, appId, uriId, ip) -> {
+                widenBounds(timestamp);
+                visitorSets.add(appId, uriId, ip);
+            });
+            //Счётчик в базе мог отстать, если догоняющая транзакция не успела до остановки
+            List<int[]> counts = new ArrayList<>();
+            visitorSets.forEach((appId, uriId, visitors) -> counts.add(new int[]{appId, uriId, visitors}));
+            visitorRepository.replaceCounts(counts);
+            //Иначе после возврата к TABLE устаревшая таблица не была бы перестроена
+            if (!visitorRepository.isEmpty()) {
+                visitorRepository.deleteVisitors();
+            }
+        });
+        if (snapshotPath.getParent() != null) {
+            Files.createDirectories(snapshotPath.getParent());
+        }
+        synchronized (this) {
+            visitorSets.forEach((appId, uriId, visitors) -> counterOf(appId, uriId).set(visitors));
+        }
+        pendingMark = mark;
+        writeSnapshot(mark);
+        log.info("Unique visitor sets have been {} with {} visitors", restored ? "restored" : "rebuilt",
+                visitorSets.size());
+    }
+
+    private void addVisitors(List<Hit> hits) {
+        for (Hit hit : hits) {
+            widenBounds(hit.getTimestamp());
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    commitVisitors(hits);
+                }
+            });
+        } else {
+            commitVisitors(hits);
+        }
+    }
+
+    //Новый посетитель определяется по уже зафиксированным, поэтому из двух транзакций с одной парой его
+    //посчитает та, что зафиксировалась первой
+    private void commitVisitors(List<Hit> hits) {
+        Map<List<Integer>, Long> increments = new TreeMap<>(KEY_ORDER);
+        synchronized (this) {
+            for (Hit hit : hits) {
+                if (visitorSets.add(hit.getAppId(), hit.getUriId(), IpKey.of(hit.getAddress()))) {
+                    counterOf(hit.getAppId(), hit.getUriId()).incrementAndGet();
+                    increments.merge(List.of(hit.getAppId(), hit.getUriId()), 1L, Long::sum);
+                }
+            }
+        }
+        if (increments.isEmpty()) {
+            return;
+        }
+        try {
+            transactionTemplate.executeWithoutResult(status ->
+                    visitorRepository.increment(new ArrayList<>(increments.entrySet())));
+        } catch (RuntimeException e) {
+            log.warn("Could not update {} unique visitor counts, they will be rebuilt on restart: {}",
+                    increments.size(), e.getMessage());
+        }
+    }
+
+    private AtomicInteger counterOf(int appId, int uriId) {
+        return visitorCounts.computeIfAbsent(uriId, id -> new ConcurrentHashMap<>())
+                .computeIfAbsent(appId, id -> new AtomicInteger());
+    }
+
+    private List<ViewStats> countVisitors(Set<Integer> uriIds) {
+        List<int[]> counts = new ArrayList<>();
+        if (uriIds.isEmpty()) {
+            visitorCounts.forEach((uriId, apps) -> collectCounts(uriId, apps, counts));
+        } else {
+            for (Integer uriId : uriIds) {
+                Map<Integer, AtomicInteger> apps = visitorCounts.get(uriId);
+                if (apps != null) {
+                    collectCounts(uriId, apps, counts);
+                }
+            }
+        }
+        List<ViewStats> views = new ArrayList<>(counts.size());
+        for (int[] count : counts) {
+            views.add(new ViewStats(dictionaryService.nameOf(DictionaryType.APP, count[0]),
+                    dictionaryService.nameOf(DictionaryType.URI, count[1]), (long) count[2]));
+        }
+        views.sort((a, b) -> Long.compare(b.getHits(), a.getHits()));
+        return views;
+    }
+
+    private static void collectCounts(int uriId, Map<Integer, AtomicInteger> apps, List<int[]> counts) {
+        apps.forEach((appId, counter) -> {
+            int visitors = counter.get();
+            if (visitors > 0) {
+                counts.add(new int[]{appId, uriId, visitors});
+            }
+        });
+    }
+
+    private synchronized void writeSnapshot(long mark) {
+        LocalDateTime from = earliest;
+        try {
+            visitorSets.write(snapshotPath, mark, from == null ? Long.MIN_VALUE : from.toEpochSecond(ZoneOffset.UTC));
+        } catch (IOException e) {
+            log.warn("Could not write visitor snapshot {}: {}", snapshotPath, e.getMessage());
+        }
+    }
+
+    private synchronized void widenBounds(LocalDateTime timestamp) {
+        if (earliest == null || timestamp.isBefore(earliest)) {
+            earliest = timestamp;
+        }
+        if (latest == null || timestamp.isAfter(latest)) {
+            latest = timestamp;
+        }
+    }
+
+}
@@ -0,0 +1,256 @@
+package ru.practicum.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import ru.practicum.exceptions.Overloaded;
+import ru.practicum.model.Hit;
+import ru.practicum.model.OverflowPolicy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//Отложенная запись просмотров: ограниченная очередь + фоновая групповая запись по размеру или по времени.
+//Неудачная запись повторяется с экспоненциальной паузой, чтобы короткий сбой базы не съедал все попытки разом
+@Component
+@Slf4j
+@ConditionalOnProperty(name = "stats.sharding.mode", havingValue = "standalone", matchIfMissing = true)
+public class WriteBehindHitBuffer implements SmartLifecycle {
+
+    private final HitWriter hitWriter;
+
+    private final AdmissionService admissionService;
+
+    private final boolean enabled;
+
+    private final int flushSize;
+
+    private final long flushIntervalNanos;
+
+    private final int maxRetries;
+
+    private final long retryBackoffMillis;
+
+    private final long maxRetryBackoffMillis;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final BlockingQueue<PendingHit> queue;
+
+    private final Timer flushLag;
+
+    private final Timer flushDuration;
+
+    private final Counter flushed;
+
+    private final Counter dropped;
+
+    private volatile boolean running;
+
+    //Приём (чтение) и закрытие (запись): после закрытия ни один принятый просмотр уже не в пути к очереди,
+    //и то, что в ней осталось, дописывается до конца
+    private final ReadWriteLock gate = new ReentrantReadWriteLock();
+
+    private Thread flusher;
+
+    public WriteBehindHitBuffer(HitWriter hitWriter,
+                                AdmissionService admissionService,
+                                MeterRegistry meterRegistry,
+                                @Value("${stats.ingest.write-behind.enabled:false}") boolean enabled,
+                                @Value("${stats.ingest.write-behind.capacity:65536}") int capacity,
+                                @Value("${stats.ingest.write-behind.flush-size:1000}") int flushSize,
+                                @Value("${stats.ingest.write-behind.flush-interval-ms:200}") long flushIntervalMs,
+                                @Value("${stats.ingest.write-behind.max-retries:3}") int maxRetries,
+                                @Value("${stats.ingest.write-behind.retry-backoff-ms:100}") long retryBackoffMillis,
+                                @Value("${stats.ingest.write-behind.max-retry-backoff-ms:5000}")
+                                long maxRetryBackoffMillis,
+                                @Value("${stats.ingest.write-behind.overflow:REJECT}") OverflowPolicy overflowPolicy) {
+        this.hitWriter = hitWriter;
+        this.admissionService = admissionService;
+        this.enabled = enabled;
+        this.flushSize = flushSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoffMillis;
+        this.maxRetryBackoffMillis = maxRetryBackoffMillis;
+        this.overflowPolicy = overflowPolicy;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        meterRegistry.gauge("stats.ingest.queue.depth", queue, BlockingQueue::size);
+        this.flushLag = meterRegistry.timer("stats.ingest.flush.lag");
+        this.flushDuration = meterRegistry.timer("stats.ingest.flush.duration");
+        this.flushed = meterRegistry.counter("stats.ingest.flushed");
+        this.dropped = meterRegistry.counter("stats.ingest.dropped");
+    }
+
+    //false - буфер выключен и писать надо синхронно. Полная очередь отклоняет новый просмотр с 429
+    //или вытесняет самый старый, синхронной записи в обход очереди нет
+    public boolean offer(Hit hit) {
+        if (!enabled) {
+            return false;
+        }
+        gate.readLock().lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            PendingHit pending = new PendingHit(hit, System.nanoTime());
+            while (!queue.offer(pending)) {
+                if (overflowPolicy == OverflowPolicy.REJECT) {
+                    admissionService.shed("queue_full", 1);
+                    throw new Overloaded(HttpStatus.TOO_MANY_REQUESTS, admissionService.getRetryAfterSeconds(),
+                            "Ingest queue is full.");
+                }
+                if (queue.poll() != null) {
+                    admissionService.shed("queue_dropped_oldest", 1);
+                }
+            }
+            return true;
+        } finally {
+            gate.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        flusher = new Thread(this::flushLoop, "hit-flusher");
+        flusher.start();
+        log.info("Write-behind hit buffer started: capacity={}, flushSize={}",
+                queue.remainingCapacity(), flushSize);
+    }
+
+    @Override
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        close();
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Write-behind hit buffer drained and stopped");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    //Останавливаемся после веб-сервера, чтобы дописать всё, что успело попасть в очередь
+    @Override
+    public int getPhase() {
+        return Integer.MAX_VALUE - 2048;
+    }
+
+    private void close() {
+        gate.writeLock().lock();
+        try {
+            running = false;
+        } finally {
+            gate.writeLock().unlock();
+        }
+    }
+
+    private void flushLoop() {
+        List<PendingHit> batch = new ArrayList<>(flushSize);
+        while (running) {
+            try {
+                PendingHit first = queue.poll(flushIntervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.getEnqueuedAt() + flushIntervalNanos;
+                while (batch.size() < flushSize) {
+                    queue.drainTo(batch, flushSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= flushSize || remaining <= 0 || !running) {
+                        break;
+                    }
+                    PendingHit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+            }
+            flush(batch);
+            batch.clear();
+        }
+        //Приём закрыт, очередь больше не пополняется: дописываем её без ожиданий
+        while (queue.drainTo(batch, flushSize) > 0) {
+            flush(batch);
+            batch.clear();
+        }
+    }
+
+    private void flush(List<PendingHit> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        List<Hit> hits = new ArrayList<>(batch.size());
+        for (PendingHit pending : batch) {
+            hits.add(pending.getHit());
+        }
+        for (int attempt = 1; attempt <= maxRetries; attempt++) {
+            try {
+                long startedAt = System.nanoTime();
+                hitWriter.saveAll(hits);
+                long finishedAt = System.nanoTime();
+                flushDuration.record(finishedAt - startedAt, TimeUnit.NANOSECONDS);
+                flushLag.record(finishedAt - batch.get(0).getEnqueuedAt(), TimeUnit.NANOSECONDS);
+                flushed.increment(hits.size());
+                return;
+            } catch (RuntimeException e) {
+                log.warn("Flush of {} hits failed, attempt {} of {}", hits.size(), attempt, maxRetries, e);
+            }
+            if (attempt < maxRetries) {
+                backoff(attempt);
+            }
+        }
+        dropped.increment(hits.size());
+        log.error("Dropped {} hits after {} failed flush attempts", hits.size(), maxRetries);
+    }
+
+    //100, 200, 400 ... мс, но не больше maxRetryBackoffMillis. Прерванная пауза не отменяет оставшихся попыток
+    private void backoff(int attempt) {
+        long delay = retryBackoffMillis << Math.min(attempt - 1, 30);
+        try {
+            Thread.sleep(Math.min(delay, maxRetryBackoffMillis));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class PendingHit {
+
+        private final Hit hit;
+
+        private final long enqueuedAt;
+
+    }
+
+}
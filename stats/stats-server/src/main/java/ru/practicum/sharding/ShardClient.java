@@ -0,0 +1,169 @@
+package ru.practicum.sharding;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitStatus;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.dto.ViewTimeseries;
+import ru.practicum.exception.BadRequest;
+import ru.practicum.exceptions.Overloaded;
+import ru.practicum.model.StatisticQuery;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//Запросы координатора к одному шарду. Между ними ходит Smile: короче JSON и быстрее разбирается.
+//Ошибки шарда переводятся в исключения, которые ErrorHandler отдаёт клиенту координатора
+public class ShardClient {
+
+    private static final MediaType APPLICATION_SMILE = new MediaType("application", "x-jackson-smile");
+
+    private static final ParameterizedTypeReference<List<ViewStats>> VIEW_STATS_LIST =
+            new ParameterizedTypeReference<>() {
+            };
+
+    private static final ParameterizedTypeReference<List<HitStatus>> HIT_STATUS_LIST =
+            new ParameterizedTypeReference<>() {
+            };
+
+    private final int index;
+
+    private final URI baseUrl;
+
+    private final RestTemplate restTemplate;
+
+    private final ObjectMapper objectMapper;
+
+    private final long retryAfterSeconds;
+
+    public ShardClient(int index, URI baseUrl, RestTemplate restTemplate, ObjectMapper objectMapper,
+                       long retryAfterSeconds) {
+        this.index = index;
+        this.baseUrl = baseUrl;
+        this.restTemplate = restTemplate;
+        this.objectMapper = objectMapper;
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public EndpointHit saveHit(EndpointHit hit) {
+        return exchange(HttpMethod.POST, uri("/hit", Map.of()), hit, EndpointHit.class);
+    }
+
+    public List<HitStatus> saveHits(List<EndpointHit> hits) {
+        return exchange(HttpMethod.POST, uri("/hits", Map.of()), hits, HIT_STATUS_LIST);
+    }
+
+    public List<ViewStats> getStatistic(StatisticQuery query, Iterable<String> uris) {
+        return exchange(HttpMethod.GET, uri("/stats", query.toParams(), uris), null, VIEW_STATS_LIST);
+    }
+
+    public List<ViewStats> getTopStatistic(StatisticQuery query, String prefix, int n) {
+        Map<String, String> params = query.toParams();
+        params.put("n", String.valueOf(n));
+        if (prefix != null) {
+            params.put("prefix", prefix);
+        }
+        return exchange(HttpMethod.GET, uri("/stats/top", params), null, VIEW_STATS_LIST);
+    }
+
+    public ViewTimeseries getTimeseries(StatisticQuery query, Iterable<String> uris) {
+        return exchange(HttpMethod.GET, uri("/stats/timeseries", query.toParams(), uris), null, ViewTimeseries.class);
+    }
+
+    @Override
+    public String toString() {
+        return "shard " + index + " (" + baseUrl + ")";
+    }
+
+    private <T> T exchange(HttpMethod method, URI uri, Object body, Class<T> type) {
+        try {
+            return restTemplate.exchange(uri, method, entity(body), type).getBody();
+        } catch (HttpStatusCodeException e) {
+            throw translate(e);
+        } catch (ResourceAccessException e) {
+            throw unavailable(e);
+        }
+    }
+
+    private <T> T exchange(HttpMethod method, URI uri, Object body, ParameterizedTypeReference<T> type) {
+        try {
+            return restTemplate.exchange(uri, method, entity(body), type).getBody();
+        } catch (HttpStatusCodeException e) {
+            throw translate(e);
+        } catch (ResourceAccessException e) {
+            throw unavailable(e);
+        }
+    }
+
+    private HttpEntity<Object> entity(Object body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setAccept(List.of(APPLICATION_SMILE));
+        if (body != null) {
+            headers.setContentType(APPLICATION_SMILE);
+        }
+        return new HttpEntity<>(body, headers);
+    }
+
+    //Значения подставляются переменными шаблона: так кодируются и '+', и '&' внутри uri
+    private URI uri(String path, Map<String, String> params, Iterable<String> uris) {
+        UriComponentsBuilder builder = UriComponentsBuilder.fromUri(baseUrl).path(path);
+        Map<String, String> variables = new HashMap<>();
+        params.forEach((name, value) -> {
+            builder.queryParam(name, "{" + name + "}");
+            variables.put(name, value);
+        });
+        int i = 0;
+        for (String uri : uris) {
+            builder.queryParam("uris", "{uris" + i + "}");
+            variables.put("uris" + i, uri);
+            i++;
+        }
+        return builder.encode().buildAndExpand(variables).toUri();
+    }
+
+    private URI uri(String path, Map<String, String> params) {
+        return uri(path, params, List.of());
+    }
+
+    private RuntimeException translate(HttpStatusCodeException e) {
+        HttpStatus status = e.getStatusCode();
+        if (status == HttpStatus.TOO_MANY_REQUESTS || status == HttpStatus.SERVICE_UNAVAILABLE) {
+            String retryAfter = e.getResponseHeaders() == null ? null
+                    : e.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+            return new Overloaded(status, retryAfter == null ? retryAfterSeconds : Long.parseLong(retryAfter),
+                    this + " is overloaded: " + message(e));
+        }
+        if (status.is4xxClientError()) {
+            return new BadRequest(message(e));
+        }
+        return unavailable(e);
+    }
+
+    private Overloaded unavailable(Exception e) {
+        return new Overloaded(HttpStatus.SERVICE_UNAVAILABLE, retryAfterSeconds,
+                this + " is unavailable: " + e.getMessage());
+    }
+
+    //Ошибки шард отдаёт в JSON независимо от Accept, см. ErrorHandler
+    private String message(HttpStatusCodeException e) {
+        try {
+            return objectMapper.readTree(e.getResponseBodyAsByteArray()).path("message").asText(e.getStatusText());
+        } catch (IOException ignored) {
+            return e.getStatusText();
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+package ru.practicum.sharding;
+
+import ru.practicum.sketch.Hashing;
+
+import java.util.Arrays;
+
+/*
+ * Согласованное хэширование uri по шардам: у каждого шарда VIRTUAL_NODES точек на кольце 64-битных хэшей,
+ * uri принадлежит шарду первой точки не меньше хэша uri. Точки считаются от номера шарда, а не от адреса:
+ * шард можно перенести на другой хост, а новый шард в конце списка забирает у остальных около 1/N uri.
+ */
+public final class ShardRing {
+
+    private static final int VIRTUAL_NODES = 160;
+
+    private final long[] points;
+
+    private final int[] owners;
+
+    public ShardRing(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        long[][] nodes = new long[shards * VIRTUAL_NODES][];
+        for (int shard = 0; shard < shards; shard++) {
+            for (int node = 0; node < VIRTUAL_NODES; node++) {
+                nodes[shard * VIRTUAL_NODES + node] = new long[]{Hashing.hash64("shard-" + shard + "#" + node), shard};
+            }
+        }
+        Arrays.sort(nodes, (a, b) -> Long.compare(a[0], b[0]));
+        this.points = new long[nodes.length];
+        this.owners = new int[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            points[i] = nodes[i][0];
+            owners[i] = (int) nodes[i][1];
+        }
+    }
+
+    public int shardOf(String uri) {
+        int i = Arrays.binarySearch(points, Hashing.hash64(uri));
+        if (i < 0) {
+            i = -i - 1;
+        }
+        return owners[i == points.length ? 0 : i];
+    }
+
+}
@@ -0,0 +1,129 @@
+package ru.practicum.sketch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Space-Saving (Metwally, Agrawal, El Abbadi) для поиска самых частых ключей.
+ * Хранит не больше capacity счётчиков. Для ключа в сводке истинная частота лежит в [count - error, count],
+ * для ключа вне сводки она не больше missingBound(). Поэтому сводки за разные сутки можно сливать при запросе,
+ * складывая границы. Счётчики лежат в примитивных массивах, минимальный ищется через индексированную кучу.
+ */
+public class SpaceSaving {
+
+    private final int capacity;
+
+    private final long[] keys;
+
+    private final long[] counts;
+
+    private final long[] errors;
+
+    //heap[i] - номер слота, position[slot] - место слота в куче
+    private final int[] heap;
+
+    private final int[] position;
+
+    private final Map<Long, Integer> slots;
+
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.errors = new long[capacity];
+        this.heap = new int[capacity];
+        this.position = new int[capacity];
+        this.slots = new HashMap<>(capacity * 2);
+    }
+
+    public synchronized void add(long key, long weight) {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot] += weight;
+            siftDown(position[slot]);
+            return;
+        }
+        if (size < capacity) {
+            slot = size++;
+            keys[slot] = key;
+            counts[slot] = weight;
+            errors[slot] = 0;
+            heap[slot] = slot;
+            position[slot] = slot;
+            siftUp(slot);
+            slots.put(key, slot);
+            return;
+        }
+        //Вытесняется минимальный счётчик, новый ключ наследует его значение как погрешность
+        slot = heap[0];
+        slots.remove(keys[slot]);
+        long min = counts[slot];
+        keys[slot] = key;
+        counts[slot] = min + weight;
+        errors[slot] = min;
+        slots.put(key, slot);
+        siftDown(0);
+    }
+
+    //Верхняя граница частоты любого ключа, которого нет в сводке
+    public synchronized long missingBound() {
+        return size < capacity ? 0 : counts[heap[0]];
+    }
+
+    public synchronized void forEach(CounterConsumer consumer) {
+        for (int slot = 0; slot < size; slot++) {
+            consumer.accept(keys[slot], counts[slot], errors[slot]);
+        }
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int parent = (i - 1) / 2;
+            if (counts[heap[parent]] <= counts[heap[i]]) {
+                return;
+            }
+            swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int smallest = i;
+            int left = 2 * i + 1;
+            int right = left + 1;
+            if (left < size && counts[heap[left]] < counts[heap[smallest]]) {
+                smallest = left;
+            }
+            if (right < size && counts[heap[right]] < counts[heap[smallest]]) {
+                smallest = right;
+            }
+            if (smallest == i) {
+                return;
+            }
+            swap(i, smallest);
+            i = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        int slot = heap[i];
+        heap[i] = heap[j];
+        heap[j] = slot;
+        position[heap[i]] = i;
+        position[heap[j]] = j;
+    }
+
+    @FunctionalInterface
+    public interface CounterConsumer {
+
+        void accept(long key, long count, long error);
+
+    }
+
+}
@@ -0,0 +1,76 @@
+package ru.practicum.storage;
+
+import java.util.Arrays;
+
+//Просмотры одного часа по столбцам в блоках фиксированного размера. Пишет один поток за раз, читают без
+//блокировок: строка видна после записи size, а заполненные блоки не перемещаются
+public final class HitChunk {
+
+    private static final int BLOCK_SHIFT = 13;
+
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+
+    private long[][] timestamps = new long[4][];
+
+    private int[][] appIds = new int[4][];
+
+    private int[][] uriIds = new int[4][];
+
+    private long[][] ips = new long[4][];
+
+    private volatile int size;
+
+    public synchronized void add(long timestamp, int appId, int uriId, long ip) {
+        int row = size;
+        int block = row >>> BLOCK_SHIFT;
+        int offset = row & (BLOCK_SIZE - 1);
+        if (offset == 0) {
+            if (block == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, block * 2);
+                appIds = Arrays.copyOf(appIds, block * 2);
+                uriIds = Arrays.copyOf(uriIds, block * 2);
+                ips = Arrays.copyOf(ips, block * 2);
+            }
+            timestamps[block] = new long[BLOCK_SIZE];
+            appIds[block] = new int[BLOCK_SIZE];
+            uriIds[block] = new int[BLOCK_SIZE];
+            ips[block] = new long[BLOCK_SIZE];
+        }
+        timestamps[block][offset] = timestamp;
+        appIds[block][offset] = appId;
+        uriIds[block][offset] = uriId;
+        ips[block][offset] = ip;
+        size = row + 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    //Строки с from <= время < to, uriIds отсортированы, пустой массив - без фильтра по uri
+    public void scan(long from, long to, int[] uriIds, ViewAggregation aggregation) {
+        int rows = size;
+        long[][] timestampBlocks = timestamps;
+        int[][] appBlocks = appIds;
+        int[][] uriBlocks = this.uriIds;
+        long[][] ipBlocks = ips;
+        for (int block = 0; block << BLOCK_SHIFT < rows; block++) {
+            long[] blockTimestamps = timestampBlocks[block];
+            int[] blockApps = appBlocks[block];
+            int[] blockUris = uriBlocks[block];
+            long[] blockIps = ipBlocks[block];
+            int count = Math.min(BLOCK_SIZE, rows - (block << BLOCK_SHIFT));
+            for (int i = 0; i < count; i++) {
+                long timestamp = blockTimestamps[i];
+                if (timestamp < from || timestamp >= to) {
+                    continue;
+                }
+                if (uriIds.length != 0 && Arrays.binarySearch(uriIds, blockUris[i]) < 0) {
+                    continue;
+                }
+                aggregation.add(0, blockApps[i], blockUris[i], blockIps[i]);
+            }
+        }
+    }
+
+}
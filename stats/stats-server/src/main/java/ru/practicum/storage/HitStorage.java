@@ -0,0 +1,70 @@
+package ru.practicum.storage;
+
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.Hit;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+//Хранилище сырых просмотров. Агрегаты, посетители и итоги по uri остаются в БД и обновляются слушателями записи.
+//Все диапазоны - полуинтервалы, app и uri - id словарей
+public interface HitStorage {
+
+    void save(Hit hit);
+
+    void saveAll(List<Hit> hits);
+
+    //Просмотры по uri по убыванию hits
+    List<ViewStats> getViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique);
+
+    void streamViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique, Consumer<ViewStats> consumer);
+
+    List<ViewStats> findTopViews(List<TimeRange> ranges, boolean unique, String prefix, int n);
+
+    //Просмотры по корзинам заданного разрешения, unique - уникальные IP внутри каждой корзины
+    void forEachBucketedView(RollupResolution bucket, List<TimeRange> ranges, Set<Integer> uriIds, boolean unique,
+                             BucketedViewConsumer consumer);
+
+    void forEachDistinctIp(List<TimeRange> ranges, Set<Integer> uriIds, DistinctIpConsumer consumer);
+
+    //Сами просмотры в произвольном порядке, для восстановления структур в памяти
+    void forEachHit(List<TimeRange> ranges, HitConsumer consumer);
+
+    //Отметка в порядке записи: forEachHitSince отдаёт всё, что записано после неё, и, возможно, немного больше.
+    //Отметки растут, но просмотр с меньшей отметкой может зафиксироваться позже просмотра с большей
+    long findIngestMark();
+
+    void forEachHitSince(long mark, HitConsumer consumer);
+
+    //Время самого позднего просмотра или null, если просмотров нет
+    LocalDateTime findLatestView();
+
+    //Просмотры лежат в таблице statistic рядом с агрегатами, и сырые края можно складывать с ними прямо в SQL
+    boolean isStoredInDatabase();
+
+    @FunctionalInterface
+    interface BucketedViewConsumer {
+
+        void accept(LocalDateTime bucketStart, int appId, int uriId, long hits);
+
+    }
+
+    @FunctionalInterface
+    interface DistinctIpConsumer {
+
+        void accept(int appId, int uriId, long ip);
+
+    }
+
+    @FunctionalInterface
+    interface HitConsumer {
+
+        void accept(LocalDateTime timestamp, int appId, int uriId, long ip);
+
+    }
+
+}
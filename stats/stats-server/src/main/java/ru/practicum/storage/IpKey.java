@@ -0,0 +1,31 @@
+package ru.practicum.storage;
+
+import ru.practicum.sketch.Hashing;
+
+//IP в виде long для множеств и колонок в памяти: IPv4 - сам адрес без знака (старшие 32 бита нулевые),
+//IPv6 - 64-битный хэш 16 байт с установленным старшим битом, чтобы не совпасть ни с одним IPv4.
+//На этих объёмах случайное совпадение хэшей двух IPv6 не заметно в счётчиках
+public final class IpKey {
+
+    private IpKey() {
+    }
+
+    public static long of(byte[] address) {
+        if (address.length == 4) {
+            return ((address[0] & 0xFFL) << 24) | ((address[1] & 0xFF) << 16) | ((address[2] & 0xFF) << 8)
+                    | (address[3] & 0xFF);
+        }
+        return Hashing.hash64(address) | Long.MIN_VALUE;
+    }
+
+    //Хэш для скетчей. У IPv4 хэшируются 4 байта адреса: одно перемешивание самого числа на близких адресах
+    //заметно завышает оценку HyperLogLog. Ключ IPv6 уже хэш, но его старший бит всегда 1
+    public static long hash(long key) {
+        return isIpv4(key) ? Hashing.hash64((int) key) : Hashing.fmix64(key);
+    }
+
+    public static boolean isIpv4(long key) {
+        return key >>> 32 == 0;
+    }
+
+}
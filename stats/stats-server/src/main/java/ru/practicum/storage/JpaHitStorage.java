@@ -0,0 +1,114 @@
+package ru.practicum.storage;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.Hit;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+import ru.practicum.repository.HitJdbcRepository;
+import ru.practicum.repository.StatisticRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+//Просмотры в таблице statistic: одиночные через JPA, пакеты и отчёты через JDBC
+@Component
+@ConditionalOnProperty(name = "stats.storage.type", havingValue = "jpa", matchIfMissing = true)
+@RequiredArgsConstructor
+public class JpaHitStorage implements HitStorage {
+
+    private static final int MAX_JPQL_URI_IDS = 1000;
+
+    private final StatisticRepository statisticRepository;
+
+    private final HitJdbcRepository hitJdbcRepository;
+
+    @Override
+    public void save(Hit hit) {
+        statisticRepository.save(hit);
+    }
+
+    @Override
+    public void saveAll(List<Hit> hits) {
+        hitJdbcRepository.bulkSave(hits);
+    }
+
+    //JPQL не умеет произвольный список интервалов, поэтому края агрегатов считаются через JDBC.
+    //Туда же уходят длинные списки uri (например, раскрытый префикс): JPQL разворачивает IN по параметру на id
+    @Override
+    public List<ViewStats> getViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique) {
+        if (ranges.size() != 1 || uriIds.size() > MAX_JPQL_URI_IDS) {
+            return hitJdbcRepository.countViews(ranges, uriIds, unique);
+        }
+        LocalDateTime start = ranges.get(0).getFrom();
+        LocalDateTime end = ranges.get(0).getTo();
+        if (!uriIds.isEmpty()) {
+            return unique
+                    ? statisticRepository.getUrisViewsFromSetUnique(uriIds, start, end)
+                    : statisticRepository.getUrisViewsFromSet(uriIds, start, end);
+        }
+        return unique
+                ? statisticRepository.getUrisViewsUnique(start, end)
+                : statisticRepository.getUrisViews(start, end);
+    }
+
+    @Override
+    public void streamViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique,
+                            Consumer<ViewStats> consumer) {
+        hitJdbcRepository.streamViews(ranges, uriIds, unique, consumer);
+    }
+
+    @Override
+    public List<ViewStats> findTopViews(List<TimeRange> ranges, boolean unique, String prefix, int n) {
+        return hitJdbcRepository.findTopViews(ranges, unique, prefix, n);
+    }
+
+    @Override
+    public void forEachBucketedView(RollupResolution bucket, List<TimeRange> ranges, Set<Integer> uriIds,
+                                    boolean unique, BucketedViewConsumer consumer) {
+        hitJdbcRepository.forEachBucketedView(bucket, ranges, uriIds, unique, rs ->
+                consumer.accept(rs.getTimestamp("bucket_start").toLocalDateTime(),
+                        rs.getInt("app_id"), rs.getInt("uri_id"), rs.getLong("hits")));
+    }
+
+    @Override
+    public void forEachDistinctIp(List<TimeRange> ranges, Set<Integer> uriIds, DistinctIpConsumer consumer) {
+        hitJdbcRepository.forEachDistinctIp(ranges, uriIds, rs ->
+                consumer.accept(rs.getInt("app_id"), rs.getInt("uri_id"), IpKey.of(rs.getBytes("ip"))));
+    }
+
+    @Override
+    public void forEachHit(List<TimeRange> ranges, HitConsumer consumer) {
+        hitJdbcRepository.forEachHit(ranges, rs ->
+                consumer.accept(rs.getTimestamp("view_date").toLocalDateTime(),
+                        rs.getInt("app_id"), rs.getInt("uri_id"), IpKey.of(rs.getBytes("ip"))));
+    }
+
+    //id выдаются последовательностью при вставке
+    @Override
+    public long findIngestMark() {
+        return hitJdbcRepository.findMaxId();
+    }
+
+    @Override
+    public void forEachHitSince(long mark, HitConsumer consumer) {
+        hitJdbcRepository.forEachHitAfter(mark, rs ->
+                consumer.accept(rs.getTimestamp("view_date").toLocalDateTime(),
+                        rs.getInt("app_id"), rs.getInt("uri_id"), IpKey.of(rs.getBytes("ip"))));
+    }
+
+    @Override
+    public LocalDateTime findLatestView() {
+        return hitJdbcRepository.findLatestView();
+    }
+
+    @Override
+    public boolean isStoredInDatabase() {
+        return true;
+    }
+
+}
@@ -0,0 +1,127 @@
+package ru.practicum.storage;
+
+import ru.practicum.sketch.Hashing;
+
+import java.util.function.LongConsumer;
+
+//Множество long с открытой адресацией и линейным пробированием. 0 занят под пустую ячейку и хранится флагом
+public final class LongHashSet {
+
+    private long[] table;
+
+    private boolean hasZero;
+
+    private int size;
+
+    public LongHashSet() {
+        table = new long[16];
+    }
+
+    public LongHashSet(int expected) {
+        table = new long[Math.max(4, Integer.highestOneBit(Math.max(expected, 1) * 2 - 1) << 1)];
+    }
+
+    public boolean add(long value) {
+        if (value == 0) {
+            if (hasZero) {
+                return false;
+            }
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = indexOf(value, mask);
+        while (table[i] != 0) {
+            if (table[i] == value) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        table[i] = value;
+        size++;
+        if (size * 2 > table.length) {
+            rehash(table.length * 2);
+        }
+        return true;
+    }
+
+    public boolean contains(long value) {
+        if (value == 0) {
+            return hasZero;
+        }
+        int mask = table.length - 1;
+        for (int i = indexOf(value, mask); table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //Как в IntHashSet: хвост цепочки сдвигается на место удалённого
+    public boolean remove(long value) {
+        if (value == 0) {
+            if (!hasZero) {
+                return false;
+            }
+            hasZero = false;
+            size--;
+            return true;
+        }
+        int mask = table.length - 1;
+        int i = indexOf(value, mask);
+        while (table[i] != value) {
+            if (table[i] == 0) {
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        int hole = i;
+        for (int j = (hole + 1) & mask; table[j] != 0; j = (j + 1) & mask) {
+            int home = indexOf(table[j], mask);
+            if (((j - home) & mask) >= ((j - hole) & mask)) {
+                table[hole] = table[j];
+                hole = j;
+            }
+        }
+        table[hole] = 0;
+        size--;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void forEach(LongConsumer consumer) {
+        if (hasZero) {
+            consumer.accept(0);
+        }
+        for (long value : table) {
+            if (value != 0) {
+                consumer.accept(value);
+            }
+        }
+    }
+
+    private void rehash(int capacity) {
+        long[] old = table;
+        table = new long[capacity];
+        int mask = capacity - 1;
+        for (long value : old) {
+            if (value != 0) {
+                int i = indexOf(value, mask);
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = value;
+            }
+        }
+    }
+
+    private static int indexOf(long value, int mask) {
+        return (int) Hashing.fmix64(value) & mask;
+    }
+
+}
@@ -0,0 +1,68 @@
+package ru.practicum.storage;
+
+import ru.practicum.sketch.Hashing;
+
+import java.util.Arrays;
+
+//Открытая адресация long -> плотный номер слота 0, 1, 2... Ключи не упаковываются в объекты
+public final class LongIndex {
+
+    private long[] tableKeys;
+
+    //Номер слота + 1, 0 - ячейка свободна
+    private int[] tableSlots;
+
+    private long[] slotKeys;
+
+    private int size;
+
+    public LongIndex() {
+        tableKeys = new long[16];
+        tableSlots = new int[16];
+        slotKeys = new long[8];
+    }
+
+    public int slotOf(long key) {
+        int mask = tableKeys.length - 1;
+        int i = (int) Hashing.fmix64(key) & mask;
+        while (tableSlots[i] != 0) {
+            if (tableKeys[i] == key) {
+                return tableSlots[i] - 1;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size == slotKeys.length) {
+            slotKeys = Arrays.copyOf(slotKeys, size * 2);
+        }
+        slotKeys[size] = key;
+        tableKeys[i] = key;
+        tableSlots[i] = ++size;
+        if (size * 2 > tableKeys.length) {
+            rehash();
+        }
+        return size - 1;
+    }
+
+    public long keyAt(int slot) {
+        return slotKeys[slot];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash() {
+        tableKeys = new long[tableKeys.length * 2];
+        tableSlots = new int[tableKeys.length];
+        int mask = tableKeys.length - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int i = (int) Hashing.fmix64(slotKeys[slot]) & mask;
+            while (tableSlots[i] != 0) {
+                i = (i + 1) & mask;
+            }
+            tableKeys[i] = slotKeys[slot];
+            tableSlots[i] = slot + 1;
+        }
+    }
+
+}
@@ -0,0 +1,27 @@
+package ru.practicum.storage;
+
+import ru.practicum.dto.ViewStats;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+//Отбор первых n в памяти в том же порядке, что и StatisticSql.top: по убыванию просмотров, затем по uri
+public final class TopViews {
+
+    private static final Comparator<ViewStats> ORDER = Comparator.comparingLong(ViewStats::getHits).reversed()
+            .thenComparing(ViewStats::getUri);
+
+    private TopViews() {
+    }
+
+    public static List<ViewStats> select(Collection<ViewStats> views, String prefix, int n) {
+        return views.stream()
+                .filter(view -> prefix == null || view.getUri().startsWith(prefix))
+                .sorted(ORDER)
+                .limit(n)
+                .collect(Collectors.toList());
+    }
+
+}
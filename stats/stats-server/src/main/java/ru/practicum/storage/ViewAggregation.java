@@ -0,0 +1,129 @@
+package ru.practicum.storage;
+
+import java.util.Arrays;
+
+//Частичный результат сканирования: число просмотров или список IP на каждую группу (корзина, app, uri)
+public final class ViewAggregation {
+
+    private final boolean unique;
+
+    //(app, uri) -> номер серии, (корзина, номер серии) -> номер группы
+    private final LongIndex series = new LongIndex();
+
+    private final LongIndex groups = new LongIndex();
+
+    private long[] counts = new long[16];
+
+    private long[][] ips = new long[16][];
+
+    private int[] ipCounts = new int[16];
+
+    public ViewAggregation(boolean unique) {
+        this.unique = unique;
+    }
+
+    public void add(int bucket, int appId, int uriId, long ip) {
+        int group = groupOf(bucket, appId, uriId);
+        if (unique) {
+            addIp(group, ip);
+        } else {
+            counts[group]++;
+        }
+    }
+
+    //Повторы IP убираются только в конце, до этого списки просто дописываются
+    public ViewAggregation merge(ViewAggregation other) {
+        for (int group = 0; group < other.groups.size(); group++) {
+            long groupKey = other.groups.keyAt(group);
+            long seriesKey = other.series.keyAt((int) groupKey);
+            int target = groupOf((int) (groupKey >>> 32), (int) (seriesKey >>> 32), (int) seriesKey);
+            if (unique) {
+                for (int i = 0; i < other.ipCounts[group]; i++) {
+                    addIp(target, other.ips[group][i]);
+                }
+            } else {
+                counts[target] += other.counts[group];
+            }
+        }
+        return this;
+    }
+
+    public int size() {
+        return groups.size();
+    }
+
+    public void distinct() {
+        if (!unique) {
+            return;
+        }
+        for (int group = 0; group < groups.size(); group++) {
+            long[] list = ips[group];
+            Arrays.sort(list, 0, ipCounts[group]);
+            int size = 0;
+            for (int i = 0; i < ipCounts[group]; i++) {
+                if (size == 0 || list[size - 1] != list[i]) {
+                    list[size++] = list[i];
+                }
+            }
+            ipCounts[group] = size;
+        }
+    }
+
+    public void forEach(GroupConsumer consumer) {
+        distinct();
+        for (int group = 0; group < groups.size(); group++) {
+            long groupKey = groups.keyAt(group);
+            long seriesKey = series.keyAt((int) groupKey);
+            consumer.accept((int) (groupKey >>> 32), (int) (seriesKey >>> 32), (int) seriesKey,
+                    unique ? ipCounts[group] : counts[group]);
+        }
+    }
+
+    public void forEachIp(IpConsumer consumer) {
+        distinct();
+        for (int group = 0; group < groups.size(); group++) {
+            long seriesKey = series.keyAt((int) groups.keyAt(group));
+            for (int i = 0; i < ipCounts[group]; i++) {
+                consumer.accept((int) (seriesKey >>> 32), (int) seriesKey, ips[group][i]);
+            }
+        }
+    }
+
+    private int groupOf(int bucket, int appId, int uriId) {
+        int seriesSlot = series.slotOf(((long) appId << 32) | (uriId & 0xFFFFFFFFL));
+        int group = groups.slotOf(((long) bucket << 32) | seriesSlot);
+        if (group == counts.length) {
+            counts = Arrays.copyOf(counts, group * 2);
+            ips = Arrays.copyOf(ips, group * 2);
+            ipCounts = Arrays.copyOf(ipCounts, group * 2);
+        }
+        return group;
+    }
+
+    private void addIp(int group, long ip) {
+        long[] list = ips[group];
+        if (list == null) {
+            list = new long[4];
+            ips[group] = list;
+        } else if (ipCounts[group] == list.length) {
+            list = Arrays.copyOf(list, list.length * 2);
+            ips[group] = list;
+        }
+        list[ipCounts[group]++] = ip;
+    }
+
+    @FunctionalInterface
+    public interface GroupConsumer {
+
+        void accept(int bucket, int appId, int uriId, long hits);
+
+    }
+
+    @FunctionalInterface
+    public interface IpConsumer {
+
+        void accept(int appId, int uriId, long ip);
+
+    }
+
+}
@@ -0,0 +1,176 @@
+package ru.practicum.storage;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Множества посетителей на каждую пару (app, uri): IPv4 по int, ключи IpKey адресов IPv6 - в отдельном множестве
+ * long, которое создаётся только при первом таком адресе. Не потокобезопасно, вызывающий держит блокировку.
+ * Снимок - отображаемый в память файл: magic, version, mark, earliest, число пар и затем на каждую пару
+ * app_id, uri_id, число IPv4, число IPv6 и сами адреса. Пишется во временный файл и подменяет старый
+ * переименованием. Снимок версии 1 (только IPv4, одно число на пару) читается.
+ */
+public final class VisitorSets {
+
+    private static final int MAGIC = 0x56495354;
+
+    private static final int VERSION = 2;
+
+    private static final int VERSION_IPV4 = 1;
+
+    private static final int HEADER_BYTES = 28;
+
+    //(app, uri) -> номер множества
+    private final LongIndex keys = new LongIndex();
+
+    private IntHashSet[] sets = new IntHashSet[16];
+
+    private LongHashSet[] ipv6Sets = new LongHashSet[16];
+
+    //ip - ключ IpKey
+    public boolean add(int appId, int uriId, long ip) {
+        int slot = slotOf(appId, uriId);
+        if (IpKey.isIpv4(ip)) {
+            return sets[slot].add((int) ip);
+        }
+        if (ipv6Sets[slot] == null) {
+            ipv6Sets[slot] = new LongHashSet();
+        }
+        return ipv6Sets[slot].add(ip);
+    }
+
+    public boolean remove(int appId, int uriId, long ip) {
+        int slot = slotOf(appId, uriId);
+        if (IpKey.isIpv4(ip)) {
+            return sets[slot].remove((int) ip);
+        }
+        return ipv6Sets[slot] != null && ipv6Sets[slot].remove(ip);
+    }
+
+    public void forEach(CountConsumer consumer) {
+        for (int slot = 0; slot < keys.size(); slot++) {
+            long key = keys.keyAt(slot);
+            consumer.accept((int) (key >>> 32), (int) key, sets[slot].size() + ipv6Size(slot));
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (int slot = 0; slot < keys.size(); slot++) {
+            size += sets[slot].size() + ipv6Size(slot);
+        }
+        return size;
+    }
+
+    public void write(Path path, long mark, long earliest) throws IOException {
+        long ipv4 = 0;
+        long ipv6 = 0;
+        for (int slot = 0; slot < keys.size(); slot++) {
+            ipv4 += sets[slot].size();
+            ipv6 += ipv6Size(slot);
+        }
+        long bytes = HEADER_BYTES + 16L * keys.size() + 4 * ipv4 + 8 * ipv6;
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(VERSION).putLong(mark).putLong(earliest).putInt(keys.size());
+            for (int slot = 0; slot < keys.size(); slot++) {
+                long key = keys.keyAt(slot);
+                buffer.putInt((int) (key >>> 32)).putInt((int) key).putInt(sets[slot].size())
+                        .putInt(ipv6Size(slot));
+                sets[slot].forEach(buffer::putInt);
+                if (ipv6Sets[slot] != null) {
+                    ipv6Sets[slot].forEach(buffer::putLong);
+                }
+            }
+            buffer.force();
+        }
+        Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static Snapshot read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != MAGIC || version != VERSION && version != VERSION_IPV4) {
+                throw new IOException("Not a visitor snapshot: " + path);
+            }
+            long mark = buffer.getLong();
+            long earliest = buffer.getLong();
+            int count = buffer.getInt();
+            VisitorSets visitorSets = new VisitorSets();
+            for (int i = 0; i < count; i++) {
+                int appId = buffer.getInt();
+                int uriId = buffer.getInt();
+                int size = buffer.getInt();
+                int ipv6Size = version == VERSION_IPV4 ? 0 : buffer.getInt();
+                IntHashSet set = new IntHashSet(size);
+                for (int j = 0; j < size; j++) {
+                    set.add(buffer.getInt());
+                }
+                int slot = visitorSets.slotOf(appId, uriId);
+                visitorSets.sets[slot] = set;
+                if (ipv6Size > 0) {
+                    LongHashSet ipv6Set = new LongHashSet(ipv6Size);
+                    for (int j = 0; j < ipv6Size; j++) {
+                        ipv6Set.add(buffer.getLong());
+                    }
+                    visitorSets.ipv6Sets[slot] = ipv6Set;
+                }
+            }
+            return new Snapshot(visitorSets, mark, earliest);
+        }
+    }
+
+    private int ipv6Size(int slot) {
+        return ipv6Sets[slot] == null ? 0 : ipv6Sets[slot].size();
+    }
+
+    private int slotOf(int appId, int uriId) {
+        int slot = keys.slotOf(((long) appId << 32) | (uriId & 0xFFFFFFFFL));
+        if (slot == sets.length) {
+            sets = Arrays.copyOf(sets, slot * 2);
+            ipv6Sets = Arrays.copyOf(ipv6Sets, slot * 2);
+        }
+        if (sets[slot] == null) {
+            sets[slot] = new IntHashSet();
+        }
+        return slot;
+    }
+
+    @FunctionalInterface
+    public interface CountConsumer {
+
+        void accept(int appId, int uriId, int visitors);
+
+    }
+
+    //mark - отметка хранилища просмотров, до которой снимок полон, earliest - самый ранний просмотр в секундах эпохи
+    @Getter
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static final class Snapshot {
+
+        private final VisitorSets visitorSets;
+
+        private final long mark;
+
+        private final long earliest;
+
+    }
+
+}
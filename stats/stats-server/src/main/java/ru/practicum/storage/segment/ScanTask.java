@@ -0,0 +1,42 @@
+package ru.practicum.storage.segment;
+
+import ru.practicum.storage.ViewAggregation;
+
+import java.util.List;
+import java.util.concurrent.RecursiveTask;
+
+//Сегменты делятся пополам до одного на задачу, частичные результаты сливаются меньший в больший
+final class ScanTask extends RecursiveTask<ViewAggregation> {
+
+    private final List<Segment> segments;
+
+    private final int from;
+
+    private final int to;
+
+    private final SegmentQuery query;
+
+    ScanTask(List<Segment> segments, int from, int to, SegmentQuery query) {
+        this.segments = segments;
+        this.from = from;
+        this.to = to;
+        this.query = query;
+    }
+
+    @Override
+    protected ViewAggregation compute() {
+        if (to - from == 1) {
+            ViewAggregation aggregation = query.newAggregation();
+            segments.get(from).scan(query, aggregation);
+            aggregation.distinct();
+            return aggregation;
+        }
+        int middle = (from + to) >>> 1;
+        ScanTask left = new ScanTask(segments, from, middle, query);
+        left.fork();
+        ViewAggregation right = new ScanTask(segments, middle, to, query).compute();
+        ViewAggregation joined = left.join();
+        return joined.size() >= right.size() ? joined.merge(right) : right.merge(joined);
+    }
+
+}
@@ -0,0 +1,207 @@
+package ru.practicum.storage.segment;
+
+import ru.practicum.storage.IpKey;
+import ru.practicum.storage.ViewAggregation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Неизменяемый столбцовый файл просмотров, строки по возрастанию времени. Уровень 0 - то, что записала одна
+ * транзакция, за любой период. Уровень 1 - результат уплотнения, строго в пределах одних суток.
+ * Заголовок: magic, version, seq, level, rows, minTs, maxTs, длина столбца времени, ширина IP. Затем столбцы:
+ * время (секунды эпохи) разностями в varint, app_id и uri_id по int, ключи IpKey. Если в сегменте только IPv4,
+ * ключ занимает 4 байта, иначе 8. В сегментах версии 1 ширины IP в заголовке нет, там только IPv4 по 4 байта.
+ * Файл отображается в память целиком, чтение идёт абсолютными get, поэтому один буфер безопасно читают
+ * несколько потоков сразу.
+ */
+final class Segment {
+
+    private static final int MAGIC = 0x47455348;
+
+    private static final int VERSION = 2;
+
+    private static final int VERSION_IPV4 = 1;
+
+    private final Path path;
+
+    private final MappedByteBuffer buffer;
+
+    private final long seq;
+
+    private final int level;
+
+    private final int rows;
+
+    private final long minTimestamp;
+
+    private final long maxTimestamp;
+
+    private final int timestampOffset;
+
+    private final int appOffset;
+
+    private final int uriOffset;
+
+    private final int ipOffset;
+
+    private final int ipBytes;
+
+    private Segment(Path path, MappedByteBuffer buffer) {
+        this.path = path;
+        this.buffer = buffer;
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int version = buffer.getInt(4);
+        if (buffer.getInt(0) != MAGIC || version != VERSION && version != VERSION_IPV4) {
+            throw new IllegalStateException("Not a hit segment: " + path);
+        }
+        seq = buffer.getLong(8);
+        level = buffer.getInt(16);
+        rows = buffer.getInt(20);
+        minTimestamp = buffer.getLong(24);
+        maxTimestamp = buffer.getLong(32);
+        int timestampBytes = buffer.getInt(40);
+        ipBytes = version == VERSION_IPV4 ? 4 : buffer.getInt(44);
+        timestampOffset = version == VERSION_IPV4 ? 44 : 48;
+        appOffset = timestampOffset + timestampBytes;
+        uriOffset = appOffset + rows * 4;
+        ipOffset = uriOffset + rows * 4;
+    }
+
+    static Segment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new Segment(path, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    //rows уже отсортированы по времени. Файл сбрасывается на диск до возврата
+    static void write(Path path, long seq, int level, SegmentRows rows) throws IOException {
+        ByteBuffer timestamps = ByteBuffer.allocate(rows.size() * 10);
+        long previous = rows.size() == 0 ? 0 : rows.timestamp(0);
+        for (int row = 0; row < rows.size(); row++) {
+            long delta = rows.timestamp(row) - previous;
+            previous = rows.timestamp(row);
+            while ((delta & ~0x7FL) != 0) {
+                timestamps.put((byte) ((delta & 0x7F) | 0x80));
+                delta >>>= 7;
+            }
+            timestamps.put((byte) delta);
+        }
+        timestamps.flip();
+        int ipBytes = 4;
+        for (int row = 0; row < rows.size() && ipBytes == 4; row++) {
+            if (!IpKey.isIpv4(rows.ip(row))) {
+                ipBytes = 8;
+            }
+        }
+        ByteBuffer file = ByteBuffer.allocate(48 + timestamps.remaining() + rows.size() * (8 + ipBytes))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(MAGIC).putInt(VERSION).putLong(seq).putInt(level).putInt(rows.size())
+                .putLong(rows.size() == 0 ? 0 : rows.timestamp(0))
+                .putLong(rows.size() == 0 ? 0 : rows.timestamp(rows.size() - 1))
+                .putInt(timestamps.remaining()).putInt(ipBytes).put(timestamps);
+        for (int row = 0; row < rows.size(); row++) {
+            file.putInt(rows.appId(row));
+        }
+        for (int row = 0; row < rows.size(); row++) {
+            file.putInt(rows.uriId(row));
+        }
+        for (int row = 0; row < rows.size(); row++) {
+            if (ipBytes == 4) {
+                file.putInt((int) rows.ip(row));
+            } else {
+                file.putLong(rows.ip(row));
+            }
+        }
+        file.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (file.hasRemaining()) {
+                channel.write(file);
+            }
+            channel.force(true);
+        }
+    }
+
+    //Строки, попавшие в диапазоны запроса. Время растёт, поэтому после конца последнего диапазона чтение обрывается
+    void scan(SegmentQuery query, ViewAggregation aggregation) {
+        int position = timestampOffset;
+        long timestamp = minTimestamp;
+        int range = 0;
+        for (int row = 0; row < rows; row++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            timestamp += delta;
+            while (range < query.rangeCount() && timestamp >= query.to(range)) {
+                range++;
+            }
+            if (range == query.rangeCount()) {
+                return;
+            }
+            if (timestamp < query.from(range)) {
+                continue;
+            }
+            int uriId = buffer.getInt(uriOffset + row * 4);
+            if (!query.matchesUri(uriId)) {
+                continue;
+            }
+            aggregation.add(query.bucketOf(timestamp), buffer.getInt(appOffset + row * 4), uriId, ip(row));
+        }
+    }
+
+    void readInto(SegmentRows target) {
+        int position = timestampOffset;
+        long timestamp = minTimestamp;
+        for (int row = 0; row < rows; row++) {
+            long delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buffer.get(position++);
+                delta |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            timestamp += delta;
+            target.add(timestamp, buffer.getInt(appOffset + row * 4), buffer.getInt(uriOffset + row * 4), ip(row));
+        }
+    }
+
+    private long ip(int row) {
+        return ipBytes == 4 ? buffer.getInt(ipOffset + row * 4) & 0xFFFFFFFFL : buffer.getLong(ipOffset + row * 8);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getSeq() {
+        return seq;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    int getRows() {
+        return rows;
+    }
+
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+}
@@ -0,0 +1,534 @@
+package ru.practicum.storage.segment;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.Hit;
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+import ru.practicum.repository.SegmentCommitRepository;
+import ru.practicum.service.DictionaryService;
+import ru.practicum.storage.HitStorage;
+import ru.practicum.storage.IpKey;
+import ru.practicum.storage.TopViews;
+import ru.practicum.storage.ViewAggregation;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/*
+ * Просмотры в неизменяемых столбцовых файлах (stats.storage.type=segment).
+ * Каждая транзакция записи пишет один сегмент и сбрасывает его на диск ещё до фиксации, а в той же транзакции
+ * БД записывает его номер в segment_commit. Живым сегмент становится записью в MANIFEST после фиксации -
+ * вместе с агрегатами, которые обновили слушатели. При запуске файл, которого нет в MANIFEST, публикуется,
+ * если его номер есть в segment_commit (сбой между фиксацией и MANIFEST), иначе удаляется (откат, сбой
+ * до фиксации, остатки уплотнения). Файлы с другими именами не удаляются. Фоновое уплотнение раскладывает свежие
+ * сегменты по суткам и сливает их с мелкими сегментами тех же суток - по расписанию и сразу, как только
+ * свежих сегментов набирается compaction-max-fresh: одиночные /hit дают по сегменту на просмотр, и без этого
+ * их число (а с ним длина MANIFEST, переписываемого при каждой публикации, и число отображённых файлов)
+ * росло бы до планового уплотнения. Мелкие записи лучше собирать ещё до сегмента через
+ * stats.ingest.write-behind. Запросы читают сегменты параллельно в отдельном ForkJoinPool.
+ */
+@Component
+@ConditionalOnProperty(name = "stats.storage.type", havingValue = "segment")
+@Slf4j
+public class SegmentHitStorage implements HitStorage {
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    private static final String MANIFEST = "MANIFEST";
+
+    private static final String MANIFEST_TEMP = "MANIFEST.tmp";
+
+    //Имя из fileName: номер не короче 12 цифр
+    private static final Pattern SEGMENT_NAME = Pattern.compile("^\\d{12,}\\.seg$");
+
+    private static final long SECONDS_PER_DAY = 86400;
+
+    private final DictionaryService dictionaryService;
+
+    private final SegmentCommitRepository segmentCommitRepository;
+
+    private final Path directory;
+
+    private final ForkJoinPool pool;
+
+    private final int compactionMaxRows;
+
+    private final int compactionMaxFresh;
+
+    //Уплотнение по числу свежих сегментов, вне потока фиксации
+    private final ExecutorService compactor;
+
+    private final AtomicBoolean compactionQueued = new AtomicBoolean();
+
+    //Два уплотнения одновременно взяли бы одни и те же свежие сегменты
+    private final Object compaction = new Object();
+
+    private final int retentionMonths;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    //Копируется при каждом изменении, запрос работает со снимком
+    private volatile List<Segment> segments = List.of();
+
+    //Зафиксированные сегменты, которые не удалось внести в MANIFEST: повторяются перед уплотнением
+    private final ConcurrentLinkedQueue<Path> unpublished = new ConcurrentLinkedQueue<>();
+
+    public SegmentHitStorage(DictionaryService dictionaryService,
+                             SegmentCommitRepository segmentCommitRepository,
+                             @Value("${stats.storage.segment.directory:data/segments}") String directory,
+                             @Value("${stats.storage.segment.parallelism:0}") int parallelism,
+                             @Value("${stats.storage.segment.compaction-max-rows:1000000}") int compactionMaxRows,
+                             @Value("${stats.storage.segment.compaction-max-fresh:64}") int compactionMaxFresh,
+                             @Value("${stats.retention.months:0}") int retentionMonths) {
+        this.dictionaryService = dictionaryService;
+        this.segmentCommitRepository = segmentCommitRepository;
+        this.directory = Paths.get(directory);
+        this.pool = new ForkJoinPool(parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+        this.compactionMaxRows = compactionMaxRows;
+        this.compactionMaxFresh = compactionMaxFresh;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "segment-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.retentionMonths = retentionMonths;
+    }
+
+    @PostConstruct
+    public void load() throws IOException {
+        Files.createDirectories(directory);
+        Path manifest = directory.resolve(MANIFEST);
+        Set<String> live = Files.exists(manifest) ? new HashSet<>(Files.readAllLines(manifest)) : Set.of();
+        Set<Long> committed = segmentCommitRepository.findAll();
+        List<Segment> loaded = new ArrayList<>();
+        List<Segment> recovered = new ArrayList<>();
+        long rows = 0;
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                String name = file.getFileName().toString();
+                if (name.equals(MANIFEST)) {
+                    continue;
+                }
+                boolean ours = Files.isRegularFile(file)
+                        && (SEGMENT_NAME.matcher(name).matches() || name.equals(MANIFEST_TEMP));
+                //Чужие файлы в каталоге (README, резервные копии, общий каталог данных) не трогаем
+                if (!ours) {
+                    log.warn("Skipping {} in hit segment directory: not a segment file", file);
+                    continue;
+                }
+                boolean wasCommitted = !live.contains(name) && committed.contains(seqOf(name));
+                if (live.contains(name) || wasCommitted) {
+                    Segment segment = Segment.open(file);
+                    sequence.accumulateAndGet(segment.getSeq(), Math::max);
+                    (wasCommitted ? recovered : loaded).add(segment);
+                    rows += segment.getRows();
+                } else {
+                    Files.delete(file);
+                }
+            }
+        }
+        segments = List.copyOf(loaded);
+        if (!recovered.isEmpty()) {
+            replace(List.of(), recovered);
+            log.warn("Published {} hit segments committed before the last shutdown but missing from MANIFEST",
+                    recovered.size());
+        }
+        segmentCommitRepository.deleteAll();
+        log.info("Loaded {} hit segments with {} rows from {}", segments.size(), rows, directory.toAbsolutePath());
+    }
+
+    @PreDestroy
+    public void close() {
+        compactor.shutdown();
+        pool.shutdown();
+    }
+
+    @Override
+    public void save(Hit hit) {
+        saveAll(List.of(hit));
+    }
+
+    @Override
+    public void saveAll(List<Hit> hits) {
+        if (hits.isEmpty()) {
+            return;
+        }
+        SegmentRows rows = new SegmentRows(hits.size());
+        for (Hit hit : hits) {
+            rows.add(SegmentQuery.epochSecond(hit.getTimestamp()), hit.getAppId(), hit.getUriId(),
+                    IpKey.of(hit.getAddress()));
+        }
+        long seq = sequence.incrementAndGet();
+        Path path = directory.resolve(fileName(seq));
+        //Файл на диске до фиксации: ошибка записи откатывает транзакцию, а не теряет уже принятые просмотры
+        try {
+            Segment.write(path, seq, 0, rows.sorted());
+            syncDirectory();
+        } catch (IOException e) {
+            delete(path);
+            throw new UncheckedIOException(e);
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            if (!publish(path)) {
+                delete(path);
+                throw new UncheckedIOException(new IOException("Could not publish hit segment " + path));
+            }
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status != STATUS_COMMITTED) {
+                    delete(path);
+                } else if (publish(path)) {
+                    forget(seq);
+                } else {
+                    unpublished.add(path);
+                }
+            }
+        });
+        segmentCommitRepository.insert(seq);
+    }
+
+    @Override
+    public List<ViewStats> getViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique) {
+        List<ViewStats> views = new ArrayList<>();
+        aggregate(SegmentQuery.of(ranges, uriIds, unique)).forEach((bucket, appId, uriId, hits) ->
+                views.add(new ViewStats(dictionaryService.nameOf(DictionaryType.APP, appId),
+                        dictionaryService.nameOf(DictionaryType.URI, uriId), hits)));
+        views.sort((a, b) -> Long.compare(b.getHits(), a.getHits()));
+        return views;
+    }
+
+    //Результат всё равно собирается в памяти целиком, курсора здесь нет
+    @Override
+    public void streamViews(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique,
+                            Consumer<ViewStats> consumer) {
+        getViews(ranges, uriIds, unique).forEach(consumer);
+    }
+
+    @Override
+    public List<ViewStats> findTopViews(List<TimeRange> ranges, boolean unique, String prefix, int n) {
+        return TopViews.select(getViews(ranges, Set.of(), unique), prefix, n);
+    }
+
+    @Override
+    public void forEachBucketedView(RollupResolution bucket, List<TimeRange> ranges, Set<Integer> uriIds,
+                                    boolean unique, BucketedViewConsumer consumer) {
+        SegmentQuery query = SegmentQuery.bucketed(bucket, ranges, uriIds, unique);
+        aggregate(query).forEach((index, appId, uriId, hits) ->
+                consumer.accept(query.bucketStart(index), appId, uriId, hits));
+    }
+
+    @Override
+    public void forEachDistinctIp(List<TimeRange> ranges, Set<Integer> uriIds, DistinctIpConsumer consumer) {
+        aggregate(SegmentQuery.of(ranges, uriIds, true)).forEachIp(consumer::accept);
+    }
+
+    @Override
+    public void forEachHit(List<TimeRange> ranges, HitConsumer consumer) {
+        SegmentQuery query = SegmentQuery.of(ranges, Set.of(), false);
+        for (Segment segment : segments) {
+            if (query.overlaps(segment)) {
+                forEachRow(segment, (timestamp, appId, uriId, ip) -> {
+                    if (query.contains(timestamp)) {
+                        consumer.accept(SegmentQuery.dateTime(timestamp), appId, uriId, ip);
+                    }
+                });
+            }
+        }
+    }
+
+    //Номер сегмента. Уплотнение переписывает старые строки в сегменты с новыми номерами, поэтому после
+    //него forEachHitSince отдаёт и часть уже виденных просмотров
+    @Override
+    public long findIngestMark() {
+        return segments.stream()
+                .mapToLong(Segment::getSeq)
+                .max()
+                .orElse(0);
+    }
+
+    @Override
+    public void forEachHitSince(long mark, HitConsumer consumer) {
+        for (Segment segment : segments) {
+            if (segment.getSeq() > mark) {
+                forEachRow(segment, (timestamp, appId, uriId, ip) ->
+                        consumer.accept(SegmentQuery.dateTime(timestamp), appId, uriId, ip));
+            }
+        }
+    }
+
+    @Override
+    public LocalDateTime findLatestView() {
+        OptionalLong latest = segments.stream()
+                .filter(segment -> segment.getRows() > 0)
+                .mapToLong(Segment::getMaxTimestamp)
+                .max();
+        return latest.isPresent() ? SegmentQuery.dateTime(latest.getAsLong()) : null;
+    }
+
+    @Override
+    public boolean isStoredInDatabase() {
+        return false;
+    }
+
+    //Свежие сегменты раскладываются по суткам вместе с мелкими сегментами тех же суток. Сутки больше
+    //compaction-max-rows делятся на несколько сегментов
+    @Scheduled(fixedDelayString = "${stats.storage.segment.compaction-interval-ms:60000}")
+    public void compact() {
+        compact(true);
+    }
+
+    //Уплотнение по числу свежих сегментов только раскладывает их по суткам, а мелкие сегменты суток сливает,
+    //когда их набирается compaction-max-fresh: иначе сегмент суток переписывался бы через каждые несколько
+    //десятков /hit. Плановое сливает все мелкие сегменты суток, у которых есть свежие строки или соседи
+    private void compact(boolean full) {
+        synchronized (compaction) {
+            retryPublish();
+            dropExpired();
+            List<Segment> fresh = new ArrayList<>();
+            Map<Long, List<Segment>> small = new TreeMap<>();
+            for (Segment segment : segments) {
+                if (segment.getLevel() == 0) {
+                    fresh.add(segment);
+                } else if (segment.getRows() < compactionMaxRows) {
+                    small.computeIfAbsent(Math.floorDiv(segment.getMinTimestamp(), SECONDS_PER_DAY),
+                            day -> new ArrayList<>()).add(segment);
+                }
+            }
+            Map<Long, SegmentRows> days = new TreeMap<>();
+            for (Segment segment : fresh) {
+                SegmentRows rows = new SegmentRows(segment.getRows());
+                segment.readInto(rows);
+                for (int row = 0; row < rows.size(); row++) {
+                    long timestamp = rows.timestamp(row);
+                    days.computeIfAbsent(Math.floorDiv(timestamp, SECONDS_PER_DAY), day -> new SegmentRows(16))
+                            .add(timestamp, rows.appId(row), rows.uriId(row), rows.ip(row));
+                }
+            }
+            List<Segment> inputs = new ArrayList<>(fresh);
+            small.forEach((day, daySegments) -> {
+                boolean merge = full
+                        ? days.containsKey(day) || daySegments.size() > 1
+                        : daySegments.size() >= compactionMaxFresh;
+                if (merge) {
+                    SegmentRows rows = days.computeIfAbsent(day, key -> new SegmentRows(16));
+                    daySegments.forEach(segment -> segment.readInto(rows));
+                    inputs.addAll(daySegments);
+                }
+            });
+            if (inputs.isEmpty()) {
+                return;
+            }
+            List<Segment> outputs = new ArrayList<>();
+            try {
+                for (SegmentRows day : days.values()) {
+                    SegmentRows sorted = day.sorted();
+                    for (int from = 0; from < sorted.size(); from += compactionMaxRows) {
+                        int to = Math.min(from + compactionMaxRows, sorted.size());
+                        long seq = sequence.incrementAndGet();
+                        Path path = directory.resolve(fileName(seq));
+                        Segment.write(path, seq, 1, sorted.slice(from, to));
+                        outputs.add(Segment.open(path));
+                    }
+                }
+                replace(inputs, outputs);
+            } catch (IOException e) {
+                outputs.forEach(segment -> delete(segment.getPath()));
+                log.warn("Could not compact {} hit segments: {}", inputs.size(), e.getMessage());
+                return;
+            }
+            log.debug("Compacted {} hit segments with {} rows into {}", inputs.size(),
+                    days.values().stream().mapToInt(SegmentRows::size).sum(), outputs.size());
+        }
+    }
+
+    private void forEachRow(Segment segment, RowConsumer consumer) {
+        SegmentRows rows = new SegmentRows(segment.getRows());
+        segment.readInto(rows);
+        for (int row = 0; row < rows.size(); row++) {
+            consumer.accept(rows.timestamp(row), rows.appId(row), rows.uriId(row), rows.ip(row));
+        }
+    }
+
+    private ViewAggregation aggregate(SegmentQuery query) {
+        List<Segment> matching = segments.stream()
+                .filter(query::overlaps)
+                .collect(Collectors.toList());
+        if (matching.isEmpty()) {
+            return query.newAggregation();
+        }
+        return pool.invoke(new ScanTask(matching, 0, matching.size(), query));
+    }
+
+    private void dropExpired() {
+        if (retentionMonths <= 0) {
+            return;
+        }
+        long cutoff = SegmentQuery.epochSecond(YearMonth.now().minusMonths(retentionMonths).atDay(1).atStartOfDay());
+        List<Segment> expired = segments.stream()
+                .filter(segment -> segment.getMaxTimestamp() < cutoff)
+                .collect(Collectors.toList());
+        if (expired.isEmpty()) {
+            return;
+        }
+        try {
+            replace(expired, List.of());
+            log.info("Dropped {} hit segments older than {}", expired.size(), SegmentQuery.dateTime(cutoff));
+        } catch (IOException e) {
+            log.warn("Could not drop expired hit segments: {}", e.getMessage());
+        }
+    }
+
+    //Транзакция БД уже зафиксирована, откатить её нельзя. Неопубликованный сегмент остаётся на диске
+    //и в segment_commit: его подхватит следующая попытка или запуск
+    private boolean publish(Path path) {
+        try {
+            replace(List.of(), List.of(Segment.open(path)));
+            compactIfCrowded();
+            return true;
+        } catch (IOException e) {
+            log.error("Could not publish hit segment {}, will retry", path, e);
+            return false;
+        }
+    }
+
+    private void compactIfCrowded() {
+        long fresh = segments.stream()
+                .filter(segment -> segment.getLevel() == 0)
+                .count();
+        if (fresh < compactionMaxFresh || compactor.isShutdown() || !compactionQueued.compareAndSet(false, true)) {
+            return;
+        }
+        compactor.execute(() -> {
+            compactionQueued.set(false);
+            try {
+                compact(false);
+            } catch (RuntimeException e) {
+                log.warn("Could not compact hit segments: {}", e.getMessage());
+            }
+        });
+    }
+
+    private void retryPublish() {
+        for (int i = unpublished.size(); i > 0; i--) {
+            Path path = unpublished.poll();
+            if (path == null) {
+                return;
+            }
+            if (publish(path)) {
+                forget(seqOf(path.getFileName().toString()));
+            } else {
+                unpublished.add(path);
+            }
+        }
+    }
+
+    //Сегмент уже в MANIFEST; оставшаяся строка безвредна и удаляется при запуске
+    private void forget(long seq) {
+        try {
+            segmentCommitRepository.delete(seq);
+        } catch (RuntimeException e) {
+            log.warn("Could not clear commit record of hit segment {}: {}", seq, e.getMessage());
+        }
+    }
+
+    //Новый MANIFEST подменяет старый атомарным переименованием. Удалённый файл остаётся отображённым,
+    //пока на сегмент ссылаются уже начатые запросы
+    private synchronized void replace(List<Segment> removed, List<Segment> added) throws IOException {
+        List<Segment> next = new ArrayList<>(segments);
+        next.removeAll(removed);
+        next.addAll(added);
+        Path temp = directory.resolve(MANIFEST_TEMP);
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            StringBuilder names = new StringBuilder();
+            for (Segment segment : next) {
+                names.append(segment.getPath().getFileName()).append('\n');
+            }
+            ByteBuffer bytes = ByteBuffer.wrap(names.toString().getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(true);
+        }
+        Files.move(temp, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+        segments = List.copyOf(next);
+        removed.forEach(segment -> delete(segment.getPath()));
+    }
+
+    private void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Could not delete hit segment {}: {}", path, e.getMessage());
+        }
+    }
+
+    //Новое имя в каталоге (сегмент, переименованный MANIFEST) переживает сбой только после fsync каталога
+    private void syncDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private String fileName(long seq) {
+        return String.format("%012d", seq) + SEGMENT_SUFFIX;
+    }
+
+    //-1 для чужого файла
+    private static long seqOf(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(0, fileName.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowConsumer {
+
+        void accept(long timestamp, int appId, int uriId, long ip);
+
+    }
+
+}
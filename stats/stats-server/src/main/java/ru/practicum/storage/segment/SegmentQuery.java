@@ -0,0 +1,114 @@
+package ru.practicum.storage.segment;
+
+import ru.practicum.model.RollupResolution;
+import ru.practicum.model.TimeRange;
+import ru.practicum.storage.ViewAggregation;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+//Условия чтения сегментов во времени эпохи: отсортированные полуинтервалы, набор uri и размер корзины
+final class SegmentQuery {
+
+    private final long[] from;
+
+    private final long[] to;
+
+    //Пустой массив - без фильтра по uri
+    private final int[] uriIds;
+
+    private final boolean unique;
+
+    private final long bucketOrigin;
+
+    //0 - без разбиения по корзинам
+    private final long bucketSeconds;
+
+    private SegmentQuery(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique, RollupResolution bucket) {
+        TimeRange[] sorted = ranges.toArray(new TimeRange[0]);
+        Arrays.sort(sorted, Comparator.comparing(TimeRange::getFrom));
+        from = new long[sorted.length];
+        to = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            from[i] = epochSecond(sorted[i].getFrom());
+            to[i] = epochSecond(sorted[i].getTo());
+        }
+        this.uriIds = uriIds.stream().mapToInt(Integer::intValue).sorted().toArray();
+        this.unique = unique;
+        if (bucket != null && sorted.length > 0) {
+            bucketOrigin = epochSecond(bucket.floor(sorted[0].getFrom()));
+            bucketSeconds = bucket.seconds();
+        } else {
+            bucketOrigin = 0;
+            bucketSeconds = 0;
+        }
+    }
+
+    static SegmentQuery of(List<TimeRange> ranges, Set<Integer> uriIds, boolean unique) {
+        return new SegmentQuery(ranges, uriIds, unique, null);
+    }
+
+    static SegmentQuery bucketed(RollupResolution bucket, List<TimeRange> ranges, Set<Integer> uriIds,
+                                 boolean unique) {
+        return new SegmentQuery(ranges, uriIds, unique, bucket);
+    }
+
+    static long epochSecond(LocalDateTime dateTime) {
+        return dateTime.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static LocalDateTime dateTime(long epochSecond) {
+        return LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+    }
+
+    boolean overlaps(Segment segment) {
+        for (int i = 0; i < from.length; i++) {
+            if (segment.getMinTimestamp() < to[i] && segment.getMaxTimestamp() >= from[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    boolean contains(long epochSecond) {
+        for (int i = 0; i < from.length; i++) {
+            if (epochSecond >= from[i] && epochSecond < to[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int rangeCount() {
+        return from.length;
+    }
+
+    long from(int range) {
+        return from[range];
+    }
+
+    long to(int range) {
+        return to[range];
+    }
+
+    boolean matchesUri(int uriId) {
+        return uriIds.length == 0 || Arrays.binarySearch(uriIds, uriId) >= 0;
+    }
+
+    int bucketOf(long epochSecond) {
+        return bucketSeconds == 0 ? 0 : (int) ((epochSecond - bucketOrigin) / bucketSeconds);
+    }
+
+    LocalDateTime bucketStart(int bucket) {
+        return dateTime(bucketOrigin + bucket * bucketSeconds);
+    }
+
+    ViewAggregation newAggregation() {
+        return new ViewAggregation(unique);
+    }
+
+}
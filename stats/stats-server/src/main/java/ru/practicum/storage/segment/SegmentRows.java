@@ -0,0 +1,89 @@
+package ru.practicum.storage.segment;
+
+import java.util.Arrays;
+
+//Столбцы просмотров в памяти: из них пишется новый сегмент, в них же читаются сегменты при уплотнении
+final class SegmentRows {
+
+    private long[] timestamps;
+
+    private int[] appIds;
+
+    private int[] uriIds;
+
+    private long[] ips;
+
+    private int size;
+
+    SegmentRows(int capacity) {
+        capacity = Math.max(capacity, 1);
+        timestamps = new long[capacity];
+        appIds = new int[capacity];
+        uriIds = new int[capacity];
+        ips = new long[capacity];
+    }
+
+    void add(long timestamp, int appId, int uriId, long ip) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            appIds = Arrays.copyOf(appIds, capacity);
+            uriIds = Arrays.copyOf(uriIds, capacity);
+            ips = Arrays.copyOf(ips, capacity);
+        }
+        timestamps[size] = timestamp;
+        appIds[size] = appId;
+        uriIds[size] = uriId;
+        ips[size] = ip;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long timestamp(int row) {
+        return timestamps[row];
+    }
+
+    int appId(int row) {
+        return appIds[row];
+    }
+
+    int uriId(int row) {
+        return uriIds[row];
+    }
+
+    long ip(int row) {
+        return ips[row];
+    }
+
+    SegmentRows slice(int from, int to) {
+        SegmentRows slice = new SegmentRows(to - from);
+        for (int row = from; row < to; row++) {
+            slice.add(timestamps[row], appIds[row], uriIds[row], ips[row]);
+        }
+        return slice;
+    }
+
+    //Строки по возрастанию времени. Смещение от минимума (меньше 2^31 секунд) и номер строки упаковываются
+    //в один long и сортируются без объектов
+    SegmentRows sorted() {
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < size; row++) {
+            min = Math.min(min, timestamps[row]);
+        }
+        long[] order = new long[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = (timestamps[row] - min) << 32 | row;
+        }
+        Arrays.sort(order);
+        SegmentRows sorted = new SegmentRows(size);
+        for (long packed : order) {
+            int row = (int) packed;
+            sorted.add(timestamps[row], appIds[row], uriIds[row], ips[row]);
+        }
+        return sorted;
+    }
+
+}
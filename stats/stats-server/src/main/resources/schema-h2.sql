@@ -0,0 +1,8 @@
+CREATE TABLE IF NOT EXISTS statistic (
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    ip BYTEA NOT NULL,
+    view_date TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_user PRIMARY KEY (id)
+);
@@ -0,0 +1,95 @@
+-- До словарей app и uri хранились строками. Просмотры переводятся на идентификаторы на месте, а агрегаты
+-- и скетчи со строковыми ключами удаляются: при старте они строятся заново из просмотров
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_name = ''statistic''
+               AND column_name = ''app'') THEN
+        CREATE TABLE IF NOT EXISTS apps (
+            id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+            name VARCHAR(255) NOT NULL,
+            CONSTRAINT pk_apps PRIMARY KEY (id),
+            CONSTRAINT uq_apps_name UNIQUE (name)
+        );
+        CREATE TABLE IF NOT EXISTS uris (
+            id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+            name VARCHAR(255) NOT NULL,
+            CONSTRAINT pk_uris PRIMARY KEY (id),
+            CONSTRAINT uq_uris_name UNIQUE (name)
+        );
+        INSERT INTO apps (name) SELECT DISTINCT app FROM statistic ON CONFLICT (name) DO NOTHING;
+        INSERT INTO uris (name) SELECT DISTINCT uri FROM statistic ON CONFLICT (name) DO NOTHING;
+        ALTER TABLE statistic ADD COLUMN app_id INT, ADD COLUMN uri_id INT;
+        UPDATE statistic s SET app_id = a.id, uri_id = u.id
+            FROM apps a, uris u
+            WHERE a.name = s.app AND u.name = s.uri;
+        ALTER TABLE statistic ALTER COLUMN app_id SET NOT NULL, ALTER COLUMN uri_id SET NOT NULL,
+            DROP COLUMN app, DROP COLUMN uri;
+    END IF;
+    IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_name = ''statistic_rollup''
+               AND column_name = ''app'') THEN
+        DROP TABLE statistic_rollup;
+    END IF;
+    IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_name = ''statistic_hll''
+               AND column_name = ''app'') THEN
+        DROP TABLE statistic_hll;
+    END IF;
+END';
+
+-- IP раньше хранились строкой. Все они IPv4 (другие не проходили проверку) и переводятся в 4 байта.
+-- Скетчи HLL считались по хэшу строки и строятся заново при старте
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_name = ''statistic''
+               AND column_name = ''ip'' AND data_type = ''character varying'') THEN
+        ALTER TABLE statistic ALTER COLUMN ip TYPE BYTEA
+            USING decode(lpad(to_hex(ip::inet - ''0.0.0.0''::inet), 8, ''0''), ''hex'');
+        IF to_regclass(''statistic_hll'') IS NOT NULL THEN
+            DELETE FROM statistic_hll;
+        END IF;
+    END IF;
+    IF EXISTS (SELECT 1 FROM information_schema.columns WHERE table_name = ''uri_visitor''
+               AND column_name = ''ip'' AND data_type = ''character varying'') THEN
+        ALTER TABLE uri_visitor ALTER COLUMN ip TYPE BYTEA
+            USING decode(lpad(to_hex(ip::inet - ''0.0.0.0''::inet), 8, ''0''), ''hex'');
+    END IF;
+END';
+
+-- До помесячных секций таблица просмотров была обычной. Она откладывается в сторону вместе с именами ключа
+-- и последовательности, а после создания секционированной таблицы переносится в неё по месяцам
+DO '
+BEGIN
+    IF EXISTS (SELECT 1 FROM pg_class WHERE relname = ''statistic'' AND relkind = ''r'') THEN
+        ALTER TABLE statistic RENAME TO statistic_unpartitioned;
+        ALTER TABLE statistic_unpartitioned RENAME CONSTRAINT pk_user TO pk_statistic_unpartitioned;
+        EXECUTE ''ALTER SEQUENCE '' || pg_get_serial_sequence(''statistic_unpartitioned'', ''id'')
+            || '' RENAME TO statistic_unpartitioned_id_seq'';
+    END IF;
+END';
+
+CREATE TABLE IF NOT EXISTS statistic (
+    id BIGSERIAL NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    ip BYTEA NOT NULL,
+    view_date TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_user PRIMARY KEY (id, view_date)
+) PARTITION BY RANGE (view_date);
+
+CREATE TABLE IF NOT EXISTS statistic_default PARTITION OF statistic DEFAULT;
+
+DO '
+DECLARE
+    first_day DATE;
+BEGIN
+    IF to_regclass(''statistic_unpartitioned'') IS NOT NULL THEN
+        FOR first_day IN SELECT DISTINCT date_trunc(''month'', view_date)::date FROM statistic_unpartitioned LOOP
+            EXECUTE format(''CREATE TABLE IF NOT EXISTS %I PARTITION OF statistic FOR VALUES FROM (%L) TO (%L)'',
+                to_char(first_day, ''"statistic_y"YYYY"m"MM''), first_day, first_day + INTERVAL ''1 month'');
+        END LOOP;
+        INSERT INTO statistic (id, app_id, uri_id, ip, view_date)
+            SELECT id, app_id, uri_id, ip, view_date FROM statistic_unpartitioned;
+        PERFORM setval(pg_get_serial_sequence(''statistic'', ''id''),
+            GREATEST((SELECT MAX(id) FROM statistic), 1));
+        DROP TABLE statistic_unpartitioned;
+    END IF;
+END';
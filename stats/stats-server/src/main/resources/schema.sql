@@ -1,8 +1,79 @@
-CREATE TABLE IF NOT EXISTS statistic (
-    id BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
-    app VARCHAR(255) NOT NULL,
-    uri VARCHAR(255) NOT NULL,
-    ip VARCHAR(15) NOT NULL,
-    view_date TIMESTAMP WITHOUT TIME ZONE NOT NULL,
-    CONSTRAINT pk_user PRIMARY KEY (id)
-);
\ No newline at end of file
+CREATE TABLE IF NOT EXISTS apps (
+    id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    CONSTRAINT pk_apps PRIMARY KEY (id),
+    CONSTRAINT uq_apps_name UNIQUE (name)
+);
+
+CREATE TABLE IF NOT EXISTS uris (
+    id INT GENERATED BY DEFAULT AS IDENTITY NOT NULL,
+    name VARCHAR(255) NOT NULL,
+    CONSTRAINT pk_uris PRIMARY KEY (id),
+    CONSTRAINT uq_uris_name UNIQUE (name)
+);
+
+CREATE INDEX IF NOT EXISTS idx_statistic_view_date ON statistic (view_date);
+
+DROP INDEX IF EXISTS idx_statistic_uri_id_view_date;
+
+CREATE INDEX IF NOT EXISTS idx_statistic_uri_id_view_date_ip ON statistic (uri_id, view_date, ip);
+
+CREATE TABLE IF NOT EXISTS statistic_rollup (
+    resolution VARCHAR(6) NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    CONSTRAINT pk_statistic_rollup PRIMARY KEY (resolution, bucket_start, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS statistic_hll (
+    resolution VARCHAR(6) NOT NULL,
+    bucket_start TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    sketch BYTEA NOT NULL,
+    CONSTRAINT pk_statistic_hll PRIMARY KEY (resolution, bucket_start, app_id, uri_id)
+);
+
+CREATE TABLE IF NOT EXISTS uri_visitor (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    ip BYTEA NOT NULL,
+    first_seen TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_uri_visitor PRIMARY KEY (app_id, uri_id, ip)
+);
+
+CREATE TABLE IF NOT EXISTS uri_unique_count (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    visitors BIGINT NOT NULL,
+    CONSTRAINT pk_uri_unique_count PRIMARY KEY (app_id, uri_id)
+);
+
+DROP TABLE IF EXISTS ingest_watermark;
+
+CREATE SEQUENCE IF NOT EXISTS ingest_version;
+
+CREATE TABLE IF NOT EXISTS uri_total (
+    app_id INT NOT NULL,
+    uri_id INT NOT NULL,
+    hits BIGINT NOT NULL,
+    version BIGINT NOT NULL,
+    CONSTRAINT pk_uri_total PRIMARY KEY (app_id, uri_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_uri_total_version ON uri_total (version);
+
+CREATE TABLE IF NOT EXISTS hit_key (
+    hit_id VARCHAR(64) NOT NULL,
+    received_at TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    CONSTRAINT pk_hit_key PRIMARY KEY (hit_id)
+);
+
+CREATE INDEX IF NOT EXISTS idx_hit_key_received_at ON hit_key (received_at);
+
+CREATE TABLE IF NOT EXISTS segment_commit (
+    seq BIGINT NOT NULL,
+    CONSTRAINT pk_segment_commit PRIMARY KEY (seq)
+);
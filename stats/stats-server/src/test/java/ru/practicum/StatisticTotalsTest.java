@@ -0,0 +1,190 @@
+package ru.practicum;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.client.TestRestTemplate;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import ru.practicum.dto.EndpointHit;
+import ru.practicum.dto.HitStatus;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.service.PartitionMaintenanceService;
+
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.YearMonth;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//Итоги /stats должны совпадать, каким бы путём их ни считал сервер: агрегаты и края по сырым просмотрам,
+//горячее окно в памяти, таблица уникальных посетителей. Ожидаемое считается здесь же по отправленным просмотрам.
+//Срок хранения отсекает январь 2024: после удаления по сроку все пути должны его одинаково не видеть
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@ActiveProfiles("test")
+@DirtiesContext
+class StatisticTotalsTest {
+
+    private static final String APP = "ewm-main-service";
+
+    private static final LocalDateTime HISTORY_START = LocalDateTime.of(2024, 1, 1, 0, 0);
+
+    private static final YearMonth FIRST_KEPT = YearMonth.of(2024, 2);
+
+    //Снимок посетителей и сегменты не должны попасть в каталог модуля. JUnit удаляет каталог после того,
+    //как @DirtiesContext закроет контекст и тот допишет снимок. Экземпляр теста на каждый метод:
+    //при PER_CLASS контекст поднимался бы раньше, чем JUnit заполнит статическое поле
+    @TempDir
+    static Path data;
+
+    private static final List<EndpointHit> HITS = new ArrayList<>();
+
+    //Время отправки с точностью до минуты: последние три часа до него лежат в горячем окне
+    private static LocalDateTime now;
+
+    @Autowired
+    private TestRestTemplate restTemplate;
+
+    @Autowired
+    private PartitionMaintenanceService partitionMaintenanceService;
+
+    @DynamicPropertySource
+    static void dataFiles(DynamicPropertyRegistry registry) {
+        registry.add("stats.visitors.snapshot-file", () -> data.resolve("visitors.snapshot").toString());
+        registry.add("stats.storage.segment.directory", () -> data.resolve("segments").toString());
+        registry.add("stats.retention.months", () -> ChronoUnit.MONTHS.between(FIRST_KEPT, YearMonth.now()));
+    }
+
+    //Один раз на класс
+    @BeforeEach
+    void sendHits() {
+        if (now != null) {
+            return;
+        }
+        Random random = new Random(17);
+        //Полтора месяца истории: суточные, часовые и минутные агрегаты плюс края по сырым просмотрам
+        for (int i = 0; i < 700; i++) {
+            HITS.add(hit(HISTORY_START.plusMinutes(i * 97L), random));
+        }
+        //Последние три часа: внутри горячего окна
+        now = LocalDateTime.now().truncatedTo(ChronoUnit.MINUTES);
+        for (int i = 0; i < 300; i++) {
+            HITS.add(hit(now.minusMinutes(random.nextInt(180)), random));
+        }
+        for (int from = 0; from < HITS.size(); from += 250) {
+            ResponseEntity<HitStatus[]> response = restTemplate.postForEntity("/hits",
+                    HITS.subList(from, Math.min(from + 250, HITS.size())), HitStatus[].class);
+            assertThat(response.getStatusCode()).isEqualTo(HttpStatus.CREATED);
+            for (HitStatus status : response.getBody()) {
+                assertThat(status.getStatus()).isEqualTo(HitStatus.CREATED);
+            }
+        }
+        //При запуске удалять было нечего: просмотры пришли позже
+        partitionMaintenanceService.maintain();
+    }
+
+    @Test
+    void allTimeTotalsMatch() {
+        //Границы запросов на 30-й секунде: ни один просмотр на границу не попадает
+        LocalDateTime start = HISTORY_START.minusDays(1).plusSeconds(30);
+        LocalDateTime end = now.plusHours(1).plusSeconds(30);
+
+        assertThat(stats(start, end, false, null)).isEqualTo(expected(start, end, false, null));
+        assertThat(stats(start, end, true, null)).isEqualTo(expected(start, end, true, null));
+    }
+
+    @Test
+    void unalignedHistoricalRangeMatches() {
+        LocalDateTime start = LocalDateTime.of(2024, 2, 3, 10, 17, 30);
+        LocalDateTime end = LocalDateTime.of(2024, 2, 14, 5, 3, 30);
+
+        assertThat(stats(start, end, false, null)).isEqualTo(expected(start, end, false, null));
+        assertThat(stats(start, end, true, null)).isEqualTo(expected(start, end, true, null));
+    }
+
+    @Test
+    void expiredRangeIsEmptyOnEveryPath() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 3, 10, 17, 30);
+        LocalDateTime end = LocalDateTime.of(2024, 1, 29, 5, 3, 30);
+
+        assertThat(stats(start, end, false, null)).isEmpty();
+        assertThat(stats(start, end, true, null)).isEmpty();
+    }
+
+    @Test
+    void hotWindowRangeMatches() {
+        LocalDateTime start = now.minusHours(2).minusMinutes(7).plusSeconds(30);
+        LocalDateTime end = now.plusSeconds(30);
+
+        assertThat(stats(start, end, false, null)).isEqualTo(expected(start, end, false, null));
+        assertThat(stats(start, end, true, null)).isEqualTo(expected(start, end, true, null));
+    }
+
+    @Test
+    void rangeAcrossHotWindowEdgeMatches() {
+        LocalDateTime start = LocalDateTime.of(2024, 1, 20, 6, 41, 30);
+        LocalDateTime end = now.minusMinutes(43).plusSeconds(30);
+        Set<String> uris = Set.of("/events/1", "/events/3");
+
+        assertThat(stats(start, end, false, uris)).isEqualTo(expected(start, end, false, uris));
+        assertThat(stats(start, end, true, uris)).isEqualTo(expected(start, end, true, uris));
+    }
+
+    private Map<String, Long> stats(LocalDateTime start, LocalDateTime end, boolean unique, Set<String> uris) {
+        StringBuilder url = new StringBuilder("/stats?start={start}&end={end}&unique={unique}");
+        if (uris != null) {
+            uris.forEach(uri -> url.append("&uris=").append(uri));
+        }
+        ViewStats[] views = restTemplate.getForObject(url.toString(), ViewStats[].class,
+                start.format(DateConstants.DTF), end.format(DateConstants.DTF), unique);
+        Map<String, Long> result = new HashMap<>();
+        for (ViewStats view : views) {
+            assertThat(view.getApp()).isEqualTo(APP);
+            result.put(view.getUri(), view.getHits());
+        }
+        return result;
+    }
+
+    private Map<String, Long> expected(LocalDateTime start, LocalDateTime end, boolean unique, Set<String> uris) {
+        Map<String, Long> views = new HashMap<>();
+        Map<String, Set<String>> visitors = new HashMap<>();
+        for (EndpointHit hit : HITS) {
+            if (hit.getTimestamp().isBefore(start) || !hit.getTimestamp().isBefore(end)
+                    || hit.getTimestamp().isBefore(FIRST_KEPT.atDay(1).atStartOfDay())
+                    || uris != null && !uris.contains(hit.getUri())) {
+                continue;
+            }
+            views.merge(hit.getUri(), 1L, Long::sum);
+            visitors.computeIfAbsent(hit.getUri(), uri -> new HashSet<>()).add(hit.getIp());
+        }
+        if (unique) {
+            visitors.forEach((uri, ips) -> views.put(uri, (long) ips.size()));
+        }
+        return views;
+    }
+
+    //Пять uri и двадцать IP: у каждого uri повторные посетители, уникальные меньше просмотров
+    private static EndpointHit hit(LocalDateTime timestamp, Random random) {
+        EndpointHit hit = new EndpointHit();
+        hit.setApp(APP);
+        hit.setUri("/events/" + (1 + random.nextInt(5)));
+        hit.setIp("10.0.0." + (1 + random.nextInt(20)));
+        hit.setTimestamp(timestamp);
+        return hit;
+    }
+
+}
@@ -0,0 +1,93 @@
+package ru.practicum.repository;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import ru.practicum.model.TimeRange;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StatisticSqlTest {
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+    @Test
+    void appendsSingleHalfOpenRange() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        String sql = StatisticSql.appendRanges(new StringBuilder(), params, "view_date",
+                List.of(new TimeRange(DAY, DAY.plusDays(1)))).toString();
+
+        assertThat(sql).isEqualTo("((view_date >= :from0 AND view_date < :to0))");
+        assertThat(params.getValue("from0")).isEqualTo(Timestamp.valueOf(DAY));
+        assertThat(params.getValue("to0")).isEqualTo(Timestamp.valueOf(DAY.plusDays(1)));
+    }
+
+    @Test
+    void joinsSeveralRangesWithOr() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        String sql = StatisticSql.appendRanges(new StringBuilder("WHERE "), params, "bucket_start", List.of(
+                new TimeRange(DAY, DAY.plusHours(1)),
+                new TimeRange(DAY.plusDays(2), DAY.plusDays(3)))).toString();
+
+        assertThat(sql).isEqualTo("WHERE ((bucket_start >= :from0 AND bucket_start < :to0)"
+                + " OR (bucket_start >= :from1 AND bucket_start < :to1))");
+        assertThat(params.getValue("from1")).isEqualTo(Timestamp.valueOf(DAY.plusDays(2)));
+        assertThat(params.getValue("to1")).isEqualTo(Timestamp.valueOf(DAY.plusDays(3)));
+    }
+
+    @Test
+    void prefixKeepsParametersOfSeveralRangeSetsApart() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        StringBuilder sql = new StringBuilder();
+
+        StatisticSql.appendRanges(sql, params, "view_date", List.of(new TimeRange(DAY, DAY.plusMinutes(5))), "raw");
+        sql.append(" UNION ALL ");
+        StatisticSql.appendRanges(sql, params, "bucket_start", List.of(new TimeRange(DAY, DAY.plusDays(1))), "day");
+
+        assertThat(sql.toString()).contains(":rawfrom0", ":rawto0", ":dayfrom0", ":dayto0");
+        assertThat(params.getValue("rawto0")).isEqualTo(Timestamp.valueOf(DAY.plusMinutes(5)));
+        assertThat(params.getValue("dayto0")).isEqualTo(Timestamp.valueOf(DAY.plusDays(1)));
+    }
+
+    @Test
+    void shortUriListsUseInList() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        assertThat(StatisticSql.uriFilter(params, Set.of(1, 2, 3), true)).isEqualTo("uri_id IN (:uriIds)");
+        assertThat(params.getValue("uriIds")).isEqualTo(Set.of(1, 2, 3));
+    }
+
+    @Test
+    void longUriListsUseArray() {
+        Set<Integer> uriIds = IntStream.rangeClosed(1, 1001).boxed().collect(Collectors.toSet());
+        MapSqlParameterSource h2 = new MapSqlParameterSource();
+        MapSqlParameterSource postgres = new MapSqlParameterSource();
+
+        assertThat(StatisticSql.uriFilter(h2, uriIds, false)).isEqualTo("uri_id = ANY(:uriIds)");
+        assertThat((Integer[]) h2.getValue("uriIds")).hasSize(1001);
+        //В PostgreSQL массив - литерал в тексте запроса, без параметра
+        String filter = StatisticSql.uriFilter(postgres, uriIds, true);
+        assertThat(filter).startsWith("uri_id = ANY('{1,2,3,").endsWith(",1000,1001}'::int[])");
+        assertThat(postgres.hasValue("uriIds")).isFalse();
+    }
+
+    @Test
+    void topEscapesLikeWildcardsInPrefix() {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+
+        String sql = StatisticSql.top("SELECT 1", params, "/a_b%\\", 10);
+
+        assertThat(sql).contains("WHERE u.name LIKE :prefix ESCAPE '\\'").endsWith("LIMIT :limit");
+        assertThat(params.getValue("prefix")).isEqualTo("/a\\_b\\%\\\\%");
+        assertThat(params.getValue("limit")).isEqualTo(10);
+    }
+
+}
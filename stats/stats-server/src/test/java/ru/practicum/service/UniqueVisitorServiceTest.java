@@ -0,0 +1,108 @@
+package ru.practicum.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import ru.practicum.dto.ViewStats;
+import ru.practicum.model.DictionaryType;
+import ru.practicum.model.Hit;
+import ru.practicum.model.VisitorStore;
+import ru.practicum.repository.VisitorRepository;
+import ru.practicum.storage.HitStorage;
+import ru.practicum.validation.IpAddress;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class UniqueVisitorServiceTest {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2025, 3, 1, 12, 0);
+
+    private final VisitorRepository visitorRepository = mock(VisitorRepository.class);
+
+    private UniqueVisitorService service;
+
+    @BeforeEach
+    void setUp(@TempDir Path data) throws IOException {
+        DictionaryService dictionaryService = mock(DictionaryService.class);
+        when(dictionaryService.nameOf(any(), anyInt())).thenAnswer(call ->
+                call.getArgument(0) == DictionaryType.APP ? "ewm-main-service" : "/events/" + call.getArgument(1));
+        service = new UniqueVisitorService(visitorRepository, mock(HitStorage.class), dictionaryService,
+                mock(PlatformTransactionManager.class), true, VisitorStore.MEMORY,
+                data.resolve("visitors.snapshot").toString());
+        service.init();
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void uncommittedVisitorIsNotCounted() {
+        List<TransactionSynchronization> open = write(hit(1, "10.0.0.1"));
+
+        assertThat(service.getUniqueViews(Set.of(1))).isEmpty();
+
+        open.forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(service.getUniqueViews(Set.of(1)))
+                .containsExactly(new ViewStats("ewm-main-service", "/events/1", 1L));
+    }
+
+    @Test
+    void rollbackKeepsVisitorCommittedByAnotherTransaction() {
+        //A и B видят одного посетителя, B фиксируется первой, A откатывается
+        List<TransactionSynchronization> first = write(hit(1, "10.0.0.1"));
+        List<TransactionSynchronization> second = write(hit(1, "10.0.0.1"));
+
+        second.forEach(TransactionSynchronization::afterCommit);
+        first.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+
+        assertThat(service.getUniqueViews(Set.of(1))).extracting(ViewStats::getHits).containsExactly(1L);
+        verify(visitorRepository).increment(List.of(Map.entry(List.of(1, 1), 1L)));
+    }
+
+    @Test
+    void visitorIsCountedOnceWhenBothTransactionsCommit() {
+        List<TransactionSynchronization> first = write(hit(1, "10.0.0.1"), hit(1, "10.0.0.2"));
+        List<TransactionSynchronization> second = write(hit(1, "10.0.0.2"));
+
+        first.forEach(TransactionSynchronization::afterCommit);
+        second.forEach(TransactionSynchronization::afterCommit);
+
+        assertThat(service.getUniqueViews(Set.of(1))).extracting(ViewStats::getHits).containsExactly(2L);
+        verify(visitorRepository).increment(List.of(Map.entry(List.of(1, 1), 2L)));
+    }
+
+    //Синхронизации одной транзакции записи, пока она не завершена
+    private List<TransactionSynchronization> write(Hit... hits) {
+        TransactionSynchronizationManager.initSynchronization();
+        service.onHits(List.of(hits));
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        TransactionSynchronizationManager.clearSynchronization();
+        return synchronizations;
+    }
+
+    private static Hit hit(int uriId, String ip) {
+        return new Hit(null, null, null, null, ip, IpAddress.parse(ip), NOW, 1, uriId);
+    }
+
+}
@@ -0,0 +1,73 @@
+package ru.practicum.sharding;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ShardRingTest {
+
+    private static final int URIS = 100_000;
+
+    @Test
+    void singleShardOwnsEverything() {
+        ShardRing ring = new ShardRing(1);
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(ring.shardOf("/events/" + i)).isZero();
+        }
+    }
+
+    @Test
+    void spreadsUrisEvenly() {
+        int shards = 4;
+        int[] counts = counts(new ShardRing(shards), shards);
+
+        //160 точек на шард дают разброс в несколько процентов, 15% - с запасом
+        for (int count : counts) {
+            assertThat(count).isBetween(URIS / shards * 85 / 100, URIS / shards * 115 / 100);
+        }
+    }
+
+    @Test
+    void appendedShardTakesOnlyItsShare() {
+        ShardRing before = new ShardRing(4);
+        ShardRing after = new ShardRing(5);
+
+        int moved = 0;
+        for (int i = 0; i < URIS; i++) {
+            String uri = "/events/" + i;
+            int owner = after.shardOf(uri);
+            if (owner != before.shardOf(uri)) {
+                //Uri переезжают только на новый шард, между старыми ничего не перемешивается
+                assertThat(owner).isEqualTo(4);
+                moved++;
+            }
+        }
+        assertThat(moved).isBetween(URIS / 5 * 85 / 100, URIS / 5 * 115 / 100);
+    }
+
+    @Test
+    void sameUriAlwaysGoesToSameShard() {
+        ShardRing first = new ShardRing(3);
+        ShardRing second = new ShardRing(3);
+
+        for (int i = 0; i < 1000; i++) {
+            assertThat(first.shardOf("/events/" + i)).isEqualTo(second.shardOf("/events/" + i));
+        }
+    }
+
+    @Test
+    void rejectsEmptyRing() {
+        assertThatThrownBy(() -> new ShardRing(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static int[] counts(ShardRing ring, int shards) {
+        int[] counts = new int[shards];
+        for (int i = 0; i < URIS; i++) {
+            counts[ring.shardOf("/events/" + i)]++;
+        }
+        return counts;
+    }
+
+}
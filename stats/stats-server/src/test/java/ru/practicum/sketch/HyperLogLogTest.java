@@ -0,0 +1,102 @@
+package ru.practicum.sketch;
+
+import org.assertj.core.data.Percentage;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HyperLogLogTest {
+
+    @Test
+    void emptySketchEstimatesZero() {
+        assertThat(new HyperLogLog(12).estimate()).isZero();
+    }
+
+    @Test
+    void smallSetsAreNearlyExact() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (long i = 0; i < 100; i++) {
+            sketch.add(Hashing.fmix64(i));
+        }
+
+        assertThat(sketch.estimate()).isBetween(99L, 101L);
+    }
+
+    @Test
+    void duplicatesDoNotChangeEstimate() {
+        HyperLogLog sketch = new HyperLogLog(12);
+        for (long i = 0; i < 5_000; i++) {
+            sketch.add(Hashing.fmix64(i));
+        }
+        long estimate = sketch.estimate();
+        for (long i = 0; i < 5_000; i++) {
+            sketch.add(Hashing.fmix64(i));
+        }
+
+        assertThat(sketch.estimate()).isEqualTo(estimate);
+    }
+
+    @Test
+    void largeSetsStayWithinThreeStandardErrors() {
+        //1.04 / sqrt(4096) = 1.6%, три ошибки - 4.9%
+        for (long n : new long[]{10_000, 100_000, 1_000_000}) {
+            HyperLogLog sketch = new HyperLogLog(12);
+            for (long i = 0; i < n; i++) {
+                sketch.add(Hashing.fmix64(n * 31 + i));
+            }
+
+            assertThat((double) sketch.estimate()).isCloseTo(n, Percentage.withPercentage(4.9));
+        }
+    }
+
+    @Test
+    void mergeEqualsSketchOfUnion() {
+        HyperLogLog left = new HyperLogLog(10);
+        HyperLogLog right = new HyperLogLog(10);
+        HyperLogLog union = new HyperLogLog(10);
+        for (long i = 0; i < 30_000; i++) {
+            long hash = Hashing.fmix64(i);
+            //Пересечение: треть значений попадает в оба скетча
+            if (i % 3 != 0) {
+                left.add(hash);
+            }
+            if (i % 3 != 1) {
+                right.add(hash);
+            }
+            union.add(hash);
+        }
+
+        left.merge(right);
+
+        assertThat(left.toBytes()).isEqualTo(union.toBytes());
+    }
+
+    @Test
+    void roundTripsThroughBytes() {
+        HyperLogLog sketch = new HyperLogLog(8);
+        for (long i = 0; i < 1_000; i++) {
+            sketch.add(Hashing.fmix64(i));
+        }
+
+        HyperLogLog copy = HyperLogLog.fromBytes(sketch.toBytes());
+
+        assertThat(copy.estimate()).isEqualTo(sketch.estimate());
+        assertThat(copy.toBytes()).isEqualTo(sketch.toBytes());
+    }
+
+    @Test
+    void rejectsCorruptedBytesAndMixedPrecision() {
+        byte[] bytes = new HyperLogLog(8).toBytes();
+
+        assertThatThrownBy(() -> HyperLogLog.fromBytes(Arrays.copyOf(bytes, bytes.length - 1)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HyperLogLog(8).merge(new HyperLogLog(9)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HyperLogLog(3)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new HyperLogLog(19)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+}
@@ -0,0 +1,79 @@
+package ru.practicum.sketch;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SpaceSavingTest {
+
+    @Test
+    void countsExactlyBelowCapacity() {
+        SpaceSaving summary = new SpaceSaving(4);
+        summary.add(1, 5);
+        summary.add(2, 3);
+        summary.add(1, 2);
+
+        Map<Long, long[]> counters = counters(summary);
+        assertThat(counters).containsOnlyKeys(1L, 2L);
+        assertThat(counters.get(1L)).containsExactly(7, 0);
+        assertThat(counters.get(2L)).containsExactly(3, 0);
+        assertThat(summary.missingBound()).isZero();
+    }
+
+    @Test
+    void evictedKeyInheritsMinimumAsError() {
+        SpaceSaving summary = new SpaceSaving(2);
+        summary.add(1, 10);
+        summary.add(2, 3);
+        summary.add(3, 1);
+
+        Map<Long, long[]> counters = counters(summary);
+        assertThat(counters).containsOnlyKeys(1L, 3L);
+        assertThat(counters.get(3L)).containsExactly(4, 3);
+        assertThat(summary.missingBound()).isEqualTo(4);
+    }
+
+    @Test
+    void boundsHoldForSkewedStream() {
+        SpaceSaving summary = new SpaceSaving(50);
+        Map<Long, Long> exact = new HashMap<>();
+        Random random = new Random(7);
+        for (int i = 0; i < 100_000; i++) {
+            //Ключи 0..9 частые, остальные 990 - шум
+            long key = random.nextInt(4) == 0 ? 10 + random.nextInt(990) : random.nextInt(10);
+            long weight = 1 + random.nextInt(3);
+            summary.add(key, weight);
+            exact.merge(key, weight, Long::sum);
+        }
+
+        Map<Long, long[]> counters = counters(summary);
+        for (Map.Entry<Long, Long> entry : exact.entrySet()) {
+            long[] counter = counters.get(entry.getKey());
+            if (counter == null) {
+                assertThat(entry.getValue()).isLessThanOrEqualTo(summary.missingBound());
+            } else {
+                assertThat(entry.getValue()).isBetween(counter[0] - counter[1], counter[0]);
+            }
+        }
+        for (long key = 0; key < 10; key++) {
+            assertThat(counters).containsKey(key);
+        }
+    }
+
+    @Test
+    void rejectsNonPositiveCapacity() {
+        assertThatThrownBy(() -> new SpaceSaving(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Map<Long, long[]> counters(SpaceSaving summary) {
+        Map<Long, long[]> counters = new HashMap<>();
+        summary.forEach((key, count, error) -> counters.put(key, new long[]{count, error}));
+        return counters;
+    }
+
+}
@@ -0,0 +1,72 @@
+package ru.practicum.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IntHashSetTest {
+
+    @Test
+    void addsAndRemovesZero() {
+        IntHashSet set = new IntHashSet();
+
+        assertThat(set.add(0)).isTrue();
+        assertThat(set.add(0)).isFalse();
+        assertThat(set.size()).isEqualTo(1);
+        assertThat(set.remove(0)).isTrue();
+        assertThat(set.remove(0)).isFalse();
+        assertThat(set.size()).isZero();
+    }
+
+    @Test
+    void removeKeepsProbeChainsReachable() {
+        IntHashSet set = new IntHashSet(8);
+        for (int value = 1; value <= 200; value++) {
+            set.add(value);
+        }
+
+        for (int value = 1; value <= 200; value += 3) {
+            assertThat(set.remove(value)).isTrue();
+        }
+
+        for (int value = 1; value <= 200; value++) {
+            assertThat(set.add(value)).isEqualTo((value - 1) % 3 == 0);
+        }
+        assertThat(set.size()).isEqualTo(200);
+    }
+
+    @Test
+    void matchesHashSetUnderRandomChurn() {
+        IntHashSet set = new IntHashSet();
+        Set<Integer> expected = new HashSet<>();
+        Random random = new Random(11);
+        for (int i = 0; i < 200_000; i++) {
+            //Небольшой диапазон, чтобы удаления часто попадали в существующие цепочки
+            int value = random.nextInt(2_000) - 1_000;
+            if (random.nextBoolean()) {
+                assertThat(set.add(value)).isEqualTo(expected.add(value));
+            } else {
+                assertThat(set.remove(value)).isEqualTo(expected.remove(value));
+            }
+        }
+
+        assertThat(set.size()).isEqualTo(expected.size());
+        Set<Integer> actual = new HashSet<>();
+        set.forEach(actual::add);
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    void removeOfMissingValueChangesNothing() {
+        IntHashSet set = new IntHashSet();
+        set.add(5);
+
+        assertThat(set.remove(6)).isFalse();
+        assertThat(set.size()).isEqualTo(1);
+    }
+
+}
@@ -0,0 +1,45 @@
+package ru.practicum.storage;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LongIndexTest {
+
+    @Test
+    void assignsDenseSlotsInInsertionOrder() {
+        LongIndex index = new LongIndex();
+
+        assertThat(index.slotOf(42)).isZero();
+        assertThat(index.slotOf(-1)).isEqualTo(1);
+        assertThat(index.slotOf(0)).isEqualTo(2);
+        assertThat(index.slotOf(42)).isZero();
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.keyAt(1)).isEqualTo(-1);
+    }
+
+    @Test
+    void keepsSlotsAcrossRehash() {
+        LongIndex index = new LongIndex();
+        for (long key = 0; key < 10_000; key++) {
+            assertThat(index.slotOf(key * 0x1_0000_0001L)).isEqualTo((int) key);
+        }
+
+        assertThat(index.size()).isEqualTo(10_000);
+        for (long key = 0; key < 10_000; key++) {
+            assertThat(index.slotOf(key * 0x1_0000_0001L)).isEqualTo((int) key);
+            assertThat(index.keyAt((int) key)).isEqualTo(key * 0x1_0000_0001L);
+        }
+    }
+
+    @Test
+    void distinguishesIpv6KeysFromIpv4() {
+        LongIndex index = new LongIndex();
+        long ipv4 = IpKey.of(new byte[]{10, 0, 0, 1});
+        long ipv6 = IpKey.of(new byte[]{0x20, 0x01, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 10, 0, 0, 1});
+
+        assertThat(index.slotOf(ipv4)).isNotEqualTo(index.slotOf(ipv6));
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+}
@@ -0,0 +1,102 @@
+package ru.practicum.storage.segment;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.model.Hit;
+import ru.practicum.repository.SegmentCommitRepository;
+import ru.practicum.service.DictionaryService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SegmentHitStorageTest {
+
+    private static final LocalDateTime DAY = LocalDateTime.of(2025, 3, 1, 0, 0);
+
+    @TempDir
+    Path directory;
+
+    private final SegmentCommitRepository segmentCommitRepository = mock(SegmentCommitRepository.class);
+
+    private SegmentHitStorage storage;
+
+    @AfterEach
+    void close() {
+        if (storage != null) {
+            storage.close();
+        }
+    }
+
+    @Test
+    void loadDeletesOnlyLeftoversOfItsOwn() throws IOException {
+        Files.writeString(directory.resolve("README"), "notes");
+        Files.writeString(directory.resolve("visitors.snapshot"), "snapshot");
+        Files.createDirectories(directory.resolve("backup"));
+        Files.writeString(directory.resolve("backup").resolve("000000000001.seg"), "copy");
+        //Остатки отката и недописанный MANIFEST
+        Files.writeString(directory.resolve("000000000007.seg"), "rolled back");
+        Files.writeString(directory.resolve("MANIFEST.tmp"), "000000000007.seg\n");
+        when(segmentCommitRepository.findAll()).thenReturn(Set.of());
+
+        storage = new SegmentHitStorage(mock(DictionaryService.class), segmentCommitRepository,
+                directory.toString(), 1, 1000, 64, 0);
+        storage.load();
+
+        assertThat(directory.resolve("000000000007.seg")).doesNotExist();
+        assertThat(directory.resolve("MANIFEST.tmp")).doesNotExist();
+        assertThat(directory.resolve("README")).hasContent("notes");
+        assertThat(directory.resolve("visitors.snapshot")).hasContent("snapshot");
+        assertThat(directory.resolve("backup").resolve("000000000001.seg")).hasContent("copy");
+        assertThat(storage.findIngestMark()).isZero();
+    }
+
+    @Test
+    void singleHitsAreCompactedBySegmentCount() throws IOException, InterruptedException {
+        when(segmentCommitRepository.findAll()).thenReturn(Set.of());
+        storage = new SegmentHitStorage(mock(DictionaryService.class), segmentCommitRepository,
+                directory.toString(), 1, 1000, 4, 0);
+        storage.load();
+
+        //Вне транзакции каждый просмотр сразу публикуется своим сегментом, как одиночный /hit
+        for (int i = 0; i < 50; i++) {
+            storage.save(new Hit(null, null, null, null, null, new byte[]{10, 0, 0, (byte) i},
+                    DAY.plusMinutes(i), 1, 1 + i % 3));
+        }
+        //Уплотнение идёт в фоне: ждём, пока не останется не больше четырёх свежих и четырёх мелких сегментов
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (segmentFiles() > 8 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+
+        assertThat(segmentFiles()).isLessThanOrEqualTo(8);
+        assertThat(rows()).isEqualTo(50);
+
+        storage.compact();
+
+        assertThat(segmentFiles()).isEqualTo(1);
+        assertThat(rows()).isEqualTo(50);
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    private int rows() {
+        AtomicInteger rows = new AtomicInteger();
+        storage.forEachHitSince(0, (timestamp, appId, uriId, ip) -> rows.incrementAndGet());
+        return rows.get();
+    }
+
+}
@@ -0,0 +1,103 @@
+package ru.practicum.storage.segment;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.practicum.storage.IpKey;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentTest {
+
+    private static final long DAY = 86400;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsSortedIpv4Rows() throws IOException {
+        SegmentRows rows = new SegmentRows(4);
+        rows.add(1_700_000_000L + DAY, 1, 10, IpKey.of(new byte[]{10, 0, 0, 1}));
+        rows.add(1_700_000_000L, 2, 20, IpKey.of(new byte[]{(byte) 192, (byte) 168, 1, (byte) 255}));
+        rows.add(1_700_000_000L + 5, 1, 11, IpKey.of(new byte[]{10, 0, 0, 2}));
+        SegmentRows sorted = rows.sorted();
+
+        Segment segment = write(7, 1, sorted);
+
+        assertThat(segment.getSeq()).isEqualTo(7);
+        assertThat(segment.getLevel()).isEqualTo(1);
+        assertThat(segment.getRows()).isEqualTo(3);
+        assertThat(segment.getMinTimestamp()).isEqualTo(1_700_000_000L);
+        assertThat(segment.getMaxTimestamp()).isEqualTo(1_700_000_000L + DAY);
+        assertSameRows(read(segment), sorted);
+    }
+
+    @Test
+    void roundTripsMixedIpv6Rows() throws IOException {
+        byte[] ipv6 = new byte[16];
+        ipv6[0] = 0x20;
+        ipv6[1] = 0x01;
+        ipv6[15] = 1;
+        SegmentRows rows = new SegmentRows(2);
+        rows.add(1_000, 1, 1, IpKey.of(new byte[]{1, 2, 3, 4}));
+        rows.add(1_000 + 100 * DAY, 1, 2, IpKey.of(ipv6));
+
+        Segment segment = write(1, 0, rows.sorted());
+
+        SegmentRows read = read(segment);
+        assertSameRows(read, rows.sorted());
+        assertThat(IpKey.isIpv4(read.ip(1))).isFalse();
+    }
+
+    @Test
+    void roundTripsEmptySegment() throws IOException {
+        Segment segment = write(3, 0, new SegmentRows(0));
+
+        assertThat(segment.getRows()).isZero();
+        assertThat(read(segment).size()).isZero();
+    }
+
+    @Test
+    void refusesToOverwriteSegment() throws IOException {
+        write(1, 0, new SegmentRows(0));
+
+        assertThatThrownBy(() -> Segment.write(directory.resolve("1.seg"), 1, 0, new SegmentRows(0)))
+                .isInstanceOf(FileAlreadyExistsException.class);
+    }
+
+    @Test
+    void rejectsForeignFile() throws IOException {
+        Path path = directory.resolve("foreign.seg");
+        Files.write(path, new byte[64]);
+
+        assertThatThrownBy(() -> Segment.open(path)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private Segment write(long seq, int level, SegmentRows rows) throws IOException {
+        Path path = directory.resolve(seq + ".seg");
+        Segment.write(path, seq, level, rows);
+        return Segment.open(path);
+    }
+
+    private static SegmentRows read(Segment segment) {
+        SegmentRows rows = new SegmentRows(segment.getRows());
+        segment.readInto(rows);
+        return rows;
+    }
+
+    private static void assertSameRows(SegmentRows actual, SegmentRows expected) {
+        assertThat(actual.size()).isEqualTo(expected.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertThat(actual.timestamp(row)).isEqualTo(expected.timestamp(row));
+            assertThat(actual.appId(row)).isEqualTo(expected.appId(row));
+            assertThat(actual.uriId(row)).isEqualTo(expected.uriId(row));
+            assertThat(actual.ip(row)).isEqualTo(expected.ip(row));
+        }
+    }
+
+}